@@ -0,0 +1,65 @@
+package com.shokoladova.bank_operations;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Chooses which of the pre-created accounts the next benchmark operation touches.
+ * {@code uniform} spreads operations evenly, {@code hot} sends half of them to a single account,
+ * and {@code zipfian} follows a Zipf distribution with the exponent YCSB uses.
+ */
+class AccountPicker {
+
+    private static final double HOT_SHARE = 0.5;
+    private static final double ZIPF_EXPONENT = 0.99;
+
+    private final String contention;
+    private final int accounts;
+    private final double[] zipfCdf;
+
+    AccountPicker(String contention, int accounts) {
+        this.contention = contention;
+        this.accounts = accounts;
+        switch (contention) {
+            case "uniform":
+            case "hot":
+                zipfCdf = null;
+                break;
+            case "zipfian":
+                zipfCdf = zipfCdf(accounts);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown contention pattern " + contention);
+        }
+    }
+
+    int next() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (zipfCdf != null) {
+            int index = Arrays.binarySearch(zipfCdf, random.nextDouble());
+            return Math.min(index < 0 ? -index - 1 : index, accounts - 1);
+        }
+        if ("hot".equals(contention) && random.nextDouble() < HOT_SHARE) {
+            return 0;
+        }
+        return random.nextInt(accounts);
+    }
+
+    int nextOtherThan(int index) {
+        int other = next();
+        return other != index ? other : (other + 1) % accounts;
+    }
+
+    private static double[] zipfCdf(int accounts) {
+        double[] cdf = new double[accounts];
+        double sum = 0;
+        for (int i = 0; i < accounts; i++) {
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < accounts; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+}
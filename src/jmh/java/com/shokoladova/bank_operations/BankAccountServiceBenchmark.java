@@ -0,0 +1,132 @@
+package com.shokoladova.bank_operations;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Service-level throughput and latency of every {@link BankAccountService} operation.
+ * Thread counts are swept with {@code -t}, e.g. through {@link BenchmarkRunner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BankAccountServiceBenchmark {
+
+    static final int INITIAL_BALANCE = 1_000_000_000;
+
+    @Param({"jdbc", "jdbc-group-commit", "ledger"})
+    public String engine;
+
+    @Param({"uniform", "hot", "zipfian"})
+    public String contention;
+
+    @Param("10000")
+    public int accounts;
+
+    private BankAccountService service;
+    private ConnectionPool connectionPool;
+    private Path journalDir;
+    private UUID[] ids;
+    private AccountPicker picker;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        switch (engine) {
+            case "jdbc":
+            case "jdbc-group-commit":
+                connectionPool = new ConnectionPool(ConnectionPoolConfig.builder()
+                        .url("jdbc:h2:mem:benchmark-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1")
+                        .build());
+                service = new BankAccountServiceImpl(connectionPool, StripedLockTable.fromSystemProperties(),
+                        BankAccountServiceConfig.builder()
+                                .groupCommitEnabled("jdbc-group-commit".equals(engine))
+                                .build());
+                break;
+            case "ledger":
+                journalDir = Files.createTempDirectory("ledger-benchmark");
+                service = new ShardedLedgerService(LedgerConfig.builder()
+                        .journalDir(journalDir.toString())
+                        .build());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+        ids = new UUID[accounts];
+        for (int i = 0; i < accounts; i++) {
+            ids[i] = service.create("Benchmark " + i, INITIAL_BALANCE).getId();
+        }
+        picker = new AccountPicker(contention, accounts);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (service instanceof AutoCloseable) {
+            ((AutoCloseable) service).close();
+        }
+        if (connectionPool != null) {
+            connectionPool.closeQuietly();
+        }
+        if (journalDir != null) {
+            deleteRecursively(journalDir);
+        }
+    }
+
+    @Benchmark
+    public BankAccount create() throws SQLException {
+        return service.create("Benchmark", 100);
+    }
+
+    @Benchmark
+    public BankAccount get() throws SQLException {
+        return service.get(ids[picker.next()]);
+    }
+
+    @Benchmark
+    public BankAccount deposit() throws SQLException {
+        return service.deposit(ids[picker.next()], 1);
+    }
+
+    @Benchmark
+    public BankAccount withdraw() throws SQLException {
+        return service.withdraw(ids[picker.next()], 1);
+    }
+
+    @Benchmark
+    public boolean transfer() throws SQLException {
+        int source = picker.next();
+        int destination = picker.nextOtherThan(source);
+        return service.transfer(TransferRequest.builder()
+                .sourceId(ids[source])
+                .destinationId(ids[destination])
+                .amount(1)
+                .build());
+    }
+
+    static void deleteRecursively(Path dir) throws Exception {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.shokoladova.bank_operations;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count and keeps a JSON result file for each run,
+ * so releases can be compared on ops/sec and p99 latency. With {@code -Dbench.gc=true} the GC profiler is attached
+ * and every result also carries {@code gc.alloc.rate.norm}, the bytes allocated per operation.
+ * <p>
+ * {@code java -Dbench.threads=1,4,16 -cp target/benchmarks.jar com.shokoladova.bank_operations.BenchmarkRunner [regexp]}
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : ".*Benchmark.*";
+        String resultDir = SystemProperties.getString("bench.resultDir", "target");
+        for (String threads : SystemProperties.getString("bench.threads", "1,4,16").split(",")) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(Integer.parseInt(threads.trim()))
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(resultDir + "/jmh-threads-" + threads.trim() + ".json");
+            if (SystemProperties.getBoolean("bench.gc", false)) {
+                options.addProfiler(GCProfiler.class);
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
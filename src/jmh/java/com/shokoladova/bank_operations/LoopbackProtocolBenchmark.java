@@ -0,0 +1,196 @@
+package com.shokoladova.bank_operations;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * The same service operations over loopback, once through the {@link SparkServer} routes with keep-alive
+ * HTTP connections and once through the {@link BinaryProtocolServer}, one request at a time and pipelined.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dhttp.maxConnections=256")
+public class LoopbackProtocolBenchmark {
+
+    static final int PIPELINE_DEPTH = 16;
+
+    @Param({"http", "binary"})
+    public String protocol;
+
+    @Param("uniform")
+    public String contention;
+
+    @Param("10000")
+    public int accounts;
+
+    @Param("18091")
+    public int httpPort;
+
+    @Param("18092")
+    public int binaryPort;
+
+    private ConnectionPool connectionPool;
+    private BankAccountServiceImpl service;
+    private SparkServer httpServer;
+    private BinaryProtocolServer binaryServer;
+    private String baseUrl;
+    private UUID[] ids;
+    private AccountPicker picker;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        connectionPool = new ConnectionPool(ConnectionPoolConfig.builder()
+                .url("jdbc:h2:mem:benchmark-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1")
+                .build());
+        StripedLockTable lockTable = StripedLockTable.fromSystemProperties();
+        service = new BankAccountServiceImpl(connectionPool, lockTable, BankAccountServiceConfig.fromSystemProperties());
+        ids = new UUID[accounts];
+        for (int i = 0; i < accounts; i++) {
+            ids[i] = service.create("Benchmark " + i, BankAccountServiceBenchmark.INITIAL_BALANCE).getId();
+        }
+        picker = new AccountPicker(contention, accounts);
+
+        if ("http".equals(protocol)) {
+            httpServer = new SparkServer(new BankAccountFacadeImpl(service), new StatsFacadeImpl(connectionPool, lockTable, service),
+                    ServerConfig.builder().port(httpPort).build());
+            httpServer.start();
+            baseUrl = "http://localhost:" + httpPort;
+        } else {
+            binaryServer = new BinaryProtocolServer(service, BinaryProtocolConfig.builder().port(binaryPort).build());
+            binaryServer.start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (httpServer != null) {
+            httpServer.stop();
+        }
+        if (binaryServer != null) {
+            binaryServer.close();
+        }
+        service.close();
+        connectionPool.closeQuietly();
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+
+        BinaryProtocolClient client;
+
+        @Setup(Level.Trial)
+        public void open(LoopbackProtocolBenchmark benchmark) throws IOException {
+            if (benchmark.binaryServer != null) {
+                client = new BinaryProtocolClient("localhost", benchmark.binaryPort);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            if (client != null) {
+                client.close();
+            }
+        }
+    }
+
+    @Benchmark
+    public Object get(Connection connection) throws IOException {
+        UUID id = ids[picker.next()];
+        return connection.client == null ?
+                call("GET", format("/account?id=%s", id), null) :
+                connection.client.get(id);
+    }
+
+    @Benchmark
+    public Object deposit(Connection connection) throws IOException {
+        UUID id = ids[picker.next()];
+        return connection.client == null ?
+                call("POST", format("/account/deposit?id=%s&amount=1", id), null) :
+                connection.client.deposit(id, 1);
+    }
+
+    @Benchmark
+    public Object transfer(Connection connection) throws IOException {
+        int source = picker.next();
+        int destination = picker.nextOtherThan(source);
+        if (connection.client == null) {
+            return call("POST", "/account/transfer",
+                    format("{\"sourceId\":\"%s\",\"destinationId\":\"%s\",\"amount\":1}", ids[source], ids[destination]));
+        }
+        connection.client.transfer(ids[source], ids[destination], 1);
+        return null;
+    }
+
+    // HTTP/1.1 has no pipelining here, so the http variant sends the same deposits one after another
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_DEPTH)
+    public Object depositPipelined(Connection connection) throws IOException {
+        if (connection.client == null) {
+            Object last = null;
+            for (int i = 0; i < PIPELINE_DEPTH; i++) {
+                last = call("POST", format("/account/deposit?id=%s&amount=1", ids[picker.next()]), null);
+            }
+            return last;
+        }
+        List<BinaryRequest> requests = new ArrayList<>(PIPELINE_DEPTH);
+        for (int i = 0; i < PIPELINE_DEPTH; i++) {
+            requests.add(BinaryRequest.builder()
+                    .opcode(BinaryProtocol.DEPOSIT)
+                    .accountId(ids[picker.next()])
+                    .amount(1)
+                    .build());
+        }
+        return connection.client.pipeline(requests);
+    }
+
+    private String call(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        // the body has to be read to the end so the connection goes back to the keep-alive cache
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                response.write(buffer, 0, read);
+            }
+            return response.toString("UTF-8");
+        }
+    }
+}
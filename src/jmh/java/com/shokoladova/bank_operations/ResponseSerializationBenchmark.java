@@ -0,0 +1,105 @@
+package com.shokoladova.bank_operations;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.shokoladova.bank_operations.OperationStatus.NE_OK;
+import static com.shokoladova.bank_operations.OperationStatus.OK;
+
+/**
+ * Cost of encoding one response. {@code toStringBody} is what the routes used to send,
+ * {@code jsonString} builds an intermediate string per response and {@code jsonStream} is the current path.
+ * Bytes per response are printed at the end of each trial; run with {@code -prof gc} for allocations per response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseSerializationBenchmark {
+
+    @Param({"account", "error"})
+    public String response;
+
+    private BankOperationResultDto result;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("account".equals(response)) {
+            BankAccount account = new BankAccount("Benchmark Cardholder", 1_000_000);
+            account.setId(UUID.randomUUID());
+            result = BankOperationResultDto.builder()
+                    .status(OK)
+                    .result(account)
+                    .build();
+        } else {
+            result = BankOperationResultDto.builder()
+                    .status(NE_OK)
+                    .error(ErrorDto.of(new MoneyOperationException("Could not withdraw cause insufficient money")))
+                    .build();
+        }
+    }
+
+    @Benchmark
+    public void toStringBody(Bytes bytes) {
+        bytes.write(result.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public void jsonString(Bytes bytes) throws IOException {
+        bytes.write(Json.RESULT_WRITER.writeValueAsString(result).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public void jsonStream(Bytes bytes) throws IOException {
+        Json.writeResult(bytes.stream, result);
+        bytes.responses++;
+    }
+
+    @State(Scope.Thread)
+    public static class Bytes {
+
+        private long written;
+        private long responses;
+
+        private final OutputStream stream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                written++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                written += len;
+            }
+        };
+
+        @TearDown(Level.Trial)
+        public void report() {
+            System.out.printf("%nBytes per response: %.1f%n", responses == 0 ? 0 : (double) written / responses);
+        }
+
+        void write(byte[] body) {
+            written += body.length;
+            responses++;
+        }
+    }
+}
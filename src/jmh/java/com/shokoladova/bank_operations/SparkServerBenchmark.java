@@ -0,0 +1,126 @@
+package com.shokoladova.bank_operations;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * End-to-end latency through the {@link SparkServer} routes over loopback HTTP with keep-alive connections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dhttp.maxConnections=256")
+public class SparkServerBenchmark {
+
+    @Param({"uniform", "hot", "zipfian"})
+    public String contention;
+
+    @Param("10000")
+    public int accounts;
+
+    @Param("18090")
+    public int port;
+
+    private ConnectionPool connectionPool;
+    private BankAccountServiceImpl service;
+    private SparkServer server;
+    private String baseUrl;
+    private UUID[] ids;
+    private AccountPicker picker;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        connectionPool = new ConnectionPool(ConnectionPoolConfig.builder()
+                .url("jdbc:h2:mem:benchmark-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1")
+                .build());
+        StripedLockTable lockTable = StripedLockTable.fromSystemProperties();
+        service = new BankAccountServiceImpl(connectionPool, lockTable, BankAccountServiceConfig.fromSystemProperties());
+        ids = new UUID[accounts];
+        for (int i = 0; i < accounts; i++) {
+            ids[i] = service.create("Benchmark " + i, BankAccountServiceBenchmark.INITIAL_BALANCE).getId();
+        }
+        picker = new AccountPicker(contention, accounts);
+
+        System.setProperty("port", String.valueOf(port));
+        server = new SparkServer(new BankAccountFacadeImpl(service), new StatsFacadeImpl(connectionPool, lockTable, service));
+        server.start();
+        baseUrl = "http://localhost:" + port;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        server.stop();
+        service.close();
+        connectionPool.closeQuietly();
+    }
+
+    @Benchmark
+    public String get() throws IOException {
+        return call("GET", format("/account?id=%s", ids[picker.next()]), null);
+    }
+
+    @Benchmark
+    public String deposit() throws IOException {
+        return call("POST", format("/account/deposit?id=%s&amount=1", ids[picker.next()]), null);
+    }
+
+    @Benchmark
+    public String withdraw() throws IOException {
+        return call("POST", format("/account/withdraw?id=%s&amount=1", ids[picker.next()]), null);
+    }
+
+    @Benchmark
+    public String transfer() throws IOException {
+        int source = picker.next();
+        int destination = picker.nextOtherThan(source);
+        return call("POST", "/account/transfer",
+                format("{\"sourceId\":\"%s\",\"destinationId\":\"%s\",\"amount\":1}", ids[source], ids[destination]));
+    }
+
+    private String call(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        // the body has to be read to the end so the connection goes back to the keep-alive cache
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                response.write(buffer, 0, read);
+            }
+            return response.toString("UTF-8");
+        }
+    }
+}
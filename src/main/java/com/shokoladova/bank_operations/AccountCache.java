@@ -0,0 +1,145 @@
+package com.shokoladova.bank_operations;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of accounts split into independently locked segments.
+ * Every write bumps its segment's stamp, and a read-through load is only cached if no write
+ * hit the segment while the load was running, so a load can never overwrite a newer balance.
+ */
+public class AccountCache {
+
+    private final Segment[] segments;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public AccountCache(int maxSize, long ttlMillis, int segmentCount) {
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.segments = new Segment[segmentCount];
+        int segmentSize = Math.max(1, maxSize / segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    BankAccount get(UUID id) {
+        Segment segment = segmentOf(id);
+        synchronized (segment) {
+            Entry entry = segment.entries.get(id);
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            if (System.nanoTime() - entry.loadedAt > ttlNanos) {
+                segment.entries.remove(id);
+                expirations.increment();
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return copyOf(entry.account);
+        }
+    }
+
+    long stamp(UUID id) {
+        Segment segment = segmentOf(id);
+        synchronized (segment) {
+            return segment.stamp;
+        }
+    }
+
+    void putIfUnchanged(BankAccount account, long stamp) {
+        Segment segment = segmentOf(account.getId());
+        synchronized (segment) {
+            if (segment.stamp == stamp) {
+                segment.entries.put(account.getId(), new Entry(copyOf(account), System.nanoTime()));
+            }
+        }
+    }
+
+    void update(BankAccount account) {
+        Segment segment = segmentOf(account.getId());
+        synchronized (segment) {
+            segment.stamp++;
+            segment.entries.put(account.getId(), new Entry(copyOf(account), System.nanoTime()));
+        }
+    }
+
+    void invalidate(UUID id) {
+        Segment segment = segmentOf(id);
+        synchronized (segment) {
+            segment.stamp++;
+            segment.entries.remove(id);
+        }
+    }
+
+    public CacheStatsDto getStats() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        return CacheStatsDto.builder()
+                .enabled(true)
+                .size(size)
+                .maxSize(maxSize)
+                .hits(hitCount)
+                .misses(missCount)
+                .evictions(evictions.sum())
+                .expirations(expirations.sum())
+                .hitRate(hitCount + missCount == 0 ? 0 : (double) hitCount / (hitCount + missCount))
+                .build();
+    }
+
+    private Segment segmentOf(UUID id) {
+        int h = id.hashCode();
+        return segments[Math.floorMod(h ^ (h >>> 16), segments.length)];
+    }
+
+    private static BankAccount copyOf(BankAccount account) {
+        BankAccount copy = new BankAccount(account.getCardholderName(), account.getBalance());
+        copy.setId(account.getId());
+        copy.setVersion(account.getVersion());
+        return copy;
+    }
+
+    private static class Entry {
+        private final BankAccount account;
+        private final long loadedAt;
+
+        Entry(BankAccount account, long loadedAt) {
+            this.account = account;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private class Segment {
+        private final Map<UUID, Entry> entries;
+        private long stamp;
+
+        Segment(int capacity) {
+            this.entries = new LinkedHashMap<UUID, Entry>(capacity, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+                    if (size() > capacity) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One page of an account's history, read in full before the response is written.
+ * {@code nextCursor} is only present when the page is full and more entries may follow.
+ */
+@Data
+@Builder
+public class AccountHistoryDto {
+
+    private UUID accountId;
+    private List<JournalEntry> entries;
+    private Long nextCursor;
+}
@@ -0,0 +1,20 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Ids of the imported accounts in row order. When a row or a chunk fails, the import stops there and the result
+ * comes with the error instead of OK; {@code imported} then tells how many leading rows the committed chunks hold.
+ * The whole list is built before the response is written, see {@link BankAccountFacadeImpl#importAccounts}.
+ */
+@Data
+@Builder
+public class AccountImportDto {
+
+    private List<UUID> ids;
+    private long imported;
+}
@@ -0,0 +1,110 @@
+package com.shokoladova.bank_operations;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import static java.lang.String.format;
+
+/**
+ * Pulls {@code cardholderName,balance} rows off a request body one at a time, so an import
+ * never holds more of the body than the row being parsed.
+ */
+abstract class AccountImportReader implements Closeable {
+
+    static AccountImportReader csv(InputStream in) {
+        return new Csv(in);
+    }
+
+    static AccountImportReader ndjson(InputStream in) throws IOException {
+        return new Ndjson(in);
+    }
+
+    /**
+     * Returns the next row, or null once the body is exhausted.
+     */
+    abstract CreateAccountRequest next() throws IOException;
+
+    /**
+     * One row per line; a {@code cardholderName,balance} header line is skipped. The balance is whatever follows
+     * the last comma, so names may contain commas, and a name may be double-quoted with {@code ""} as an escaped quote.
+     */
+    private static class Csv extends AccountImportReader {
+
+        private static final String HEADER = "cardholderName,balance";
+
+        private final BufferedReader reader;
+        private long lineNumber;
+
+        Csv(InputStream in) {
+            this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        }
+
+        @Override
+        CreateAccountRequest next() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+                lineNumber++;
+                line = line.trim();
+            } while (line.isEmpty() || lineNumber == 1 && line.replace(" ", "").equalsIgnoreCase(HEADER));
+
+            int comma = line.lastIndexOf(',');
+            if (comma < 0) {
+                throw new IllegalArgumentException(format("Line %d: expected cardholderName,balance", lineNumber));
+            }
+            long balance;
+            try {
+                balance = Long.parseLong(line.substring(comma + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(format("Line %d: balance is not a whole number of minor units", lineNumber));
+            }
+            return CreateAccountRequest.builder()
+                    .cardholderName(name(line.substring(0, comma).trim()))
+                    .balance(balance)
+                    .build();
+        }
+
+        private static String name(String field) {
+            if (field.isEmpty()) {
+                return null;
+            }
+            if (field.length() >= 2 && field.charAt(0) == '"' && field.charAt(field.length() - 1) == '"') {
+                return field.substring(1, field.length() - 1).replace("\"\"", "\"");
+            }
+            return field;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static class Ndjson extends AccountImportReader {
+
+        private final MappingIterator<CreateAccountRequest> rows;
+
+        Ndjson(InputStream in) throws IOException {
+            this.rows = Json.CREATE_ACCOUNT_REQUEST_READER.readValues(in);
+        }
+
+        @Override
+        CreateAccountRequest next() throws IOException {
+            return rows.hasNextValue() ? rows.nextValue() : null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            rows.close();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.shokoladova.bank_operations;
+
+import java.util.UUID;
+
+/**
+ * Splits the account id space into one contiguous range per node by the top 32 bits of the id,
+ * which are random in a version 4 UUID. New ids are drawn until one falls into the local range,
+ * so an account always lives on the node that created it.
+ */
+class AccountPartitioner {
+
+    private final int nodes;
+    private final int localNode;
+
+    AccountPartitioner(int nodes, int localNode) {
+        if (localNode < 0 || localNode >= nodes) {
+            throw new IllegalArgumentException("Node id " + localNode + " is not one of the " + nodes + " nodes");
+        }
+        this.nodes = nodes;
+        this.localNode = localNode;
+    }
+
+    int ownerOf(UUID accountId) {
+        return (int) (((accountId.getMostSignificantBits() >>> 32) * nodes) >>> 32);
+    }
+
+    boolean isLocal(UUID accountId) {
+        return ownerOf(accountId) == localNode;
+    }
+
+    int getLocalNode() {
+        return localNode;
+    }
+
+    UUID newLocalId() {
+        UUID id;
+        do {
+            id = UUID.randomUUID();
+        } while (!isLocal(id));
+        return id;
+    }
+}
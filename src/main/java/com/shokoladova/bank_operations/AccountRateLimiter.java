@@ -0,0 +1,117 @@
+package com.shokoladova.bank_operations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Per-account token buckets in a fixed, direct-mapped table, so memory stays bounded however many accounts are seen.
+ * Each bucket is a single {@code long} holding the time at which it will be full again (the generic cell rate
+ * algorithm), updated by CAS. A slot is handed to a new account only once its current owner has refilled;
+ * until then both accounts share the owner's bucket, which can throttle the newcomer early but never lets a busy account
+ * reset its own limit.
+ */
+class AccountRateLimiter {
+
+    private final AtomicReferenceArray<Bucket> slots;
+    private final int mask;
+    private final long emissionIntervalNanos;
+    private final long toleranceNanos;
+
+    AccountRateLimiter(int slots, int ratePerSecond, int burst) {
+        int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.emissionIntervalNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+        this.toleranceNanos = emissionIntervalNanos * (Math.max(1, burst) - 1);
+    }
+
+    boolean tryAcquire(UUID accountId) {
+        long now = System.nanoTime();
+        return take(bucketOf(accountId, now).fullAt, 1, now);
+    }
+
+    /**
+     * Takes a token for every occurrence of an account in {@code accountIds}, from all of their buckets or from none:
+     * every bucket is checked before any token is taken, and the tokens taken before a concurrent operation emptied a
+     * later bucket are given back. Returns the first account that is over its limit, or null when the tokens were taken.
+     */
+    UUID tryAcquire(Collection<UUID> accountIds) {
+        long now = System.nanoTime();
+        Map<UUID, Integer> tokens = new LinkedHashMap<>();
+        for (UUID accountId : accountIds) {
+            if (accountId != null) {
+                tokens.merge(accountId, 1, Integer::sum);
+            }
+        }
+        List<UUID> ids = new ArrayList<>(tokens.keySet());
+        List<AtomicLong> buckets = new ArrayList<>(ids.size());
+        for (UUID id : ids) {
+            AtomicLong fullAt = bucketOf(id, now).fullAt;
+            if (!hasRoom(fullAt.get(), tokens.get(id), now)) {
+                return id;
+            }
+            buckets.add(fullAt);
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            if (!take(buckets.get(i), tokens.get(ids.get(i)), now)) {
+                for (int j = 0; j < i; j++) {
+                    buckets.get(j).addAndGet(-emissionIntervalNanos * tokens.get(ids.get(j)));
+                }
+                return ids.get(i);
+            }
+        }
+        return null;
+    }
+
+    private boolean take(AtomicLong fullAt, int tokens, long now) {
+        while (true) {
+            long current = fullAt.get();
+            if (!hasRoom(current, tokens, now)) {
+                return false;
+            }
+            long start = current - now > 0 ? current : now;
+            if (fullAt.compareAndSet(current, start + emissionIntervalNanos * tokens)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean hasRoom(long fullAt, int tokens, long now) {
+        long start = fullAt - now > 0 ? fullAt : now;
+        return start + emissionIntervalNanos * (tokens - 1) - now <= toleranceNanos;
+    }
+
+    private Bucket bucketOf(UUID accountId, long now) {
+        int h = accountId.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        Bucket bucket = slots.get(slot);
+        if (bucket != null && bucket.accountId.equals(accountId)) {
+            return bucket;
+        }
+        if (bucket == null || bucket.fullAt.get() - now <= 0) {
+            Bucket claimed = new Bucket(accountId, now);
+            if (slots.compareAndSet(slot, bucket, claimed)) {
+                return claimed;
+            }
+            return slots.get(slot);
+        }
+        return bucket;
+    }
+
+    private static class Bucket {
+        private final UUID accountId;
+        private final AtomicLong fullAt;
+
+        Bucket(UUID accountId, long now) {
+            this.accountId = accountId;
+            this.fullAt = new AtomicLong(now);
+        }
+    }
+}
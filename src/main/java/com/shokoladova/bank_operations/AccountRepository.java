@@ -0,0 +1,424 @@
+package com.shokoladova.bank_operations;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Data access of the JDBC engine. Every fixed statement comes from the connection's statement cache
+ * and rows are mapped by column index; ORMLite is only used to create the schema.
+ */
+final class AccountRepository {
+
+    private static final String NUMERIC_VALUE_OUT_OF_RANGE = "22003";
+
+    private static final String INSERT_ACCOUNT = "INSERT INTO ACCOUNT (ID, CARDHOLDERNAME, BALANCE) VALUES (?, ?, ?)";
+    private static final String SELECT_ACCOUNT = "SELECT ID, CARDHOLDERNAME, BALANCE, VERSION FROM ACCOUNT WHERE ID=?";
+    private static final String ACCOUNT_EXISTS = "SELECT 1 FROM ACCOUNT WHERE ID=?";
+    private static final String DEBIT = "UPDATE ACCOUNT SET BALANCE=BALANCE-?, VERSION=VERSION+1 WHERE ID=? AND BALANCE>=?";
+    private static final String CREDIT = "UPDATE ACCOUNT SET BALANCE=BALANCE+?, VERSION=VERSION+1 WHERE ID=?";
+    private static final String SELECT_ACCOUNTS_PREFIX = "SELECT ID, CARDHOLDERNAME, BALANCE, VERSION FROM ACCOUNT WHERE ID IN (";
+    private static final String UPDATE_BALANCE = "UPDATE ACCOUNT SET BALANCE=?, VERSION=VERSION+1 WHERE ID=?";
+    private static final String UPDATE_BALANCE_IF_UNCHANGED = "UPDATE ACCOUNT SET BALANCE=?, VERSION=VERSION+1 WHERE ID=? AND VERSION=?";
+    private static final String APPEND_JOURNAL =
+            "INSERT INTO JOURNAL (ACCOUNTID, TYPE, AMOUNT, BALANCEAFTER, COUNTERPARTYID, TRANSFERID, CREATEDAT) " +
+                    "SELECT ID, ?, ?, BALANCE, ?, ?, ? FROM ACCOUNT WHERE ID=?";
+    private static final String INSERT_JOURNAL =
+            "INSERT INTO JOURNAL (ACCOUNTID, TYPE, AMOUNT, BALANCEAFTER, COUNTERPARTYID, TRANSFERID, CREATEDAT) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_OUTBOX =
+            "INSERT INTO OUTBOX (TRANSFERID, SOURCEID, DESTINATIONID, AMOUNT, CREATEDAT) VALUES (?, ?, ?, ?, ?)";
+    private static final String SELECT_OUTBOX =
+            "SELECT TRANSFERID, SOURCEID, DESTINATIONID, AMOUNT, CREATEDAT FROM OUTBOX WHERE CREATEDAT>=? AND CREATEDAT<? ORDER BY CREATEDAT LIMIT ?";
+    private static final String COUNT_OUTBOX = "SELECT COUNT(*) FROM OUTBOX WHERE CREATEDAT<?";
+    private static final String DELETE_OUTBOX = "DELETE FROM OUTBOX WHERE TRANSFERID=?";
+    private static final String INBOX_CONTAINS = "SELECT 1 FROM INBOX WHERE TRANSFERID=?";
+    private static final String INSERT_INBOX = "INSERT INTO INBOX (TRANSFERID, CREATEDAT) VALUES (?, ?)";
+    private static final String PRUNE_INBOX = "DELETE FROM INBOX WHERE CREATEDAT<?";
+    private static final String COUNT_ACCOUNTS = "SELECT COUNT(*) FROM ACCOUNT";
+    private static final String RANGE_TOTALS = "SELECT COUNT(*), COALESCE(SUM(BALANCE), 0) FROM ACCOUNT WHERE ID>=? AND ID<=?";
+    private static final String SELECT_IDS_FROM = "SELECT ID FROM ACCOUNT WHERE ID>=? AND ID<=? ORDER BY ID LIMIT ?";
+    private static final String SELECT_IDS_AFTER = "SELECT ID FROM ACCOUNT WHERE ID>? AND ID<=? ORDER BY ID LIMIT ?";
+    private static final String SEARCH_COLUMNS = "SELECT ID, CARDHOLDERNAME, BALANCE, VERSION FROM ACCOUNT WHERE ";
+    private static final String SEARCH_BY_BALANCE =
+            SEARCH_COLUMNS + "BALANCE>=? AND BALANCE<=? ORDER BY BALANCE, ID LIMIT ?";
+    private static final String SEARCH_BY_BALANCE_AFTER =
+            SEARCH_COLUMNS + "BALANCE>=? AND BALANCE<=? AND (BALANCE>? OR ID>?) ORDER BY BALANCE, ID LIMIT ?";
+    private static final String SEARCH_BY_NAME =
+            SEARCH_COLUMNS + "CARDHOLDERNAME>=? AND CARDHOLDERNAME<=? AND BALANCE>=? AND BALANCE<=? " +
+                    "ORDER BY CARDHOLDERNAME, ID LIMIT ?";
+    private static final String SEARCH_BY_NAME_AFTER =
+            SEARCH_COLUMNS + "CARDHOLDERNAME>=? AND CARDHOLDERNAME<=? AND BALANCE>=? AND BALANCE<=? " +
+                    "AND (CARDHOLDERNAME>? OR ID>?) ORDER BY CARDHOLDERNAME, ID LIMIT ?";
+    private static final String SELECT_HISTORY =
+            "SELECT ID, TYPE, AMOUNT, BALANCEAFTER, COUNTERPARTYID, TRANSFERID, CREATEDAT FROM JOURNAL " +
+                    "WHERE ACCOUNTID=? AND ID>? ORDER BY ID LIMIT ?";
+
+    private AccountRepository() {
+    }
+
+    static void insert(StatementCachingConnection connection, BankAccount account) throws SQLException {
+        PreparedStatement statement = connection.prepare(INSERT_ACCOUNT);
+        statement.setObject(1, account.getId());
+        statement.setString(2, account.getCardholderName());
+        statement.setLong(3, account.getBalance());
+        statement.executeUpdate();
+    }
+
+    static void insertAll(StatementCachingConnection connection, List<BankAccount> accounts) throws SQLException {
+        PreparedStatement statement = connection.prepare(INSERT_ACCOUNT);
+        try {
+            for (BankAccount account : accounts) {
+                statement.setObject(1, account.getId());
+                statement.setString(2, account.getCardholderName());
+                statement.setLong(3, account.getBalance());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            statement.clearBatch();
+        }
+    }
+
+    static BankAccount select(StatementCachingConnection connection, UUID id) throws SQLException {
+        PreparedStatement statement = connection.prepare(SELECT_ACCOUNT);
+        statement.setObject(1, id);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? toAccount(resultSet) : null;
+        }
+    }
+
+    static boolean exists(StatementCachingConnection connection, UUID id) throws SQLException {
+        PreparedStatement statement = connection.prepare(ACCOUNT_EXISTS);
+        statement.setObject(1, id);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next();
+        }
+    }
+
+    /**
+     * Subtracts the amount unless the balance is too low; false when nothing was updated.
+     */
+    static boolean debit(StatementCachingConnection connection, UUID id, long amount) throws SQLException {
+        PreparedStatement statement = connection.prepare(DEBIT);
+        statement.setLong(1, amount);
+        statement.setObject(2, id);
+        statement.setLong(3, amount);
+        return statement.executeUpdate() > 0;
+    }
+
+    static boolean credit(StatementCachingConnection connection, UUID id, long amount) throws SQLException {
+        PreparedStatement statement = connection.prepare(CREDIT);
+        statement.setLong(1, amount);
+        statement.setObject(2, id);
+        try {
+            return statement.executeUpdate() > 0;
+        } catch (SQLException e) {
+            if (NUMERIC_VALUE_OUT_OF_RANGE.equals(e.getSQLState())) {
+                throw new MoneyOperationException("Could not credit the account cause its balance would overflow");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads and row-locks the given accounts.
+     */
+    static Map<UUID, BankAccount> lock(StatementCachingConnection connection, Set<UUID> accountIds) throws SQLException {
+        return selectAll(connection, accountIds, ") FOR UPDATE");
+    }
+
+    /**
+     * Reads the given accounts without locking them, for writes that are checked against the version instead.
+     */
+    static Map<UUID, BankAccount> read(StatementCachingConnection connection, Set<UUID> accountIds) throws SQLException {
+        return selectAll(connection, accountIds, ")");
+    }
+
+    private static Map<UUID, BankAccount> selectAll(StatementCachingConnection connection, Set<UUID> accountIds,
+                                                    String suffix) throws SQLException {
+        PreparedStatement statement = connection.prepareIn(SELECT_ACCOUNTS_PREFIX, accountIds, suffix);
+        Map<UUID, BankAccount> accounts = new HashMap<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                BankAccount account = toAccount(resultSet);
+                accounts.put(account.getId(), account);
+            }
+        }
+        return accounts;
+    }
+
+    static void updateBalances(StatementCachingConnection connection, Collection<BankAccount> accounts) throws SQLException {
+        if (accounts.isEmpty()) {
+            return;
+        }
+        PreparedStatement statement = connection.prepare(UPDATE_BALANCE);
+        try {
+            for (BankAccount account : accounts) {
+                statement.setLong(1, account.getBalance());
+                statement.setObject(2, account.getId());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            statement.clearBatch();
+        }
+    }
+
+    /**
+     * Writes the new balances unless another transaction has updated one of the accounts since it was read;
+     * false when any of them was stale, in which case the caller must roll back.
+     */
+    static boolean updateBalancesIfUnchanged(StatementCachingConnection connection, Collection<BankAccount> accounts)
+            throws SQLException {
+        if (accounts.isEmpty()) {
+            return true;
+        }
+        PreparedStatement statement = connection.prepare(UPDATE_BALANCE_IF_UNCHANGED);
+        int[] updated;
+        try {
+            for (BankAccount account : accounts) {
+                statement.setLong(1, account.getBalance());
+                statement.setObject(2, account.getId());
+                statement.setLong(3, account.getVersion());
+                statement.addBatch();
+            }
+            updated = statement.executeBatch();
+        } finally {
+            statement.clearBatch();
+        }
+        for (int count : updated) {
+            if (count == 0) {
+                return false;
+            }
+        }
+        for (BankAccount account : accounts) {
+            account.setVersion(account.getVersion() + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Journals a movement that was just applied, taking the balance after it from the account row.
+     */
+    static void appendJournal(StatementCachingConnection connection, UUID accountId, LedgerRecordType type, long amount,
+                              UUID counterpartyId, UUID transferId) throws SQLException {
+        PreparedStatement statement = connection.prepare(APPEND_JOURNAL);
+        statement.setInt(1, type.code());
+        statement.setLong(2, amount);
+        statement.setObject(3, counterpartyId);
+        statement.setObject(4, transferId);
+        statement.setLong(5, System.currentTimeMillis());
+        statement.setObject(6, accountId);
+        statement.executeUpdate();
+    }
+
+    static void insertJournal(StatementCachingConnection connection, List<JournalEntry> journal) throws SQLException {
+        if (journal.isEmpty()) {
+            return;
+        }
+        PreparedStatement statement = connection.prepare(INSERT_JOURNAL);
+        try {
+            for (JournalEntry entry : journal) {
+                statement.setObject(1, entry.getAccountId());
+                statement.setInt(2, entry.getType().code());
+                statement.setLong(3, entry.getAmount());
+                statement.setLong(4, entry.getBalanceAfter());
+                statement.setObject(5, entry.getCounterpartyId());
+                statement.setObject(6, entry.getTransferId());
+                statement.setLong(7, entry.getCreatedAt());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            statement.clearBatch();
+        }
+    }
+
+    static List<JournalEntry> history(StatementCachingConnection connection, UUID accountId, long afterEntryId, int limit)
+            throws SQLException {
+        PreparedStatement statement = connection.prepare(SELECT_HISTORY);
+        statement.setObject(1, accountId);
+        statement.setLong(2, afterEntryId);
+        statement.setInt(3, limit);
+        List<JournalEntry> entries = new ArrayList<>(limit);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                entries.add(JournalEntry.builder()
+                        .id(resultSet.getLong(1))
+                        .accountId(accountId)
+                        .type(LedgerRecordType.fromCode(resultSet.getByte(2)))
+                        .amount(resultSet.getLong(3))
+                        .balanceAfter(resultSet.getLong(4))
+                        .counterpartyId(resultSet.getObject(5, UUID.class))
+                        .transferId(resultSet.getObject(6, UUID.class))
+                        .createdAt(resultSet.getLong(7))
+                        .build());
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads one page of a search. The prefix becomes a range on the name index and a cursor raises the lower bound
+     * of the range to the account it points at, so every page is a single index range scan that stops at the limit.
+     */
+    static List<BankAccount> search(StatementCachingConnection connection, AccountSearchQuery query) throws SQLException {
+        boolean after = query.getAfterId() != null;
+        PreparedStatement statement;
+        int index = 1;
+        if (query.isByName()) {
+            statement = connection.prepare(after ? SEARCH_BY_NAME_AFTER : SEARCH_BY_NAME);
+            statement.setString(index++, after ? query.getAfterName() : query.getNamePrefix());
+            statement.setString(index++, query.getNamePrefix() + Character.MAX_VALUE);
+            statement.setLong(index++, query.getMinBalance());
+            statement.setLong(index++, query.getMaxBalance());
+            if (after) {
+                statement.setString(index++, query.getAfterName());
+                statement.setObject(index++, query.getAfterId());
+            }
+        } else {
+            statement = connection.prepare(after ? SEARCH_BY_BALANCE_AFTER : SEARCH_BY_BALANCE);
+            statement.setLong(index++, after ? Math.max(query.getMinBalance(), query.getAfterBalance()) : query.getMinBalance());
+            statement.setLong(index++, query.getMaxBalance());
+            if (after) {
+                statement.setLong(index++, query.getAfterBalance());
+                statement.setObject(index++, query.getAfterId());
+            }
+        }
+        statement.setInt(index, query.getLimit());
+        List<BankAccount> accounts = new ArrayList<>(query.getLimit());
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                accounts.add(toAccount(resultSet));
+            }
+        }
+        return accounts;
+    }
+
+    static void insertOutbox(StatementCachingConnection connection, OutboxEntry entry) throws SQLException {
+        PreparedStatement statement = connection.prepare(INSERT_OUTBOX);
+        statement.setObject(1, entry.getTransferId());
+        statement.setObject(2, entry.getSourceId());
+        statement.setObject(3, entry.getDestinationId());
+        statement.setLong(4, entry.getAmount());
+        statement.setLong(5, entry.getCreatedAt());
+        statement.executeUpdate();
+    }
+
+    static List<OutboxEntry> selectOutbox(StatementCachingConnection connection, long createdFrom, long createdBefore,
+                                          int limit) throws SQLException {
+        PreparedStatement statement = connection.prepare(SELECT_OUTBOX);
+        statement.setLong(1, createdFrom);
+        statement.setLong(2, createdBefore);
+        statement.setInt(3, limit);
+        List<OutboxEntry> entries = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                entries.add(OutboxEntry.builder()
+                        .transferId(resultSet.getObject(1, UUID.class))
+                        .sourceId(resultSet.getObject(2, UUID.class))
+                        .destinationId(resultSet.getObject(3, UUID.class))
+                        .amount(resultSet.getLong(4))
+                        .createdAt(resultSet.getLong(5))
+                        .build());
+            }
+        }
+        return entries;
+    }
+
+    static long countOutbox(StatementCachingConnection connection, long createdBefore) throws SQLException {
+        PreparedStatement statement = connection.prepare(COUNT_OUTBOX);
+        statement.setLong(1, createdBefore);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    /**
+     * Removes a settled transfer from the outbox; false when it was already gone.
+     */
+    static boolean deleteOutbox(StatementCachingConnection connection, UUID transferId) throws SQLException {
+        PreparedStatement statement = connection.prepare(DELETE_OUTBOX);
+        statement.setObject(1, transferId);
+        return statement.executeUpdate() > 0;
+    }
+
+    /**
+     * Records an incoming transfer; false when it has been recorded before.
+     */
+    static boolean insertInboxIfAbsent(StatementCachingConnection connection, UUID transferId) throws SQLException {
+        PreparedStatement contains = connection.prepare(INBOX_CONTAINS);
+        contains.setObject(1, transferId);
+        try (ResultSet resultSet = contains.executeQuery()) {
+            if (resultSet.next()) {
+                return false;
+            }
+        }
+        PreparedStatement insert = connection.prepare(INSERT_INBOX);
+        insert.setObject(1, transferId);
+        insert.setLong(2, System.currentTimeMillis());
+        insert.executeUpdate();
+        return true;
+    }
+
+    static int pruneInbox(StatementCachingConnection connection, long createdBefore) throws SQLException {
+        PreparedStatement statement = connection.prepare(PRUNE_INBOX);
+        statement.setLong(1, createdBefore);
+        return statement.executeUpdate();
+    }
+
+    static long count(StatementCachingConnection connection) throws SQLException {
+        try (ResultSet resultSet = connection.prepare(COUNT_ACCOUNTS).executeQuery()) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    /**
+     * Number of accounts and their total balance with ids from {@code fromId} to {@code toId} inclusive,
+     * read by one statement and so from one consistent view of the range.
+     */
+    static long[] totals(StatementCachingConnection connection, UUID fromId, UUID toId) throws SQLException {
+        PreparedStatement statement = connection.prepare(RANGE_TOTALS);
+        statement.setObject(1, fromId);
+        statement.setObject(2, toId);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return new long[]{resultSet.getLong(1), resultSet.getLong(2)};
+        }
+    }
+
+    /**
+     * Ids of up to {@code limit} accounts in id order, from {@code fromId} when {@code afterId} is null and
+     * after {@code afterId} otherwise, up to {@code toId} inclusive. Nothing is locked.
+     */
+    static List<UUID> selectIds(StatementCachingConnection connection, UUID fromId, UUID afterId, UUID toId, int limit)
+            throws SQLException {
+        PreparedStatement statement = connection.prepare(afterId == null ? SELECT_IDS_FROM : SELECT_IDS_AFTER);
+        statement.setObject(1, afterId == null ? fromId : afterId);
+        statement.setObject(2, toId);
+        statement.setInt(3, limit);
+        List<UUID> ids = new ArrayList<>(limit);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                ids.add(resultSet.getObject(1, UUID.class));
+            }
+        }
+        return ids;
+    }
+
+    private static BankAccount toAccount(ResultSet resultSet) throws SQLException {
+        BankAccount account = new BankAccount(resultSet.getString(2), resultSet.getLong(3));
+        account.setId(resultSet.getObject(1, UUID.class));
+        account.setVersion(resultSet.getLong(4));
+        return account;
+    }
+}
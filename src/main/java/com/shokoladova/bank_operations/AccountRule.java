@@ -0,0 +1,30 @@
+package com.shokoladova.bank_operations;
+
+/**
+ * What a batch job does to each account: the signed amount to add to its balance, zero to leave it alone.
+ */
+interface AccountRule {
+
+    long adjustment(long balance);
+
+    /**
+     * {@code interest} credits {@code amount} basis points of the balance, rounded down;
+     * {@code fee} debits {@code amount}, or the whole balance when it is smaller.
+     */
+    static AccountRule of(String name, long amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Batch job amount must be positive");
+        }
+        switch (name == null ? "" : name) {
+            case "interest":
+                if (amount > 10_000) {
+                    throw new IllegalArgumentException("Interest is given in basis points and can not exceed 10000");
+                }
+                return balance -> balance / 10_000 * amount + balance % 10_000 * amount / 10_000;
+            case "fee":
+                return balance -> -Math.min(amount, balance);
+            default:
+                throw new IllegalArgumentException("Unknown batch job rule " + name + ", expected interest or fee");
+        }
+    }
+}
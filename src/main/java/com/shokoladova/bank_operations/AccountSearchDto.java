@@ -0,0 +1,18 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * One page of an account search, read in full before the response is written.
+ * {@code nextCursor} is only present when the page is full and more accounts may follow.
+ */
+@Data
+@Builder
+public class AccountSearchDto {
+
+    private List<BankAccount> accounts;
+    private String nextCursor;
+}
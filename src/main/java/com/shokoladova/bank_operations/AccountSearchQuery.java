@@ -0,0 +1,62 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Accounts whose cardholder name starts with {@code namePrefix}, in name order, or all accounts in balance order
+ * when there is no prefix; both within the balance range. A page continues after the account a cursor points at,
+ * so it is found by seeking the index rather than by skipping the rows of the pages before it.
+ */
+@Data
+@Builder
+public class AccountSearchQuery {
+
+    private static final int ID_LENGTH = 36;
+
+    private String namePrefix;
+    @Builder.Default
+    private long minBalance = 0;
+    @Builder.Default
+    private long maxBalance = Long.MAX_VALUE;
+    private int limit;
+    private UUID afterId;
+    private String afterName;
+    private long afterBalance;
+
+    boolean isByName() {
+        return namePrefix != null;
+    }
+
+    /**
+     * Continues the search after the account the cursor was made for.
+     */
+    void startAfter(String cursor) {
+        String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (decoded.length() <= ID_LENGTH || decoded.charAt(ID_LENGTH) != ':') {
+                throw new IllegalArgumentException(cursor);
+            }
+            afterId = UUID.fromString(decoded.substring(0, ID_LENGTH));
+            String key = decoded.substring(ID_LENGTH + 1);
+            if (isByName()) {
+                afterName = key;
+            } else {
+                afterBalance = Long.parseLong(key);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed search cursor " + cursor + " for this search");
+        }
+    }
+
+    String cursorAfter(BankAccount account) {
+        String key = isByName() ? account.getCardholderName() : Long.toString(account.getBalance());
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((account.getId() + ":" + key).getBytes(StandardCharsets.UTF_8));
+    }
+}
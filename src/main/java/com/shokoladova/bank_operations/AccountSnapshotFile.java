@@ -0,0 +1,171 @@
+package com.shokoladova.bank_operations;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Binary image of all account balances:
+ * {@code [int magic][int version][long replayFromSegment][long accounts]} followed by one
+ * {@code [uuid][long balance][short nameLength][name]} record per account and a trailing CRC32 of the records and the header.
+ * Snapshots are read through memory-mapped windows, so files larger than 2 GB load the same way.
+ */
+final class AccountSnapshotFile {
+
+    private static final int MAGIC = 0x42414e4b;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int MAX_RECORD_SIZE = 16 + 8 + 2 + 4 * 255;
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private AccountSnapshotFile() {
+    }
+
+    static Writer create(Path file, long replayFromSegment) throws IOException {
+        return new Writer(file, replayFromSegment);
+    }
+
+    /**
+     * Verifies the checksum, then hands every account to the consumer; returns the first log segment to replay.
+     */
+    static long read(Path file, AccountConsumer consumer) throws Exception {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + 4) {
+                throw new IOException("Snapshot " + file + " is truncated");
+            }
+            verifyChecksum(channel, size);
+
+            Window window = new Window(channel, size - 4);
+            ByteBuffer header = window.at(0);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Snapshot " + file + " has an unknown format");
+            }
+            long replayFromSegment = header.getLong();
+            long accounts = header.getLong();
+            long position = HEADER_SIZE;
+            for (long i = 0; i < accounts; i++) {
+                ByteBuffer record = window.at(position);
+                int start = record.position();
+                UUID id = new UUID(record.getLong(), record.getLong());
+                long balance = record.getLong();
+                short length = record.getShort();
+                String name = null;
+                if (length >= 0) {
+                    byte[] bytes = new byte[length];
+                    record.get(bytes);
+                    name = new String(bytes, StandardCharsets.UTF_8);
+                }
+                consumer.accept(id, name, balance);
+                position += record.position() - start;
+            }
+            return replayFromSegment;
+        }
+    }
+
+    private static void verifyChecksum(FileChannel channel, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        for (long position = HEADER_SIZE; position < size - 4; position += WINDOW_SIZE) {
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - 4 - position)));
+        }
+        crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE));
+        ByteBuffer trailer = ByteBuffer.allocate(4);
+        channel.read(trailer, size - 4);
+        trailer.flip();
+        if (trailer.getInt() != (int) crc.getValue()) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+    }
+
+    interface AccountConsumer {
+        void accept(UUID id, String cardholderName, long balance) throws Exception;
+    }
+
+    static class Writer implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final CRC32 crc = new CRC32();
+        private final DataOutputStream out;
+        private final long replayFromSegment;
+        private long accounts;
+
+        private Writer(Path file, long replayFromSegment) throws IOException {
+            this.channel = FileChannel.open(file, CREATE_NEW, WRITE);
+            this.replayFromSegment = replayFromSegment;
+            // the account count is only known at the end, so the header is written last
+            channel.position(HEADER_SIZE);
+            this.out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), crc));
+        }
+
+        void append(UUID id, String cardholderName, long balance) throws IOException {
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+            out.writeLong(balance);
+            if (cardholderName == null) {
+                out.writeShort(-1);
+            } else {
+                byte[] name = cardholderName.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+            }
+            accounts++;
+        }
+
+        long getAccounts() {
+            return accounts;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(replayFromSegment).putLong(accounts);
+            crc.update(header.array());
+            header.flip();
+            channel.write(header, 0);
+
+            ByteBuffer trailer = ByteBuffer.allocate(4);
+            trailer.putInt((int) crc.getValue()).flip();
+            channel.write(trailer, channel.size());
+            channel.force(true);
+            channel.close();
+        }
+    }
+
+    private static class Window {
+
+        private final FileChannel channel;
+        private final long limit;
+        private MappedByteBuffer mapped;
+        private long mappedFrom;
+
+        Window(FileChannel channel, long limit) {
+            this.channel = channel;
+            this.limit = limit;
+        }
+
+        ByteBuffer at(long position) throws IOException {
+            if (mapped == null || position < mappedFrom || position + MAX_RECORD_SIZE > mappedFrom + mapped.limit()
+                    && mappedFrom + mapped.limit() < limit) {
+                mappedFrom = position;
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, limit - position));
+            }
+            mapped.position((int) (position - mappedFrom));
+            return mapped;
+        }
+    }
+}
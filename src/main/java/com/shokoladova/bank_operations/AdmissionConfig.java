@@ -0,0 +1,30 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class AdmissionConfig {
+
+    @Builder.Default
+    private boolean enabled = false;
+    @Builder.Default
+    private int maxConcurrentRequests = 512;
+    @Builder.Default
+    private int accountRatePerSecond = 200;
+    @Builder.Default
+    private int accountBurst = 400;
+    @Builder.Default
+    private int accountSlots = 65536;
+
+    public static AdmissionConfig fromSystemProperties() {
+        return AdmissionConfig.builder()
+                .enabled(SystemProperties.getBoolean("admission.enabled", false))
+                .maxConcurrentRequests(SystemProperties.getInt("admission.maxConcurrentRequests", 512))
+                .accountRatePerSecond(SystemProperties.getInt("admission.accountRatePerSecond", 200))
+                .accountBurst(SystemProperties.getInt("admission.accountBurst", 400))
+                .accountSlots(SystemProperties.getInt("admission.accountSlots", 65536))
+                .build();
+    }
+}
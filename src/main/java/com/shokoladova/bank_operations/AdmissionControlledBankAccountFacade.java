@@ -0,0 +1,159 @@
+package com.shokoladova.bank_operations;
+
+import spark.Request;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static com.shokoladova.bank_operations.OperationStatus.NE_OK;
+
+/**
+ * Rejects requests up front instead of letting them queue on the pool and on hot account rows:
+ * a global limit on requests in flight, and a token bucket per account for the operations that move its money.
+ * An operation that moves the money of several accounts, such as a transfer or every leg of a batch, takes a token
+ * from each of them or from none.
+ */
+public class AdmissionControlledBankAccountFacade implements BankAccountFacade {
+
+    private static final LongAdder REJECTED_BUSY = Metrics.counter("bank_admission_rejected_total",
+            "Requests rejected by admission control", "reason", "concurrency");
+    private static final LongAdder REJECTED_RATE = Metrics.counter("bank_admission_rejected_total",
+            "Requests rejected by admission control", "reason", "account_rate");
+
+    private final BankAccountFacade delegate;
+    private final Semaphore inFlight;
+    private final int maxConcurrentRequests;
+    private final AccountRateLimiter rateLimiter;
+
+    AdmissionControlledBankAccountFacade(BankAccountFacade delegate, AdmissionConfig config) {
+        this.delegate = delegate;
+        this.maxConcurrentRequests = config.getMaxConcurrentRequests();
+        this.inFlight = new Semaphore(maxConcurrentRequests);
+        this.rateLimiter = new AccountRateLimiter(config.getAccountSlots(), config.getAccountRatePerSecond(), config.getAccountBurst());
+    }
+
+    @Override
+    public BankOperationResultDto create(Request req) {
+        return admit(req, delegate::create);
+    }
+
+    @Override
+    public BankOperationResultDto importAccounts(Request req) {
+        return admit(req, delegate::importAccounts);
+    }
+
+    @Override
+    public BankOperationResultDto get(Request req) {
+        return admit(req, delegate::get);
+    }
+
+    @Override
+    public BankOperationResultDto withdraw(Request req) {
+        return admit(req, r -> limitAccounts(Collections.singletonList(accountOf(r)), () -> delegate.withdraw(r)));
+    }
+
+    @Override
+    public BankOperationResultDto deposit(Request req) {
+        return admit(req, r -> limitAccounts(Collections.singletonList(accountOf(r)), () -> delegate.deposit(r)));
+    }
+
+    @Override
+    public BankOperationResultDto transfer(Request req) {
+        return admit(req, r -> {
+            TransferRequest transferRequest;
+            try {
+                transferRequest = BankAccountFacadeImpl.readTransferRequest(r);
+            } catch (Exception e) {
+                return rejected(e);
+            }
+            // the body stream is consumed, so the facade picks the parsed request up from here
+            r.attribute(BankAccountFacadeImpl.TRANSFER_REQUEST_ATTRIBUTE, transferRequest);
+            return limitAccounts(Arrays.asList(transferRequest.getSourceId(), transferRequest.getDestinationId()),
+                    () -> delegate.transfer(r));
+        });
+    }
+
+    @Override
+    public BankOperationResultDto transferBatch(Request req) {
+        return admit(req, r -> {
+            List<TransferRequest> transferRequests;
+            try {
+                transferRequests = BankAccountFacadeImpl.readTransferRequests(r);
+            } catch (Exception e) {
+                return rejected(e);
+            }
+            r.attribute(BankAccountFacadeImpl.TRANSFER_REQUESTS_ATTRIBUTE, transferRequests);
+            List<UUID> accountIds = new ArrayList<>(2 * transferRequests.size());
+            for (TransferRequest transferRequest : transferRequests) {
+                accountIds.add(transferRequest.getSourceId());
+                accountIds.add(transferRequest.getDestinationId());
+            }
+            return limitAccounts(accountIds, () -> delegate.transferBatch(r));
+        });
+    }
+
+    @Override
+    public BankOperationResultDto transferIn(Request req) {
+        return admit(req, delegate::transferIn);
+    }
+
+    @Override
+    public BankOperationResultDto history(Request req) {
+        return admit(req, delegate::history);
+    }
+
+    @Override
+    public BankOperationResultDto search(Request req) {
+        return admit(req, delegate::search);
+    }
+
+    private BankOperationResultDto admit(Request req, Function<Request, BankOperationResultDto> operation) {
+        if (!inFlight.tryAcquire()) {
+            REJECTED_BUSY.increment();
+            return rejected(new AdmissionRejectedException(
+                    "Server is busy: " + maxConcurrentRequests + " requests are already in progress"));
+        }
+        try {
+            return operation.apply(req);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    private BankOperationResultDto limitAccounts(Collection<UUID> accountIds, Operation operation) {
+        UUID limited = rateLimiter.tryAcquire(accountIds);
+        if (limited != null) {
+            REJECTED_RATE.increment();
+            return rejected(new AdmissionRejectedException(
+                    String.format("Too many operations on account %s, retry later", limited)));
+        }
+        return operation.run();
+    }
+
+    // malformed ids are left to the facade, which reports them as bad requests
+    private static UUID accountOf(Request req) {
+        try {
+            return UUID.fromString(req.queryParams("id"));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static BankOperationResultDto rejected(Exception e) {
+        return BankOperationResultDto.builder()
+                .status(NE_OK)
+                .error(ErrorDto.of(e))
+                .build();
+    }
+
+    private interface Operation {
+        BankOperationResultDto run();
+    }
+}
@@ -0,0 +1,7 @@
+package com.shokoladova.bank_operations;
+
+public class AdmissionRejectedException extends RuntimeException {
+    public AdmissionRejectedException(String s) {
+        super(s);
+    }
+}
@@ -0,0 +1,19 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Getter;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+@Getter
+class BalanceChange {
+
+    private final UUID accountId;
+    private final long delta;
+    private final CompletableFuture<BankAccount> result = new CompletableFuture<>();
+
+    BalanceChange(UUID accountId, long delta) {
+        this.accountId = accountId;
+        this.delta = delta;
+    }
+}
@@ -0,0 +1,230 @@
+package com.shokoladova.bank_operations;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps the total balance and the number of accounts up to date from every committed change, so they never need a
+ * scan of the whole table. The totals are split into buckets of contiguous account ids, and each bucket adds into
+ * {@link LongAdder}s, so concurrent writers do not meet on one counter.
+ * <p>
+ * A low priority thread checks one bucket at a time against the table with a single statement over the bucket's
+ * id range, which reads one consistent view of it. Changes are added right after their commit, so a check that
+ * sees a change of the bucket from before its statement until a short grace period after it proves nothing and is
+ * skipped. A writer stalled for longer than the grace period can still slip through, which is why a bucket only
+ * counts as drifted when two checks in a row disagree with the table by the same amount.
+ */
+@Slf4j
+class BalanceInvariantMonitor implements AutoCloseable {
+
+    private static final long RECORD_GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private static final LongAdder CHECKS_OK = Metrics.counter("bank_invariant_checks_total",
+            "Checks of a bucket of the balance aggregates against the account table", "outcome", "ok");
+    private static final LongAdder CHECKS_DRIFTED = Metrics.counter("bank_invariant_checks_total",
+            "Checks of a bucket of the balance aggregates against the account table", "outcome", "drift");
+    private static final LongAdder CHECKS_INCONCLUSIVE = Metrics.counter("bank_invariant_checks_total",
+            "Checks of a bucket of the balance aggregates against the account table", "outcome", "inconclusive");
+
+    private final int shift;
+    private final Bucket[] buckets;
+    private final BucketReader reader;
+    private final long openingBalance;
+    private final LongAdder created = new LongAdder();
+    private final LongAdder deposited = new LongAdder();
+    private final LongAdder withdrawn = new LongAdder();
+    private final LongAdder transferredIn = new LongAdder();
+    private final LongAdder transferredOut = new LongAdder();
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder inconclusiveChecks = new LongAdder();
+    private final ScheduledExecutorService verifier;
+    private int nextBucket;
+    private volatile long lastPassCompletedAt;
+
+    /**
+     * Reads the number of accounts and their total balance with ids from {@code fromId} to {@code toId} inclusive.
+     */
+    @FunctionalInterface
+    interface BucketReader {
+        long[] totals(UUID fromId, UUID toId) throws SQLException;
+    }
+
+    BalanceInvariantMonitor(int bucketCount, long verifyIntervalMillis, BucketReader reader) throws SQLException {
+        if (bucketCount < 2 || Integer.bitCount(bucketCount) != 1) {
+            throw new IllegalArgumentException("Invariant buckets must be a power of two of at least 2");
+        }
+        this.shift = Long.SIZE - Integer.numberOfTrailingZeros(bucketCount);
+        this.reader = reader;
+        this.buckets = new Bucket[bucketCount];
+        long balance = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            // in the order H2 sorts UUIDs: by the most significant half as a signed long first
+            long from = Long.MIN_VALUE + ((long) i << shift);
+            Bucket bucket = new Bucket(new UUID(from, Long.MIN_VALUE), new UUID(from + (1L << shift) - 1, Long.MAX_VALUE));
+            long[] totals = reader.totals(bucket.fromId, bucket.toId);
+            bucket.accounts.add(totals[0]);
+            bucket.balance.add(totals[1]);
+            balance += totals[1];
+            buckets[i] = bucket;
+        }
+        this.openingBalance = balance;
+        this.verifier = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "invariant-verifier");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        verifier.scheduleWithFixedDelay(this::verifyNext, verifyIntervalMillis, verifyIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void record(LedgerRecordType type, UUID accountId, long amount) {
+        Bucket bucket = buckets[(int) ((accountId.getMostSignificantBits() ^ Long.MIN_VALUE) >>> shift)];
+        switch (type) {
+            case CREATE:
+                bucket.accounts.increment();
+                bucket.balance.add(amount);
+                created.add(amount);
+                break;
+            case DEPOSIT:
+                bucket.balance.add(amount);
+                deposited.add(amount);
+                break;
+            case WITHDRAW:
+                bucket.balance.add(-amount);
+                withdrawn.add(amount);
+                break;
+            case TRANSFER_IN:
+                bucket.balance.add(amount);
+                transferredIn.add(amount);
+                break;
+            case TRANSFER_OUT:
+                bucket.balance.add(-amount);
+                transferredOut.add(amount);
+                break;
+        }
+        bucket.changes.increment();
+    }
+
+    void record(List<JournalEntry> journal) {
+        for (JournalEntry entry : journal) {
+            record(entry.getType(), entry.getAccountId(), entry.getAmount());
+        }
+    }
+
+    private void verifyNext() {
+        Bucket bucket = buckets[nextBucket];
+        try {
+            verify(bucket);
+        } catch (Exception e) {
+            log.warn("Could not check the balance aggregates of accounts {} to {}", bucket.fromId, bucket.toId, e);
+        }
+        nextBucket = (nextBucket + 1) % buckets.length;
+        if (nextBucket == 0) {
+            lastPassCompletedAt = System.currentTimeMillis();
+        }
+    }
+
+    private void verify(Bucket bucket) throws SQLException {
+        checks.increment();
+        long changes = bucket.changes.sum();
+        long[] table = reader.totals(bucket.fromId, bucket.toId);
+        long accountsDelta = bucket.accounts.sum() - table[0];
+        long balanceDelta = bucket.balance.sum() - table[1];
+        LockSupport.parkNanos(RECORD_GRACE_NANOS);
+        if (bucket.changes.sum() != changes) {
+            CHECKS_INCONCLUSIVE.increment();
+            inconclusiveChecks.increment();
+            return;
+        }
+        if (accountsDelta == 0 && balanceDelta == 0) {
+            CHECKS_OK.increment();
+            if (bucket.drift != null) {
+                log.info("Balance aggregates of accounts {} to {} match the table again", bucket.fromId, bucket.toId);
+            }
+            bucket.suspected = null;
+            bucket.drift = null;
+            return;
+        }
+        InvariantDriftDto drift = InvariantDriftDto.builder()
+                .fromId(bucket.fromId)
+                .toId(bucket.toId)
+                .accountsDelta(accountsDelta)
+                .balanceDelta(balanceDelta)
+                .detectedAt(System.currentTimeMillis())
+                .build();
+        InvariantDriftDto suspected = bucket.suspected;
+        bucket.suspected = drift;
+        if (suspected == null || suspected.getAccountsDelta() != accountsDelta || suspected.getBalanceDelta() != balanceDelta) {
+            return;
+        }
+        CHECKS_DRIFTED.increment();
+        if (bucket.drift == null) {
+            log.error("Balance aggregates of accounts {} to {} drifted from the table by {} accounts and a balance of {}",
+                    bucket.fromId, bucket.toId, accountsDelta, balanceDelta);
+            bucket.drift = suspected;
+        }
+    }
+
+    InvariantStatsDto getStats() {
+        long balance = 0;
+        long accounts = 0;
+        List<InvariantDriftDto> drifts = new ArrayList<>();
+        for (Bucket bucket : buckets) {
+            balance += bucket.balance.sum();
+            accounts += bucket.accounts.sum();
+            if (bucket.drift != null) {
+                drifts.add(bucket.drift);
+            }
+        }
+        long netInflows = created.sum() + deposited.sum() - withdrawn.sum() + transferredIn.sum() - transferredOut.sum();
+        return InvariantStatsDto.builder()
+                .enabled(true)
+                .totalBalance(balance)
+                .accounts(accounts)
+                .openingBalance(openingBalance)
+                .netInflows(netInflows)
+                .created(created.sum())
+                .deposited(deposited.sum())
+                .withdrawn(withdrawn.sum())
+                .transferredIn(transferredIn.sum())
+                .transferredOut(transferredOut.sum())
+                .buckets(buckets.length)
+                .checks(checks.sum())
+                .inconclusiveChecks(inconclusiveChecks.sum())
+                .lastPassCompletedAt(lastPassCompletedAt == 0 ? null : lastPassCompletedAt)
+                .drifts(drifts)
+                .build();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        verifier.shutdownNow();
+        verifier.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private static final class Bucket {
+
+        private final UUID fromId;
+        private final UUID toId;
+        private final LongAdder accounts = new LongAdder();
+        private final LongAdder balance = new LongAdder();
+        private final LongAdder changes = new LongAdder();
+        // only touched by the verifier thread
+        private InvariantDriftDto suspected;
+        private volatile InvariantDriftDto drift;
+
+        Bucket(UUID fromId, UUID toId) {
+            this.fromId = fromId;
+            this.toId = toId;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.shokoladova.bank_operations;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
 import lombok.Data;
@@ -10,16 +11,21 @@ import java.util.UUID;
 @DatabaseTable(tableName = "ACCOUNT")
 public class BankAccount {
 
-    @DatabaseField(generatedId = true)
+    @DatabaseField(generatedId = true, columnDefinition = "UUID")
     private UUID id;
 
     @DatabaseField
     private String cardholderName;
 
     @DatabaseField(columnDefinition = "BIGINT CHECK BALANCE >= 0")
-    private Integer balance;
+    private long balance;
 
-    public BankAccount(String cardholderName, Integer initialBalance) {
+    // bumped by every balance update; optimistic writes only apply if it is still the version they read
+    @JsonIgnore
+    @DatabaseField(columnDefinition = "BIGINT DEFAULT 0 NOT NULL")
+    private long version;
+
+    public BankAccount(String cardholderName, long initialBalance) {
         this.cardholderName = cardholderName;
         this.balance = initialBalance;
     }
@@ -8,6 +8,8 @@ public interface BankAccountFacade {
 
     BankOperationResultDto create(Request req);
 
+    BankOperationResultDto importAccounts(Request req);
+
     BankOperationResultDto get(Request req);
 
     BankOperationResultDto withdraw(Request req);
@@ -15,4 +17,12 @@ public interface BankAccountFacade {
     BankOperationResultDto deposit(Request req);
 
     BankOperationResultDto transfer(Request req);
+
+    BankOperationResultDto transferBatch(Request req);
+
+    BankOperationResultDto transferIn(Request req);
+
+    BankOperationResultDto history(Request req);
+
+    BankOperationResultDto search(Request req);
 }
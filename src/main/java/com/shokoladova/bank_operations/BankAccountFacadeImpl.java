@@ -1,25 +1,48 @@
 package com.shokoladova.bank_operations;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.MappingIterator;
 import spark.Request;
 
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static com.shokoladova.bank_operations.OperationStatus.NE_OK;
 import static com.shokoladova.bank_operations.OperationStatus.OK;
 
 public class BankAccountFacadeImpl implements BankAccountFacade {
 
-    private final BankAccountService bankAccountService = new BankAccountServiceImpl();
-    private final ObjectMapper mapper = new ObjectMapper();
+    private static final int DEFAULT_HISTORY_PAGE = 100;
+    private static final int MAX_HISTORY_PAGE = 1000;
+    private static final int DEFAULT_SEARCH_PAGE = 100;
+    private static final int MAX_SEARCH_PAGE = 1000;
+    static final int IMPORT_CHUNK_SIZE = 1000;
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    static final String TRANSFER_REQUEST_ATTRIBUTE = "transferRequest";
+    static final String TRANSFER_REQUESTS_ATTRIBUTE = "transferRequests";
+
+    private final BankAccountService bankAccountService;
+    private final IdempotencyStore idempotencyStore;
+
+    BankAccountFacadeImpl(BankAccountService bankAccountService) {
+        this(bankAccountService, new IdempotencyStore(IdempotencyConfig.builder().build()));
+    }
+
+    BankAccountFacadeImpl(BankAccountService bankAccountService, IdempotencyStore idempotencyStore) {
+        this.bankAccountService = bankAccountService;
+        this.idempotencyStore = idempotencyStore;
+    }
 
     @Override
     public BankOperationResultDto create(Request req) {
         try {
             String name = req.queryParams("cardholderName");
-            Optional<Integer> balance = Optional.ofNullable(req.queryParams("balance"))
-                    .map(Integer::parseInt);
+            Optional<Long> balance = Optional.ofNullable(req.queryParams("balance"))
+                    .map(Long::parseLong);
 
             BankAccount bankAccount = balance.isPresent()?
                     bankAccountService.create(name, balance.get()):
@@ -31,6 +54,58 @@ public class BankAccountFacadeImpl implements BankAccountFacade {
         }
     }
 
+    /**
+     * Reads the body in chunks of rows and creates each chunk in one go, so the rows are never all in memory.
+     * The import is done by the time this returns, under the caller's admission permit and request timing, and a
+     * failure part way is reported as an error that still carries the ids of the chunks created before it.
+     * <p>
+     * The ids are not streamed back as each chunk commits: writing them out while the response is serialized would
+     * run the import after this returns, outside the permit, and turn a failure into a cut-off 200. They are collected
+     * and returned in one result instead, so memory grows with the import by an id per created account; very large
+     * files are best split into several requests.
+     */
+    @Override
+    public BankOperationResultDto importAccounts(Request req) {
+        List<UUID> ids = new ArrayList<>();
+        String contentType = req.contentType();
+        try (AccountImportReader reader = contentType != null && contentType.contains("csv") ?
+                AccountImportReader.csv(req.raw().getInputStream()) :
+                AccountImportReader.ndjson(req.raw().getInputStream())) {
+            List<CreateAccountRequest> chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+            for (CreateAccountRequest row = reader.next(); row != null; row = reader.next()) {
+                chunk.add(row);
+                if (chunk.size() == IMPORT_CHUNK_SIZE) {
+                    importChunk(chunk, ids);
+                }
+            }
+            importChunk(chunk, ids);
+
+            return buildSuccessfullResult(importResult(ids));
+        } catch (Exception e) {
+            return BankOperationResultDto.builder()
+                    .status(NE_OK)
+                    .result(importResult(ids))
+                    .error(ErrorDto.of(e))
+                    .build();
+        }
+    }
+
+    private void importChunk(List<CreateAccountRequest> chunk, List<UUID> ids) throws SQLException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        for (BankAccount account : bankAccountService.createBatch(chunk)) {
+            ids.add(account.getId());
+        }
+        chunk.clear();
+    }
+
+    private static AccountImportDto importResult(List<UUID> ids) {
+        return AccountImportDto.builder()
+                .ids(ids)
+                .imported(ids.size())
+                .build();
+    }
 
     @Override
     public BankOperationResultDto get(Request req) {
@@ -46,9 +121,14 @@ public class BankAccountFacadeImpl implements BankAccountFacade {
 
     @Override
     public BankOperationResultDto withdraw(Request req) {
+        return idempotencyStore.execute(idempotencyKey("withdraw", req.headers(IDEMPOTENCY_KEY_HEADER)),
+                req.queryParams("id") + ':' + req.queryParams("amount"), () -> doWithdraw(req));
+    }
+
+    private BankOperationResultDto doWithdraw(Request req) {
         try {
             UUID id = UUID.fromString(req.queryParams("id"));
-            Integer amount = Integer.valueOf(req.queryParams("amount"));
+            long amount = Long.parseLong(req.queryParams("amount"));
             BankAccount bankAccount = bankAccountService.withdraw(id, amount);
 
             return buildSuccessfullResult(bankAccount);
@@ -59,9 +139,14 @@ public class BankAccountFacadeImpl implements BankAccountFacade {
 
     @Override
     public BankOperationResultDto deposit(Request req) {
+        return idempotencyStore.execute(idempotencyKey("deposit", req.headers(IDEMPOTENCY_KEY_HEADER)),
+                req.queryParams("id") + ':' + req.queryParams("amount"), () -> doDeposit(req));
+    }
+
+    private BankOperationResultDto doDeposit(Request req) {
         try {
             UUID id = UUID.fromString(req.queryParams("id"));
-            int amount = Integer.parseInt(req.queryParams("amount"));
+            long amount = Long.parseLong(req.queryParams("amount"));
             BankAccount bankAccount = bankAccountService.deposit(id, amount);
 
             return buildSuccessfullResult(bankAccount);
@@ -72,16 +157,150 @@ public class BankAccountFacadeImpl implements BankAccountFacade {
 
     @Override
     public BankOperationResultDto transfer(Request req) {
+        TransferRequest transferRequest;
+        try {
+            transferRequest = readTransferRequest(req);
+        } catch (Exception e) {
+            return buildErrorResult(e);
+        }
+        String key = Optional.ofNullable(req.headers(IDEMPOTENCY_KEY_HEADER)).orElse(transferRequest.getRequestId());
+        return idempotencyStore.execute(idempotencyKey("transfer", key), transferRequest.toString(), () -> {
+            try {
+                boolean trasnfered = bankAccountService.transfer(transferRequest);
+
+                return buildSuccessfullResult(trasnfered);
+            } catch (Exception e) {
+                return buildErrorResult(e);
+            }
+        });
+    }
+
+    // a decorator in front may already have consumed the body, in which case it leaves the parsed request behind
+    static TransferRequest readTransferRequest(Request req) throws IOException {
+        TransferRequest parsed = req.attribute(TRANSFER_REQUEST_ATTRIBUTE);
+        return parsed != null ? parsed : Json.TRANSFER_REQUEST_READER.readValue(req.raw().getInputStream());
+    }
+
+    @Override
+    public BankOperationResultDto transferBatch(Request req) {
+        List<TransferRequest> transferRequests;
+        try {
+            transferRequests = readTransferRequests(req);
+        } catch (Exception e) {
+            return buildErrorResult(e);
+        }
+        return idempotencyStore.execute(idempotencyKey("transferBatch", req.headers(IDEMPOTENCY_KEY_HEADER)),
+                transferRequests.toString(), () -> doTransferBatch(transferRequests));
+    }
+
+    private BankOperationResultDto doTransferBatch(List<TransferRequest> transferRequests) {
+        try {
+            List<BankOperationResultDto> results = bankAccountService.transferBatch(transferRequests).stream()
+                    .map(result -> result.isTransferred() ?
+                            buildSuccessfullResult(true) :
+                            buildErrorResult(result.getError()))
+                    .collect(Collectors.toList());
+
+            return buildSuccessfullResult(results);
+        } catch (Exception e) {
+            return buildErrorResult(e);
+        }
+    }
+
+    static List<TransferRequest> readTransferRequests(Request req) throws IOException {
+        List<TransferRequest> parsed = req.attribute(TRANSFER_REQUESTS_ATTRIBUTE);
+        if (parsed != null) {
+            return parsed;
+        }
+        List<TransferRequest> transferRequests = new ArrayList<>();
+        try (MappingIterator<TransferRequest> iterator = Json.TRANSFER_REQUEST_READER.readValues(req.raw().getInputStream())) {
+            while (iterator.hasNextValue()) {
+                transferRequests.add(iterator.nextValue());
+            }
+        }
+        return transferRequests;
+    }
+
+    @Override
+    public BankOperationResultDto transferIn(Request req) {
+        try {
+            TransferRequest transferRequest = readTransferRequest(req);
+            if (transferRequest.getRequestId() == null) {
+                throw new IllegalArgumentException("Transfer between nodes needs the transfer id as requestId");
+            }
+            boolean transferred = bankAccountService.transferIn(UUID.fromString(transferRequest.getRequestId()),
+                    transferRequest.getSourceId(), transferRequest.getDestinationId(), transferRequest.getAmount());
+
+            return buildSuccessfullResult(transferred);
+        } catch (Exception e) {
+            return buildErrorResult(e);
+        }
+    }
+
+    @Override
+    public BankOperationResultDto history(Request req) {
         try {
-            TransferRequest transferRequest = mapper.readValue(req.body(), TransferRequest.class);
-            boolean trasnfered = bankAccountService.transfer(transferRequest);
+            UUID id = UUID.fromString(req.queryParams("id"));
+            long after = Optional.ofNullable(req.queryParams("after"))
+                    .map(Long::parseLong)
+                    .orElse(0L);
+            int limit = Optional.ofNullable(req.queryParams("limit"))
+                    .map(Integer::parseInt)
+                    .orElse(DEFAULT_HISTORY_PAGE);
+            if (limit <= 0 || limit > MAX_HISTORY_PAGE) {
+                throw new IllegalArgumentException("History page size must be between 1 and " + MAX_HISTORY_PAGE);
+            }
+            List<JournalEntry> entries = bankAccountService.history(id, after, limit);
 
-            return buildSuccessfullResult(trasnfered);
+            return buildSuccessfullResult(AccountHistoryDto.builder()
+                    .accountId(id)
+                    .entries(entries)
+                    .nextCursor(entries.size() == limit ? entries.get(limit - 1).getId() : null)
+                    .build());
         } catch (Exception e) {
             return buildErrorResult(e);
         }
     }
 
+    @Override
+    public BankOperationResultDto search(Request req) {
+        try {
+            String namePrefix = req.queryParams("cardholderName");
+            AccountSearchQuery query = AccountSearchQuery.builder()
+                    .namePrefix(namePrefix == null || namePrefix.isEmpty() ? null : namePrefix)
+                    .minBalance(Optional.ofNullable(req.queryParams("minBalance"))
+                            .map(Long::parseLong)
+                            .orElse(0L))
+                    .maxBalance(Optional.ofNullable(req.queryParams("maxBalance"))
+                            .map(Long::parseLong)
+                            .orElse(Long.MAX_VALUE))
+                    .limit(Optional.ofNullable(req.queryParams("limit"))
+                            .map(Integer::parseInt)
+                            .orElse(DEFAULT_SEARCH_PAGE))
+                    .build();
+            if (query.getLimit() <= 0 || query.getLimit() > MAX_SEARCH_PAGE) {
+                throw new IllegalArgumentException("Search page size must be between 1 and " + MAX_SEARCH_PAGE);
+            }
+            String cursor = req.queryParams("cursor");
+            if (cursor != null) {
+                query.startAfter(cursor);
+            }
+            List<BankAccount> accounts = bankAccountService.search(query);
+
+            return buildSuccessfullResult(AccountSearchDto.builder()
+                    .accounts(accounts)
+                    .nextCursor(accounts.size() == query.getLimit() ? query.cursorAfter(accounts.get(accounts.size() - 1)) : null)
+                    .build());
+        } catch (Exception e) {
+            return buildErrorResult(e);
+        }
+    }
+
+    // a key only deduplicates calls of the same operation
+    private static String idempotencyKey(String operation, String key) {
+        return key == null || key.isEmpty() ? null : operation + ':' + key;
+    }
+
     private BankOperationResultDto buildSuccessfullResult(Object result) {
         return BankOperationResultDto.builder()
                 .result(result)
@@ -92,7 +311,7 @@ public class BankAccountFacadeImpl implements BankAccountFacade {
     private BankOperationResultDto buildErrorResult(Exception e) {
         return BankOperationResultDto.builder()
                 .status(NE_OK)
-                .error(e)
+                .error(ErrorDto.of(e))
                 .build();
     }
 }
@@ -1,17 +1,64 @@
 package com.shokoladova.bank_operations;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 public interface BankAccountService {
 
-    BankAccount create(String cardholderName, Integer initialBalance) throws SQLException;
+    BankAccount create(String cardholderName, long initialBalance) throws SQLException;
+
+    /**
+     * Creates the accounts in request order; the returned accounts line up with the requests.
+     */
+    default List<BankAccount> createBatch(List<CreateAccountRequest> requests) throws SQLException {
+        List<BankAccount> accounts = new ArrayList<>(requests.size());
+        for (CreateAccountRequest request : requests) {
+            accounts.add(create(request.getCardholderName(), request.getBalance()));
+        }
+        return accounts;
+    }
 
     BankAccount get(UUID id) throws SQLException;
 
-    BankAccount withdraw(UUID id, Integer amount) throws SQLException;
+    BankAccount withdraw(UUID id, long amount) throws SQLException;
 
-    BankAccount deposit(UUID id, Integer amount) throws SQLException;
+    BankAccount deposit(UUID id, long amount) throws SQLException;
 
     boolean transfer(TransferRequest transferRequest) throws SQLException;
+
+    default List<TransferResult> transferBatch(List<TransferRequest> transferRequests) throws SQLException {
+        List<TransferResult> results = new ArrayList<>(transferRequests.size());
+        for (TransferRequest transferRequest : transferRequests) {
+            try {
+                transfer(transferRequest);
+                results.add(TransferResult.transferred());
+            } catch (Exception e) {
+                results.add(TransferResult.failed(e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Credits a transfer that another node has already debited; applying the same transfer id again has no effect.
+     */
+    default boolean transferIn(UUID transferId, UUID sourceId, UUID destinationId, long amount) throws SQLException {
+        throw new UnsupportedOperationException("Transfers between nodes are not supported by this engine");
+    }
+
+    /**
+     * One page of the account's journal, oldest first, starting after the given entry id.
+     */
+    default List<JournalEntry> history(UUID accountId, long afterEntryId, int limit) throws SQLException {
+        throw new UnsupportedOperationException("Account history is not supported by this engine");
+    }
+
+    /**
+     * One page of the accounts that match the query, in the order of its index, starting after its cursor.
+     */
+    default List<BankAccount> search(AccountSearchQuery query) throws SQLException {
+        throw new UnsupportedOperationException("Account search is not supported by this engine");
+    }
 }
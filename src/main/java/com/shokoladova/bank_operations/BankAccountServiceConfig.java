@@ -0,0 +1,72 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class BankAccountServiceConfig {
+
+    @Builder.Default
+    private int maxLegsPerTransaction = 1000;
+    @Builder.Default
+    private LockingMode lockingMode = LockingMode.PESSIMISTIC;
+    @Builder.Default
+    private int optimisticMaxAttempts = 5;
+    @Builder.Default
+    private long optimisticBackoffMicros = 200;
+    @Builder.Default
+    private boolean groupCommitEnabled = false;
+    @Builder.Default
+    private int groupCommitMaxBatchSize = 256;
+    @Builder.Default
+    private long groupCommitMaxDelayMicros = 500;
+    @Builder.Default
+    private int groupCommitQueueCapacity = 65536;
+    @Builder.Default
+    private boolean cacheEnabled = true;
+    @Builder.Default
+    private int cacheMaxSize = 100_000;
+    @Builder.Default
+    private long cacheTtlMillis = 5000;
+    @Builder.Default
+    private int cacheSegments = 16;
+    @Builder.Default
+    private boolean persistenceEnabled = false;
+    @Builder.Default
+    private String persistenceDir = "data";
+    @Builder.Default
+    private boolean persistenceFsync = true;
+    @Builder.Default
+    private long snapshotIntervalMillis = 60_000;
+    @Builder.Default
+    private boolean invariantsEnabled = true;
+    @Builder.Default
+    private int invariantsBuckets = 64;
+    @Builder.Default
+    private long invariantsVerifyIntervalMillis = 100;
+
+    public static BankAccountServiceConfig fromSystemProperties() {
+        return BankAccountServiceConfig.builder()
+                .maxLegsPerTransaction(SystemProperties.getInt("transfer.batch.maxLegsPerTransaction", 1000))
+                .lockingMode(LockingMode.valueOf(SystemProperties.getString("locking.mode", "pessimistic").toUpperCase()))
+                .optimisticMaxAttempts(SystemProperties.getInt("locking.optimistic.maxAttempts", 5))
+                .optimisticBackoffMicros(SystemProperties.getLong("locking.optimistic.backoffMicros", 200))
+                .groupCommitEnabled(SystemProperties.getBoolean("groupCommit.enabled", false))
+                .groupCommitMaxBatchSize(SystemProperties.getInt("groupCommit.maxBatchSize", 256))
+                .groupCommitMaxDelayMicros(SystemProperties.getLong("groupCommit.maxDelayMicros", 500))
+                .groupCommitQueueCapacity(SystemProperties.getInt("groupCommit.queueCapacity", 65536))
+                .cacheEnabled(SystemProperties.getBoolean("cache.enabled", true))
+                .cacheMaxSize(SystemProperties.getInt("cache.maxSize", 100_000))
+                .cacheTtlMillis(SystemProperties.getLong("cache.ttlMillis", 5000))
+                .cacheSegments(SystemProperties.getInt("cache.segments", 16))
+                .persistenceEnabled(SystemProperties.getBoolean("persistence.enabled", false))
+                .persistenceDir(SystemProperties.getString("persistence.dir", "data"))
+                .persistenceFsync(SystemProperties.getBoolean("persistence.fsync", true))
+                .snapshotIntervalMillis(SystemProperties.getLong("persistence.snapshotIntervalMillis", 60_000))
+                .invariantsEnabled(SystemProperties.getBoolean("invariants.enabled", true))
+                .invariantsBuckets(SystemProperties.getInt("invariants.buckets", 64))
+                .invariantsVerifyIntervalMillis(SystemProperties.getLong("invariants.verifyIntervalMillis", 100))
+                .build();
+    }
+}
@@ -2,111 +2,1032 @@ package com.shokoladova.bank_operations;
 
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
-import com.j256.ormlite.jdbc.JdbcPooledConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
 import com.j256.ormlite.table.TableUtils;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
 import static com.j256.ormlite.misc.TransactionManager.callInTransaction;
 import static java.lang.String.format;
 
-public class BankAccountServiceImpl implements BankAccountService {
+public class BankAccountServiceImpl implements BankAccountService, AutoCloseable {
 
-    private final Dao<BankAccount, UUID> accountDao;
+    private static final Histogram TRANSACTION_TIME = Metrics.summary("bank_db_transaction_duration_seconds",
+            "Time spent inside database transactions, including commit or rollback");
+    private static final LongAdder TRANSACTIONS_COMMITTED = Metrics.counter("bank_db_transactions_total",
+            "Database transactions by outcome", "outcome", "committed");
+    private static final LongAdder TRANSACTIONS_ROLLED_BACK = Metrics.counter("bank_db_transactions_total",
+            "Database transactions by outcome", "outcome", "rolled_back");
+
+    private static final LongAdder OPTIMISTIC_CONFLICTS_RETRIED = Metrics.counter("bank_db_optimistic_conflicts_total",
+            "Optimistic transactions that lost to a concurrent update, by what happened next", "outcome", "retried");
+    private static final LongAdder OPTIMISTIC_CONFLICTS_EXHAUSTED = Metrics.counter("bank_db_optimistic_conflicts_total",
+            "Optimistic transactions that lost to a concurrent update, by what happened next", "outcome", "exhausted");
+
+    private static final String SERIALIZATION_FAILURE = "40001";
+    private static final int H2_CONCURRENT_UPDATE = 90131;
+    private static final int MAX_CARDHOLDER_NAME_LENGTH = 255;
+    private static final String BALANCE_OVERFLOW = "Could not credit the account cause its balance would overflow";
+
+    private final ConnectionPool connectionSource;
+    // a pool the service made for itself is closed with it; one handed in belongs to the caller
+    private final boolean ownsConnectionPool;
+    private final StripedLockTable lockTable;
+    private final BankAccountServiceConfig config;
+    private final GroupCommitter groupCommitter;
+    private final AccountCache accountCache;
+    private final DurableStore durableStore;
+    private final BalanceInvariantMonitor invariantMonitor;
+    private final boolean optimistic;
+    private final Supplier<UUID> accountIds;
 
     BankAccountServiceImpl() {
+        this(createConnectionPool(), true, StripedLockTable.fromSystemProperties(), BankAccountServiceConfig.fromSystemProperties(),
+                UUID::randomUUID);
+    }
+
+    BankAccountServiceImpl(ConnectionPool connectionSource, StripedLockTable lockTable, BankAccountServiceConfig config) {
+        this(connectionSource, lockTable, config, UUID::randomUUID);
+    }
+
+    BankAccountServiceImpl(ConnectionPool connectionSource, StripedLockTable lockTable, BankAccountServiceConfig config,
+                           Supplier<UUID> accountIds) {
+        this(connectionSource, false, lockTable, config, accountIds);
+    }
+
+    private BankAccountServiceImpl(ConnectionPool connectionSource, boolean ownsConnectionPool, StripedLockTable lockTable,
+                                   BankAccountServiceConfig config, Supplier<UUID> accountIds) {
         try {
-            JdbcPooledConnectionSource source = getConnectionSource();
-            accountDao = DaoManager.createDao(source, BankAccount.class);
-            TableUtils.createTableIfNotExists(source, BankAccount.class);
+            this.connectionSource = connectionSource;
+            this.ownsConnectionPool = ownsConnectionPool;
+            this.accountIds = accountIds;
+            this.lockTable = lockTable;
+            this.config = config;
+            this.optimistic = config.getLockingMode() == LockingMode.OPTIMISTIC;
+            Dao<BankAccount, UUID> accountDao = DaoManager.createDao(connectionSource, BankAccount.class);
+            TableUtils.createTableIfNotExists(connectionSource, BankAccount.class);
+            TableUtils.createTableIfNotExists(connectionSource, JournalEntry.class);
+            TableUtils.createTableIfNotExists(connectionSource, OutboxEntry.class);
+            TableUtils.createTableIfNotExists(connectionSource, InboxEntry.class);
+            TableUtils.createTableIfNotExists(connectionSource, BatchJob.class);
+            TableUtils.createTableIfNotExists(connectionSource, BatchJobRange.class);
+            TableUtils.createTableIfNotExists(connectionSource, ScheduledTransfer.class);
+            accountDao.executeRaw("CREATE INDEX IF NOT EXISTS JOURNAL_ACCOUNT_ENTRY ON JOURNAL(ACCOUNTID, ID)");
+            accountDao.executeRaw("CREATE INDEX IF NOT EXISTS ACCOUNT_NAME ON ACCOUNT(CARDHOLDERNAME, ID)");
+            accountDao.executeRaw("CREATE INDEX IF NOT EXISTS ACCOUNT_BALANCE ON ACCOUNT(BALANCE, ID)");
+            accountDao.executeRaw("CREATE INDEX IF NOT EXISTS SCHEDULED_TRANSFER_DUE ON SCHEDULED_TRANSFER(STATUS, NEXTRUNAT, ID)");
         } catch (SQLException e) {
+            if (ownsConnectionPool) {
+                connectionSource.closeQuietly();
+            }
             throw new RuntimeException(e);
         }
+        groupCommitter = config.isGroupCommitEnabled() ?
+                new GroupCommitter(config.getGroupCommitMaxBatchSize(), config.getGroupCommitMaxDelayMicros(),
+                        config.getGroupCommitQueueCapacity(), this::commitBalanceChanges) :
+                null;
+        accountCache = config.isCacheEnabled() ?
+                new AccountCache(config.getCacheMaxSize(), config.getCacheTtlMillis(), config.getCacheSegments()) :
+                null;
+        durableStore = config.isPersistenceEnabled() ? openDurableStore(connectionSource, config) : null;
+        try {
+            invariantMonitor = config.isInvariantsEnabled() ?
+                    new BalanceInvariantMonitor(config.getInvariantsBuckets(), config.getInvariantsVerifyIntervalMillis(), this::readTotals) :
+                    null;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static DurableStore openDurableStore(ConnectionPool connectionSource, BankAccountServiceConfig config) {
+        DurableStore store = new DurableStore(connectionSource, config);
+        try {
+            store.recover();
+        } catch (Exception e) {
+            throw new RuntimeException("Could not recover accounts from " + config.getPersistenceDir(), e);
+        }
+        store.start();
+        return store;
     }
 
-    private JdbcPooledConnectionSource getConnectionSource() throws SQLException {
-        return new JdbcPooledConnectionSource("jdbc:h2:mem:revolutDemo");
+    private static ConnectionPool createConnectionPool() {
+        try {
+            return new ConnectionPool(ConnectionPoolConfig.fromSystemProperties());
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     @Override
-    public BankAccount create(String cardholderName, Integer initialBalance) throws SQLException {
+    public BankAccount create(String cardholderName, long initialBalance) throws SQLException {
         if (initialBalance < 0) {
             throw new MoneyOperationException("Could not create account with negative balance");
         }
         BankAccount account = new BankAccount(cardholderName, initialBalance);
-        accountDao.create(account);
+        account.setId(accountIds.get());
+        inTransaction(() -> withJdbcConnection(connection -> {
+            AccountRepository.insert(connection, account);
+            AccountRepository.appendJournal(connection, account.getId(), LedgerRecordType.CREATE, initialBalance, null, null);
+            return null;
+        }));
+        committed(LedgerRecordType.CREATE, account.getId(), initialBalance);
+        awaitDurable(log(LedgerRecordType.CREATE, account, initialBalance));
+        updateCache(account);
 
         return account;
     }
 
+    /**
+     * Inserts all accounts and their opening journal entries as JDBC batches in one transaction.
+     * New accounts are not put into the cache, so a large import does not evict the accounts in use.
+     */
     @Override
-    public BankAccount get(UUID id) throws SQLException {
-        return Optional.ofNullable(accountDao.queryForId(id))
-                .orElseThrow(() -> new BankAccountNotFountException(format("Could not find account with id = %s", id)));
+    public List<BankAccount> createBatch(List<CreateAccountRequest> requests) throws SQLException {
+        List<BankAccount> accounts = new ArrayList<>(requests.size());
+        List<JournalEntry> journal = new ArrayList<>(requests.size());
+        for (CreateAccountRequest request : requests) {
+            if (request.getBalance() < 0) {
+                throw new MoneyOperationException("Could not create account with negative balance");
+            }
+            if (request.getCardholderName() != null && request.getCardholderName().length() > MAX_CARDHOLDER_NAME_LENGTH) {
+                throw new IllegalArgumentException("Cardholder name is too long");
+            }
+            BankAccount account = new BankAccount(request.getCardholderName(), request.getBalance());
+            account.setId(accountIds.get());
+            accounts.add(account);
+            journal.add(journalEntry(account, LedgerRecordType.CREATE, account.getBalance(), null, null));
+        }
+        if (accounts.isEmpty()) {
+            return accounts;
+        }
+        inTransaction(() -> withJdbcConnection(connection -> {
+            AccountRepository.insertAll(connection, accounts);
+            AccountRepository.insertJournal(connection, journal);
+            return null;
+        }));
+        committed(journal);
+        awaitDurable(logCreated(accounts, journal));
 
+        return accounts;
     }
 
     @Override
-    public BankAccount withdraw(UUID id, Integer amount) throws SQLException {
-        validateAccountExists(id);
+    public BankAccount get(UUID id) throws SQLException {
+        if (accountCache == null) {
+            return load(id);
+        }
+        BankAccount cached = accountCache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = accountCache.stamp(id);
+        BankAccount account = load(id);
+        accountCache.putIfUnchanged(account, stamp);
+        return account;
+    }
+
+    private BankAccount load(UUID id) throws SQLException {
+        DatabaseConnection connection = connectionSource.getReadOnlyConnection();
+        try {
+            return Optional.ofNullable(AccountRepository.select((StatementCachingConnection) connection, id))
+                    .orElseThrow(() -> new BankAccountNotFountException(format("Could not find account with id = %s", id)));
+        } finally {
+            connectionSource.releaseConnection(connection);
+        }
+    }
 
+    @Override
+    public BankAccount withdraw(UUID id, long amount) throws SQLException {
         if (amount <= 0) {
             throw new MoneyOperationException("Can not withdraw non-positive value");
         }
-        callInTransaction(getConnectionSource(), () -> {
-            accountDao.queryRaw("SELECT * FROM ACCOUNT WHERE ID=? FOR UPDATE", id.toString());
-            accountDao.executeRaw("UPDATE ACCOUNT SET BALANCE=BALANCE-? WHERE ID=?", amount.toString(), id.toString());
-            return true;
-        });
-
-        return accountDao.queryForId(id);
+        if (groupCommitter != null) {
+            return await(groupCommitter.submit(new BalanceChange(id, -amount)));
+        }
+        if (optimistic) {
+            return changeBalanceOptimistically(new BalanceChange(id, -amount));
+        }
+        BankAccount account;
+        long sequence;
+        try (StripedLockTable.Held held = lockTable.lock(id)) {
+            account = inTransaction(() -> withJdbcConnection(connection -> {
+                if (!AccountRepository.debit(connection, id, amount)) {
+                    validateAccountExists(connection, id);
+                    throw new MoneyOperationException("Could not withdraw cause insufficient money");
+                }
+                AccountRepository.appendJournal(connection, id, LedgerRecordType.WITHDRAW, amount, null, null);
+                return AccountRepository.select(connection, id);
+            }));
+            committed(LedgerRecordType.WITHDRAW, id, amount);
+            sequence = log(LedgerRecordType.WITHDRAW, account, amount);
+            updateCache(account);
+        } catch (SQLException e) {
+            throw unwrap(e);
+        }
+        awaitDurable(sequence);
+        return account;
     }
 
     @Override
-    public BankAccount deposit(UUID id, Integer amount) throws SQLException {
-        validateAccountExists(id);
+    public BankAccount deposit(UUID id, long amount) throws SQLException {
         if (amount <= 0) {
             throw new MoneyOperationException("Can not deposit non-positive value");
         }
-        callInTransaction(getConnectionSource(), () -> {
-            accountDao.queryRaw("SELECT * FROM ACCOUNT WHERE ID=? FOR UPDATE", id.toString());
-            accountDao.executeRaw("UPDATE ACCOUNT SET BALANCE=BALANCE+? WHERE ID=?", amount.toString(), id.toString());
-            return true;
-        });
-
-        return accountDao.queryForId(id);
+        if (groupCommitter != null) {
+            return await(groupCommitter.submit(new BalanceChange(id, amount)));
+        }
+        if (optimistic) {
+            return changeBalanceOptimistically(new BalanceChange(id, amount));
+        }
+        BankAccount account;
+        long sequence;
+        try (StripedLockTable.Held held = lockTable.lock(id)) {
+            account = inTransaction(() -> withJdbcConnection(connection -> {
+                if (!AccountRepository.credit(connection, id, amount)) {
+                    throw new BankAccountNotFountException(format("Could not find account with id = %s", id));
+                }
+                AccountRepository.appendJournal(connection, id, LedgerRecordType.DEPOSIT, amount, null, null);
+                return AccountRepository.select(connection, id);
+            }));
+            committed(LedgerRecordType.DEPOSIT, id, amount);
+            sequence = log(LedgerRecordType.DEPOSIT, account, amount);
+            updateCache(account);
+        } catch (SQLException e) {
+            throw unwrap(e);
+        }
+        awaitDurable(sequence);
+        return account;
     }
 
     @Override
     public boolean transfer(TransferRequest transferRequest) throws SQLException {
-        validateAccountExists(transferRequest.getSourceId());
-        validateAccountExists(transferRequest.getDestinationId());
         if (transferRequest.getAmount() <= 0) {
             throw new MoneyOperationException("Can not transfer non-positive value");
         }
+        if (optimistic) {
+            return transferOptimistically(transferRequest);
+        }
 
         UUID sourceId = transferRequest.getSourceId();
         UUID destinationId = transferRequest.getDestinationId();
+        long amount = transferRequest.getAmount();
 
-        callInTransaction(getConnectionSource(), () -> {
-            BankAccount sourceAccount = accountDao.queryRaw("SELECT * FROM ACCOUNT WHERE ID=? FOR UPDATE", accountDao.getRawRowMapper(), sourceId.toString()).getFirstResult();
-            Integer sourceAccountBalance = sourceAccount.getBalance();
-            if (sourceAccountBalance < transferRequest.getAmount()) {
-                throw new MoneyOperationException("Could not transfer cause insufficient money");
+        long sequence;
+        try (StripedLockTable.Held held = lockTable.lock(sourceId, destinationId)) {
+            List<JournalEntry> journal = inTransaction(() -> withJdbcConnection(connection -> {
+                if (sourceId.compareTo(destinationId) < 0) {
+                    debitSource(connection, sourceId, amount);
+                    creditDestination(connection, destinationId, amount);
+                } else {
+                    creditDestination(connection, destinationId, amount);
+                    debitSource(connection, sourceId, amount);
+                }
+                UUID transferId = UUID.randomUUID();
+                AccountRepository.appendJournal(connection, sourceId, LedgerRecordType.TRANSFER_OUT, amount, destinationId, transferId);
+                AccountRepository.appendJournal(connection, destinationId, LedgerRecordType.TRANSFER_IN, amount, sourceId, transferId);
+                if (durableStore == null) {
+                    return Collections.<JournalEntry>emptyList();
+                }
+                return Arrays.asList(
+                        journalEntry(AccountRepository.select(connection, sourceId), LedgerRecordType.TRANSFER_OUT, amount, destinationId, transferId),
+                        journalEntry(AccountRepository.select(connection, destinationId), LedgerRecordType.TRANSFER_IN, amount, sourceId, transferId));
+            }));
+            committed(LedgerRecordType.TRANSFER_OUT, sourceId, amount);
+            committed(LedgerRecordType.TRANSFER_IN, destinationId, amount);
+            sequence = log(journal);
+            invalidateCache(sourceId);
+            invalidateCache(destinationId);
+        } catch (SQLException e) {
+            if (e.getCause() instanceof BankAccountNotFountException) {
+                throw (BankAccountNotFountException) e.getCause();
             }
-            accountDao.executeRaw("UPDATE ACCOUNT SET BALANCE=BALANCE-? WHERE ID=?", transferRequest.getAmount().toString(), sourceId.toString());
-            accountDao.executeRaw("UPDATE ACCOUNT SET BALANCE=BALANCE+? WHERE ID=?", transferRequest.getAmount().toString(), destinationId.toString());
-            return true;
-        });
+            throw e;
+        }
+        awaitDurable(sequence);
+
+        return true;
+    }
+
+    /**
+     * First half of a transfer to an account another node owns: debits the source and records the pending credit
+     * in the outbox, in one transaction.
+     */
+    OutboxEntry transferOut(TransferRequest transferRequest) throws SQLException {
+        if (transferRequest.getAmount() <= 0) {
+            throw new MoneyOperationException("Can not transfer non-positive value");
+        }
+        OutboxEntry entry = OutboxEntry.builder()
+                .transferId(UUID.randomUUID())
+                .sourceId(transferRequest.getSourceId())
+                .destinationId(transferRequest.getDestinationId())
+                .amount(transferRequest.getAmount())
+                .createdAt(System.currentTimeMillis())
+                .build();
+        long sequence;
+        try (StripedLockTable.Held held = lockTable.lock(entry.getSourceId())) {
+            BankAccount account = inTransaction(() -> withJdbcConnection(connection -> {
+                debitSource(connection, entry.getSourceId(), entry.getAmount());
+                AccountRepository.appendJournal(connection, entry.getSourceId(), LedgerRecordType.TRANSFER_OUT, entry.getAmount(),
+                        entry.getDestinationId(), entry.getTransferId());
+                AccountRepository.insertOutbox(connection, entry);
+                return AccountRepository.select(connection, entry.getSourceId());
+            }));
+            committed(LedgerRecordType.TRANSFER_OUT, entry.getSourceId(), entry.getAmount());
+            sequence = log(Collections.singletonList(journalEntry(account, LedgerRecordType.TRANSFER_OUT, entry.getAmount(),
+                    entry.getDestinationId(), entry.getTransferId())));
+            updateCache(account);
+        } catch (SQLException e) {
+            throw unwrap(e);
+        }
+        awaitDurable(sequence);
+        return entry;
+    }
+
+    /**
+     * Second half of a transfer from another node. The transfer id is recorded in the inbox together with the credit,
+     * so a redelivered transfer is acknowledged without crediting again.
+     */
+    @Override
+    public boolean transferIn(UUID transferId, UUID sourceId, UUID destinationId, long amount) throws SQLException {
+        if (amount <= 0) {
+            throw new MoneyOperationException("Can not transfer non-positive value");
+        }
+        long sequence = 0;
+        try (StripedLockTable.Held held = lockTable.lock(destinationId)) {
+            BankAccount account = inTransaction(() -> withJdbcConnection(connection -> {
+                if (!AccountRepository.insertInboxIfAbsent(connection, transferId)) {
+                    return null;
+                }
+                creditDestination(connection, destinationId, amount);
+                AccountRepository.appendJournal(connection, destinationId, LedgerRecordType.TRANSFER_IN, amount, sourceId, transferId);
+                return AccountRepository.select(connection, destinationId);
+            }));
+            if (account != null) {
+                committed(LedgerRecordType.TRANSFER_IN, destinationId, amount);
+                sequence = log(Collections.singletonList(journalEntry(account, LedgerRecordType.TRANSFER_IN, amount, sourceId, transferId)));
+                updateCache(account);
+            }
+        } catch (SQLException e) {
+            throw unwrap(e);
+        }
+        awaitDurable(sequence);
+        return true;
+    }
+
+    List<OutboxEntry> pendingTransfers(long createdFrom, long createdBefore, int limit) throws SQLException {
+        return withJdbcConnection(connection -> AccountRepository.selectOutbox(connection, createdFrom, createdBefore, limit));
+    }
+
+    long abandonedTransfers(long createdBefore) throws SQLException {
+        return withJdbcConnection(connection -> AccountRepository.countOutbox(connection, createdBefore));
+    }
+
+    void completeTransfer(UUID transferId) throws SQLException {
+        withJdbcConnection(connection -> AccountRepository.deleteOutbox(connection, transferId));
+    }
+
+    /**
+     * Gives the money of a transfer the destination's owner turned down back to the source. Only the caller that
+     * removes the entry from the outbox refunds, so a transfer is never refunded twice.
+     */
+    void refundTransfer(OutboxEntry entry) throws SQLException {
+        long sequence = 0;
+        try (StripedLockTable.Held held = lockTable.lock(entry.getSourceId())) {
+            BankAccount account = inTransaction(() -> withJdbcConnection(connection -> {
+                if (!AccountRepository.deleteOutbox(connection, entry.getTransferId())) {
+                    return null;
+                }
+                creditDestination(connection, entry.getSourceId(), entry.getAmount());
+                AccountRepository.appendJournal(connection, entry.getSourceId(), LedgerRecordType.TRANSFER_IN, entry.getAmount(),
+                        entry.getDestinationId(), entry.getTransferId());
+                return AccountRepository.select(connection, entry.getSourceId());
+            }));
+            if (account != null) {
+                committed(LedgerRecordType.TRANSFER_IN, entry.getSourceId(), entry.getAmount());
+                sequence = log(Collections.singletonList(journalEntry(account, LedgerRecordType.TRANSFER_IN, entry.getAmount(),
+                        entry.getDestinationId(), entry.getTransferId())));
+                updateCache(account);
+            }
+        } catch (SQLException e) {
+            throw unwrap(e);
+        }
+        awaitDurable(sequence);
+    }
+
+    int pruneInbox(long createdBefore) throws SQLException {
+        return withJdbcConnection(connection -> AccountRepository.pruneInbox(connection, createdBefore));
+    }
+
+    /**
+     * Applies a batch job rule to a chunk of accounts and moves the range's checkpoint past them in the same
+     * transaction, so a chunk is never applied twice, even across a crash. The chunk's stripes and rows are
+     * only held for this one transaction, which keeps the wait of live operations on them short.
+     * An adjustment that would overdraw or overflow a balance is skipped. The checkpoint only moves on from
+     * {@code afterId}, where the walker found the range; anywhere else the chunk is rolled back, failing with a
+     * {@link ConcurrentUpdateException} as the cause. Returns how many balances changed.
+     */
+    int applyRule(UUID jobId, AccountRule rule, List<UUID> chunk, BatchJobRange range, UUID afterId, boolean lastChunk)
+            throws SQLException {
+        Set<UUID> accountIds = new TreeSet<>(chunk);
+        List<JournalEntry> journal = new ArrayList<>();
+        long sequence;
+        int changedAccounts;
+        try (StripedLockTable.Held held = lockTable.lock(accountIds)) {
+            changedAccounts = inTransaction(() -> withJdbcConnection(connection -> {
+                List<BankAccount> changed = new ArrayList<>();
+                for (BankAccount account : AccountRepository.lock(connection, accountIds).values()) {
+                    long adjustment = rule.adjustment(account.getBalance());
+                    if (adjustment == 0 || adjustment > 0 && account.getBalance() > Long.MAX_VALUE - adjustment
+                            || account.getBalance() + adjustment < 0) {
+                        continue;
+                    }
+                    account.setBalance(account.getBalance() + adjustment);
+                    changed.add(account);
+                    journal.add(journalEntry(account, adjustment > 0 ? LedgerRecordType.DEPOSIT : LedgerRecordType.WITHDRAW,
+                            Math.abs(adjustment), null, jobId));
+                }
+                AccountRepository.updateBalances(connection, changed);
+                AccountRepository.insertJournal(connection, journal);
+                if (!BatchJobRepository.checkpoint(connection, range, afterId, chunk.get(chunk.size() - 1), chunk.size(),
+                        changed.size(), lastChunk)) {
+                    throw new ConcurrentUpdateException(format("Range %d of batch job %s was moved on by another walker",
+                            range.getRangeIndex(), jobId));
+                }
+                return changed.size();
+            }));
+            committed(journal);
+            sequence = log(journal);
+            accountIds.forEach(this::invalidateCache);
+        }
+        awaitDurable(sequence);
+        return changedAccounts;
+    }
+
+    /**
+     * Runs the scheduled transfers the scheduler fired, keyed by the run time each fired for, and moves their
+     * schedules on in the same transaction, so an occurrence runs exactly once even when it fires twice or the
+     * process stops part way. A schedule cancelled or already moved on in the meantime is left alone. A transfer
+     * fails on its own, as a leg of {@link #transferBatch} does, and the failure is recorded on its schedule.
+     * Returns the schedules that ran.
+     */
+    List<ScheduledTransfer> runScheduled(Map<UUID, Long> fired, long now) throws SQLException {
+        Set<UUID> accountIds = new TreeSet<>();
+        for (ScheduledTransfer schedule : inJdbcTransaction(connection -> ScheduledTransferRepository.read(connection, fired.keySet()))) {
+            accountIds.add(schedule.getSourceId());
+            accountIds.add(schedule.getDestinationId());
+        }
+        if (accountIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<JournalEntry> journal = new ArrayList<>();
+        List<ScheduledTransfer> ran;
+        long sequence;
+        try (StripedLockTable.Held held = lockTable.lock(accountIds)) {
+            ran = inTransaction(() -> withJdbcConnection(connection -> {
+                List<ScheduledTransfer> due = new ArrayList<>();
+                List<TransferRequest> legs = new ArrayList<>();
+                for (ScheduledTransfer schedule : ScheduledTransferRepository.lock(connection, fired.keySet())) {
+                    if (schedule.getStatus() == ScheduledTransferStatus.ACTIVE && schedule.getNextRunAt() == fired.get(schedule.getId())) {
+                        due.add(schedule);
+                        legs.add(TransferRequest.builder()
+                                .sourceId(schedule.getSourceId())
+                                .destinationId(schedule.getDestinationId())
+                                .amount(schedule.getAmount())
+                                .build());
+                    }
+                }
+                Map<UUID, BankAccount> accounts = AccountRepository.lock(connection, accountIds);
+                Map<UUID, BankAccount> changed = new HashMap<>();
+                TransferResult[] outcomes = applyLegs(legs, new TransferResult[legs.size()], accounts, changed, journal);
+                for (int i = 0; i < outcomes.length; i++) {
+                    TransferScheduler.recordRun(due.get(i), outcomes[i], now);
+                }
+                AccountRepository.updateBalances(connection, changed.values());
+                AccountRepository.insertJournal(connection, journal);
+                ScheduledTransferRepository.updateAfterRun(connection, due);
+                return due;
+            }));
+            committed(journal);
+            sequence = log(journal);
+            accountIds.forEach(this::invalidateCache);
+        }
+        awaitDurable(sequence);
+        return ran;
+    }
+
+    // lets the batch job runner and the transfer scheduler keep its bookkeeping in the account database
+    <T> T inJdbcTransaction(JdbcWork<T> work) throws SQLException {
+        return inTransaction(() -> withJdbcConnection(work));
+    }
+
+    private void debitSource(StatementCachingConnection connection, UUID id, long amount) throws SQLException {
+        if (!AccountRepository.debit(connection, id, amount)) {
+            validateAccountExists(connection, id);
+            throw new MoneyOperationException("Could not transfer cause insufficient money");
+        }
+    }
+
+    private void creditDestination(StatementCachingConnection connection, UUID id, long amount) throws SQLException {
+        if (!AccountRepository.credit(connection, id, amount)) {
+            throw new BankAccountNotFountException(format("Could not find account with id = %s", id));
+        }
+    }
+
+    @Override
+    public List<TransferResult> transferBatch(List<TransferRequest> transferRequests) throws SQLException {
+        TransferResult[] results = new TransferResult[transferRequests.size()];
+        for (int from = 0; from < results.length; from += config.getMaxLegsPerTransaction()) {
+            int to = Math.min(results.length, from + config.getMaxLegsPerTransaction());
+            transferChunk(transferRequests.subList(from, to), results, from);
+        }
+        return Arrays.asList(results);
+    }
+
+    private void transferChunk(List<TransferRequest> legs, TransferResult[] results, int offset) throws SQLException {
+        TransferResult[] outcomes = new TransferResult[legs.size()];
+        Set<UUID> accountIds = new TreeSet<>();
+        for (int i = 0; i < legs.size(); i++) {
+            TransferRequest leg = legs.get(i);
+            if (leg.getSourceId() == null || leg.getDestinationId() == null) {
+                outcomes[i] = TransferResult.failed(new IllegalArgumentException("Transfer needs source and destination account"));
+            } else if (leg.getAmount() <= 0) {
+                outcomes[i] = TransferResult.failed(new MoneyOperationException("Can not transfer non-positive value"));
+            } else {
+                accountIds.add(leg.getSourceId());
+                accountIds.add(leg.getDestinationId());
+            }
+        }
+
+        long sequence = 0;
+        if (!accountIds.isEmpty()) {
+            try {
+                TransferResult[] applied;
+                if (optimistic) {
+                    long[] logged = {0};
+                    applied = optimistically(accountIds, logged, (accounts, changed, journal) ->
+                            applyLegs(legs, outcomes, accounts, changed, journal));
+                    sequence = logged[0];
+                    accountIds.forEach(this::invalidateCache);
+                } else {
+                    List<JournalEntry> journal = new ArrayList<>();
+                    try (StripedLockTable.Held held = lockTable.lock(accountIds)) {
+                        applied = inTransaction(() -> withJdbcConnection(connection -> {
+                            Map<UUID, BankAccount> accounts = AccountRepository.lock(connection, accountIds);
+                            Map<UUID, BankAccount> changed = new HashMap<>();
+                            TransferResult[] legOutcomes = applyLegs(legs, outcomes, accounts, changed, journal);
+                            AccountRepository.updateBalances(connection, changed.values());
+                            AccountRepository.insertJournal(connection, journal);
+                            return legOutcomes;
+                        }));
+                        committed(journal);
+                        sequence = log(journal);
+                        accountIds.forEach(this::invalidateCache);
+                    }
+                }
+                System.arraycopy(applied, 0, outcomes, 0, outcomes.length);
+            } catch (SQLException | ConcurrentUpdateException e) {
+                for (int i = 0; i < outcomes.length; i++) {
+                    if (outcomes[i] == null) {
+                        outcomes[i] = TransferResult.failed(e);
+                    }
+                }
+            }
+        }
+        awaitDurable(sequence);
+        System.arraycopy(outcomes, 0, results, offset, outcomes.length);
+    }
+
+    private TransferResult[] applyLegs(List<TransferRequest> legs, TransferResult[] validated, Map<UUID, BankAccount> accounts,
+                                       Map<UUID, BankAccount> changed, List<JournalEntry> journal) {
+        TransferResult[] legOutcomes = validated.clone();
+        for (int i = 0; i < legs.size(); i++) {
+            if (legOutcomes[i] == null) {
+                legOutcomes[i] = applyLeg(legs.get(i), accounts, changed, journal);
+            }
+        }
+        return legOutcomes;
+    }
+
+    private TransferResult applyLeg(TransferRequest leg, Map<UUID, BankAccount> accounts, Map<UUID, BankAccount> changed,
+                                    List<JournalEntry> journal) {
+        BankAccount source = accounts.get(leg.getSourceId());
+        BankAccount destination = accounts.get(leg.getDestinationId());
+        if (source == null) {
+            return TransferResult.failed(new BankAccountNotFountException(format("Could not find account with id = %s", leg.getSourceId())));
+        }
+        if (destination == null) {
+            return TransferResult.failed(new BankAccountNotFountException(format("Could not find account with id = %s", leg.getDestinationId())));
+        }
+        if (source.getBalance() < leg.getAmount()) {
+            return TransferResult.failed(new MoneyOperationException("Could not transfer cause insufficient money"));
+        }
+        if (destination.getBalance() > Long.MAX_VALUE - leg.getAmount()) {
+            return TransferResult.failed(new MoneyOperationException(BALANCE_OVERFLOW));
+        }
+        source.setBalance(source.getBalance() - leg.getAmount());
+        destination.setBalance(destination.getBalance() + leg.getAmount());
+        changed.put(source.getId(), source);
+        changed.put(destination.getId(), destination);
+        UUID transferId = UUID.randomUUID();
+        journal.add(journalEntry(source, LedgerRecordType.TRANSFER_OUT, leg.getAmount(), destination.getId(), transferId));
+        journal.add(journalEntry(destination, LedgerRecordType.TRANSFER_IN, leg.getAmount(), source.getId(), transferId));
+        return TransferResult.transferred();
+    }
 
+    private boolean transferOptimistically(TransferRequest transferRequest) throws SQLException {
+        Exception error = transferBatch(Collections.singletonList(transferRequest)).get(0).getError();
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error != null) {
+            throw (SQLException) error;
+        }
         return true;
     }
 
-    private void validateAccountExists(UUID id) throws SQLException {
-        if (!accountDao.idExists(id)) {
+    private BankAccount changeBalanceOptimistically(BalanceChange change) throws SQLException {
+        long[] sequence = {0};
+        Object outcome = optimistically(Collections.singleton(change.getAccountId()), sequence,
+                (accounts, changed, journal) -> applyBalanceChange(change, accounts, changed, journal));
+        invalidateCache(change.getAccountId());
+        awaitDurable(sequence[0]);
+        if (outcome instanceof RuntimeException) {
+            throw (RuntimeException) outcome;
+        }
+        return (BankAccount) outcome;
+    }
+
+    /**
+     * Runs a read-modify-write that reads and computes without stripe or row locks: the accounts are read as they are,
+     * and the new balances are only written if no other transaction has changed them since. A conflict rolls the write
+     * back, and it runs again after a randomized exponential backoff, up to the configured attempts.
+     * <p>
+     * The read gives its connection back before the stripes of the changed accounts are taken, and the write only asks
+     * for a connection once it holds them, the same order the locking writers follow. So a full pool can not leave this
+     * path holding a connection while it waits for a stripe that a locking writer holds while it waits for a connection.
+     * The log records are appended once the write has committed, still under the stripes, so a rolled back attempt
+     * leaves nothing in the log and per account the log follows the commit order.
+     */
+    private <T> T optimistically(Set<UUID> accountIds, long[] sequence, BalanceWork<T> work) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            Map<UUID, BankAccount> accounts = withJdbcConnection(connection -> AccountRepository.read(connection, accountIds));
+            // written in id order, so writers that meet on the same accounts take the row locks in the same order
+            Map<UUID, BankAccount> changed = new TreeMap<>();
+            List<JournalEntry> journal = new ArrayList<>();
+            T result = work.apply(accounts, changed, journal);
+            if (changed.isEmpty()) {
+                return result;
+            }
+            try (StripedLockTable.Held held = lockTable.lock(changed.keySet())) {
+                inTransaction(() -> withJdbcConnection(connection -> {
+                    if (!AccountRepository.updateBalancesIfUnchanged(connection, changed.values())) {
+                        throw new ConcurrentUpdateException("Account was changed by a concurrent operation");
+                    }
+                    AccountRepository.insertJournal(connection, journal);
+                    return null;
+                }));
+                committed(journal);
+                sequence[0] = log(journal);
+                return result;
+            } catch (SQLException e) {
+                if (!isConflict(e)) {
+                    throw e;
+                }
+                if (attempt >= config.getOptimisticMaxAttempts()) {
+                    OPTIMISTIC_CONFLICTS_EXHAUSTED.increment();
+                    throw new ConcurrentUpdateException(format("Account kept changing concurrently, gave up after %d attempts", attempt));
+                }
+                OPTIMISTIC_CONFLICTS_RETRIED.increment();
+            }
+            backoff(attempt);
+        }
+    }
+
+    private void backoff(int attempt) {
+        long ceiling = config.getOptimisticBackoffMicros() << Math.min(attempt - 1, 10);
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1)));
+    }
+
+    private static boolean isConflict(SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConcurrentUpdateException) {
+                return true;
+            }
+            if (cause instanceof SQLException && (SERIALIZATION_FAILURE.equals(((SQLException) cause).getSQLState())
+                    || ((SQLException) cause).getErrorCode() == H2_CONCURRENT_UPDATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void commitBalanceChanges(List<BalanceChange> changes) throws SQLException {
+        Set<UUID> accountIds = new TreeSet<>();
+        changes.forEach(change -> accountIds.add(change.getAccountId()));
+        Object[] outcomes = new Object[changes.size()];
+        List<JournalEntry> journal = new ArrayList<>();
+        long sequence;
+
+        try (StripedLockTable.Held held = lockTable.lock(accountIds)) {
+            inTransaction(() -> withJdbcConnection(connection -> {
+                Map<UUID, BankAccount> accounts = AccountRepository.lock(connection, accountIds);
+                Map<UUID, BankAccount> changed = new HashMap<>();
+                for (int i = 0; i < outcomes.length; i++) {
+                    outcomes[i] = applyBalanceChange(changes.get(i), accounts, changed, journal);
+                }
+                AccountRepository.updateBalances(connection, changed.values());
+                AccountRepository.insertJournal(connection, journal);
+                return null;
+            }));
+            committed(journal);
+            sequence = log(journal);
+            for (Object outcome : outcomes) {
+                if (outcome instanceof BankAccount) {
+                    updateCache((BankAccount) outcome);
+                }
+            }
+        }
+        awaitDurable(sequence);
+        for (int i = 0; i < outcomes.length; i++) {
+            CompletableFuture<BankAccount> result = changes.get(i).getResult();
+            if (outcomes[i] instanceof BankAccount) {
+                result.complete((BankAccount) outcomes[i]);
+            } else {
+                result.completeExceptionally((Exception) outcomes[i]);
+            }
+        }
+    }
+
+    private Object applyBalanceChange(BalanceChange change, Map<UUID, BankAccount> accounts, Map<UUID, BankAccount> changed,
+                                      List<JournalEntry> journal) {
+        BankAccount account = accounts.get(change.getAccountId());
+        if (account == null) {
+            return new BankAccountNotFountException(format("Could not find account with id = %s", change.getAccountId()));
+        }
+        if (change.getDelta() > 0 && account.getBalance() > Long.MAX_VALUE - change.getDelta()) {
+            return new MoneyOperationException(BALANCE_OVERFLOW);
+        }
+        long balance = account.getBalance() + change.getDelta();
+        if (balance < 0) {
+            return new MoneyOperationException("Could not withdraw cause insufficient money");
+        }
+        account.setBalance(balance);
+        changed.put(account.getId(), account);
+        journal.add(journalEntry(account, change.getDelta() < 0 ? LedgerRecordType.WITHDRAW : LedgerRecordType.DEPOSIT,
+                Math.abs(change.getDelta()), null, null));
+        return copyOf(account);
+    }
+
+    private static JournalEntry journalEntry(BankAccount account, LedgerRecordType type, long amount, UUID counterpartyId, UUID transferId) {
+        return JournalEntry.builder()
+                .accountId(account.getId())
+                .type(type)
+                .amount(amount)
+                .balanceAfter(account.getBalance())
+                .counterpartyId(counterpartyId)
+                .transferId(transferId)
+                .createdAt(System.currentTimeMillis())
+                .build();
+    }
+
+    private long log(LedgerRecordType type, BankAccount account, long amount) {
+        if (durableStore == null) {
+            return 0;
+        }
+        LedgerRecord record = ledgerRecord(journalEntry(account, type, amount, null, null));
+        if (type == LedgerRecordType.CREATE) {
+            record.setCardholderName(account.getCardholderName());
+        }
+        return durableStore.append(Collections.singletonList(record));
+    }
+
+    private long log(List<JournalEntry> journal) {
+        if (durableStore == null || journal.isEmpty()) {
+            return 0;
+        }
+        List<LedgerRecord> records = new ArrayList<>(journal.size());
+        for (JournalEntry entry : journal) {
+            records.add(ledgerRecord(entry));
+        }
+        return durableStore.append(records);
+    }
+
+    private long logCreated(List<BankAccount> accounts, List<JournalEntry> journal) {
+        if (durableStore == null) {
+            return 0;
+        }
+        List<LedgerRecord> records = new ArrayList<>(journal.size());
+        for (int i = 0; i < journal.size(); i++) {
+            LedgerRecord record = ledgerRecord(journal.get(i));
+            record.setCardholderName(accounts.get(i).getCardholderName());
+            records.add(record);
+        }
+        return durableStore.append(records);
+    }
+
+    private void awaitDurable(long sequence) {
+        if (durableStore != null && sequence > 0) {
+            durableStore.awaitDurable(sequence);
+        }
+    }
+
+    private void committed(LedgerRecordType type, UUID accountId, long amount) {
+        if (invariantMonitor != null) {
+            invariantMonitor.record(type, accountId, amount);
+        }
+    }
+
+    private void committed(List<JournalEntry> journal) {
+        if (invariantMonitor != null) {
+            invariantMonitor.record(journal);
+        }
+    }
+
+    private long[] readTotals(UUID fromId, UUID toId) throws SQLException {
+        DatabaseConnection connection = connectionSource.getReadOnlyConnection();
+        try {
+            return AccountRepository.totals((StatementCachingConnection) connection, fromId, toId);
+        } finally {
+            connectionSource.releaseConnection(connection);
+        }
+    }
+
+    private static LedgerRecord ledgerRecord(JournalEntry entry) {
+        return LedgerRecord.builder()
+                .type(entry.getType())
+                .accountId(entry.getAccountId())
+                .amount(entry.getAmount())
+                .balanceAfter(entry.getBalanceAfter())
+                .counterpartyId(entry.getCounterpartyId())
+                .transferId(entry.getTransferId())
+                .createdAt(entry.getCreatedAt())
+                .build();
+    }
+
+    private void updateCache(BankAccount account) {
+        if (accountCache != null && account != null) {
+            accountCache.update(account);
+        }
+    }
+
+    private void invalidateCache(UUID id) {
+        if (accountCache != null) {
+            accountCache.invalidate(id);
+        }
+    }
+
+    private static BankAccount copyOf(BankAccount account) {
+        BankAccount copy = new BankAccount(account.getCardholderName(), account.getBalance());
+        copy.setId(account.getId());
+        copy.setVersion(account.getVersion());
+        return copy;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the group commit", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException(cause.getMessage(), cause);
+        }
+    }
+
+    private <T> T withJdbcConnection(JdbcWork<T> work) throws SQLException {
+        DatabaseConnection connection = connectionSource.getReadWriteConnection();
+        try {
+            return work.execute((StatementCachingConnection) connection);
+        } finally {
+            connectionSource.releaseConnection(connection);
+        }
+    }
+
+    @Override
+    public List<JournalEntry> history(UUID accountId, long afterEntryId, int limit) throws SQLException {
+        get(accountId);
+        DatabaseConnection connection = connectionSource.getReadOnlyConnection();
+        try {
+            return AccountRepository.history((StatementCachingConnection) connection, accountId, afterEntryId, limit);
+        } finally {
+            connectionSource.releaseConnection(connection);
+        }
+    }
+
+    @Override
+    public List<BankAccount> search(AccountSearchQuery query) throws SQLException {
+        DatabaseConnection connection = connectionSource.getReadOnlyConnection();
+        try {
+            return AccountRepository.search((StatementCachingConnection) connection, query);
+        } finally {
+            connectionSource.releaseConnection(connection);
+        }
+    }
+
+    CacheStatsDto getCacheStats() {
+        return accountCache == null ?
+                CacheStatsDto.builder().enabled(false).build() :
+                accountCache.getStats();
+    }
+
+    InvariantStatsDto getInvariantStats() {
+        return invariantMonitor == null ?
+                InvariantStatsDto.builder().enabled(false).build() :
+                invariantMonitor.getStats();
+    }
+
+    GroupCommitStatsDto getGroupCommitStats() {
+        return groupCommitter == null ?
+                GroupCommitStatsDto.builder().enabled(false).build() :
+                groupCommitter.getStats();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        if (groupCommitter != null) {
+            groupCommitter.close();
+        }
+        if (invariantMonitor != null) {
+            invariantMonitor.close();
+        }
+        try {
+            if (durableStore != null) {
+                durableStore.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (ownsConnectionPool) {
+                connectionSource.closeQuietly();
+            }
+        }
+    }
+
+    void snapshot() throws IOException, SQLException {
+        if (durableStore != null) {
+            durableStore.snapshot();
+        }
+    }
+
+    private <T> T inTransaction(Callable<T> work) throws SQLException {
+        long start = System.nanoTime();
+        boolean committed = false;
+        try {
+            T result = callInTransaction(connectionSource, work);
+            committed = true;
+            return result;
+        } finally {
+            TRANSACTION_TIME.record(System.nanoTime() - start);
+            (committed ? TRANSACTIONS_COMMITTED : TRANSACTIONS_ROLLED_BACK).increment();
+        }
+    }
+
+    private static SQLException unwrap(SQLException e) {
+        if (e.getCause() instanceof BankAccountNotFountException || e.getCause() instanceof MoneyOperationException) {
+            throw (RuntimeException) e.getCause();
+        }
+        return e;
+    }
+
+    private static void validateAccountExists(StatementCachingConnection connection, UUID id) throws SQLException {
+        if (!AccountRepository.exists(connection, id)) {
             throw new BankAccountNotFountException(format("Could not find account with id = %s", id));
         }
     }
+
+    private interface BalanceWork<T> {
+        T apply(Map<UUID, BankAccount> accounts, Map<UUID, BankAccount> changed, List<JournalEntry> journal);
+    }
+
+    interface JdbcWork<T> {
+        T execute(StatementCachingConnection connection) throws SQLException;
+    }
 }
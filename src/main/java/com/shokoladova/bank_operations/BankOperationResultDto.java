@@ -9,5 +9,5 @@ public class BankOperationResultDto {
 
     private OperationStatus status;
     private Object result;
-    private Exception error;
+    private ErrorDto error;
 }
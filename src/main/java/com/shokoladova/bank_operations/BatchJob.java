@@ -0,0 +1,45 @@
+package com.shokoladova.bank_operations;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@DatabaseTable(tableName = "BATCH_JOB")
+public class BatchJob {
+
+    @DatabaseField(id = true, columnDefinition = "UUID")
+    private UUID id;
+
+    @DatabaseField(canBeNull = false)
+    private String rule;
+
+    @DatabaseField
+    private long amount;
+
+    @DatabaseField(canBeNull = false)
+    private BatchJobStatus status;
+
+    @DatabaseField
+    private int chunkSize;
+
+    @DatabaseField
+    private long estimatedAccounts;
+
+    @DatabaseField
+    private long createdAt;
+
+    @DatabaseField
+    private long finishedAt;
+
+    @DatabaseField(width = 1024)
+    private String error;
+}
@@ -0,0 +1,24 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class BatchJobConfig {
+
+    @Builder.Default
+    private int ranges = 64;
+    @Builder.Default
+    private int parallelism = 2;
+    @Builder.Default
+    private int chunkSize = 200;
+
+    public static BatchJobConfig fromSystemProperties() {
+        return BatchJobConfig.builder()
+                .ranges(SystemProperties.getInt("batch.ranges", 64))
+                .parallelism(SystemProperties.getInt("batch.parallelism", 2))
+                .chunkSize(SystemProperties.getInt("batch.chunkSize", 200))
+                .build();
+    }
+}
@@ -0,0 +1,25 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.UUID;
+
+@Data
+@Builder
+public class BatchJobDto {
+
+    private UUID id;
+    private String rule;
+    private long amount;
+    private BatchJobStatus status;
+    private int ranges;
+    private int rangesDone;
+    private long estimatedAccounts;
+    private long accountsProcessed;
+    private long accountsChanged;
+    private Double accountsPerSecond;
+    private long createdAt;
+    private Long finishedAt;
+    private String error;
+}
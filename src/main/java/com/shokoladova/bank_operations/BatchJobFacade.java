@@ -0,0 +1,14 @@
+package com.shokoladova.bank_operations;
+
+import spark.Request;
+
+public interface BatchJobFacade {
+
+    BankOperationResultDto start(Request req);
+
+    BankOperationResultDto resume(Request req);
+
+    BankOperationResultDto status(Request req);
+
+    BankOperationResultDto list(Request req);
+}
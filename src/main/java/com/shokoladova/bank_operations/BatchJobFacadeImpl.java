@@ -0,0 +1,77 @@
+package com.shokoladova.bank_operations;
+
+import spark.Request;
+
+import java.util.UUID;
+
+import static com.shokoladova.bank_operations.OperationStatus.NE_OK;
+import static com.shokoladova.bank_operations.OperationStatus.OK;
+
+public class BatchJobFacadeImpl implements BatchJobFacade {
+
+    private final BatchJobRunner runner;
+
+    BatchJobFacadeImpl(BatchJobRunner runner) {
+        this.runner = runner;
+    }
+
+    @Override
+    public BankOperationResultDto start(Request req) {
+        try {
+            String rule = req.queryParams("rule");
+            long amount = Long.parseLong(req.queryParams("amount"));
+
+            return buildSuccessfullResult(runner().start(rule, amount));
+        } catch (Exception e) {
+            return buildErrorResult(e);
+        }
+    }
+
+    @Override
+    public BankOperationResultDto resume(Request req) {
+        try {
+            return buildSuccessfullResult(runner().resume(UUID.fromString(req.params("id"))));
+        } catch (Exception e) {
+            return buildErrorResult(e);
+        }
+    }
+
+    @Override
+    public BankOperationResultDto status(Request req) {
+        try {
+            return buildSuccessfullResult(runner().status(UUID.fromString(req.params("id"))));
+        } catch (Exception e) {
+            return buildErrorResult(e);
+        }
+    }
+
+    @Override
+    public BankOperationResultDto list(Request req) {
+        try {
+            return buildSuccessfullResult(runner().list());
+        } catch (Exception e) {
+            return buildErrorResult(e);
+        }
+    }
+
+    private BatchJobRunner runner() {
+        if (runner == null) {
+            throw new UnsupportedOperationException("Batch jobs need the jdbc engine, and a file-backed db.url when persistence is enabled");
+        }
+        return runner;
+    }
+
+    private BankOperationResultDto buildSuccessfullResult(Object result) {
+        return BankOperationResultDto.builder()
+                .result(result)
+                .status(OK)
+                .build();
+    }
+
+    private BankOperationResultDto buildErrorResult(Exception e) {
+        return BankOperationResultDto.builder()
+                .status(NE_OK)
+                .error(ErrorDto.of(e))
+                .build();
+    }
+}
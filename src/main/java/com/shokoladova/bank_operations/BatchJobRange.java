@@ -0,0 +1,49 @@
+package com.shokoladova.bank_operations;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+/**
+ * One slice of the account ids a batch job walks, from {@code fromId} to {@code toId} inclusive. {@code lastId} is the
+ * checkpoint: the last account of the range the job has applied its rule to, or null before the first chunk.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@DatabaseTable(tableName = "BATCH_JOB_RANGE")
+public class BatchJobRange {
+
+    @DatabaseField(generatedId = true)
+    private long id;
+
+    @DatabaseField(canBeNull = false, uniqueCombo = true, columnDefinition = "UUID NOT NULL")
+    private UUID jobId;
+
+    @DatabaseField(uniqueCombo = true)
+    private int rangeIndex;
+
+    @DatabaseField(canBeNull = false, columnDefinition = "UUID NOT NULL")
+    private UUID fromId;
+
+    @DatabaseField(canBeNull = false, columnDefinition = "UUID NOT NULL")
+    private UUID toId;
+
+    @DatabaseField(columnDefinition = "UUID")
+    private UUID lastId;
+
+    @DatabaseField
+    private long processed;
+
+    @DatabaseField
+    private long changed;
+
+    @DatabaseField
+    private boolean done;
+}
@@ -0,0 +1,173 @@
+package com.shokoladova.bank_operations;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Data access for batch jobs and their range checkpoints, in the style of {@link AccountRepository}.
+ */
+final class BatchJobRepository {
+
+    private static final String JOB_COLUMNS = "ID, RULE, AMOUNT, STATUS, CHUNKSIZE, ESTIMATEDACCOUNTS, CREATEDAT, FINISHEDAT, ERROR";
+
+    private static final String INSERT_JOB =
+            "INSERT INTO BATCH_JOB (" + JOB_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_RANGE =
+            "INSERT INTO BATCH_JOB_RANGE (JOBID, RANGEINDEX, FROMID, TOID, PROCESSED, CHANGED, DONE) VALUES (?, ?, ?, ?, 0, 0, FALSE)";
+    private static final String SELECT_JOB = "SELECT " + JOB_COLUMNS + " FROM BATCH_JOB WHERE ID=?";
+    private static final String SELECT_JOBS = "SELECT " + JOB_COLUMNS + " FROM BATCH_JOB ORDER BY CREATEDAT DESC LIMIT ?";
+    private static final String UPDATE_STATUS = "UPDATE BATCH_JOB SET STATUS=?, FINISHEDAT=?, ERROR=? WHERE ID=?";
+    private static final String INTERRUPT_RUNNING = "UPDATE BATCH_JOB SET STATUS=? WHERE STATUS=?";
+    private static final String SELECT_RANGES =
+            "SELECT ID, JOBID, RANGEINDEX, FROMID, TOID, LASTID, PROCESSED, CHANGED, DONE FROM BATCH_JOB_RANGE WHERE JOBID=? ORDER BY RANGEINDEX";
+    private static final String CHECKPOINT =
+            "UPDATE BATCH_JOB_RANGE SET LASTID=?, PROCESSED=PROCESSED+?, CHANGED=CHANGED+?, DONE=? WHERE ID=? AND DONE=FALSE AND ";
+    private static final String CHECKPOINT_FIRST = CHECKPOINT + "LASTID IS NULL";
+    private static final String CHECKPOINT_AFTER = CHECKPOINT + "LASTID=?";
+    private static final String RANGE_TOTALS =
+            "SELECT COUNT(*), COALESCE(SUM(CASE WHEN DONE THEN 1 ELSE 0 END), 0), COALESCE(SUM(PROCESSED), 0), " +
+                    "COALESCE(SUM(CHANGED), 0) FROM BATCH_JOB_RANGE WHERE JOBID=?";
+
+    private BatchJobRepository() {
+    }
+
+    static void insert(StatementCachingConnection connection, BatchJob job, List<BatchJobRange> ranges) throws SQLException {
+        PreparedStatement statement = connection.prepare(INSERT_JOB);
+        statement.setObject(1, job.getId());
+        statement.setString(2, job.getRule());
+        statement.setLong(3, job.getAmount());
+        statement.setString(4, job.getStatus().name());
+        statement.setInt(5, job.getChunkSize());
+        statement.setLong(6, job.getEstimatedAccounts());
+        statement.setLong(7, job.getCreatedAt());
+        statement.setLong(8, job.getFinishedAt());
+        statement.setString(9, job.getError());
+        statement.executeUpdate();
+
+        PreparedStatement insertRange = connection.prepare(INSERT_RANGE);
+        for (BatchJobRange range : ranges) {
+            insertRange.setObject(1, range.getJobId());
+            insertRange.setInt(2, range.getRangeIndex());
+            insertRange.setObject(3, range.getFromId());
+            insertRange.setObject(4, range.getToId());
+            insertRange.addBatch();
+        }
+        insertRange.executeBatch();
+    }
+
+    static BatchJob select(StatementCachingConnection connection, UUID id) throws SQLException {
+        PreparedStatement statement = connection.prepare(SELECT_JOB);
+        statement.setObject(1, id);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? toJob(resultSet) : null;
+        }
+    }
+
+    static List<BatchJob> selectLatest(StatementCachingConnection connection, int limit) throws SQLException {
+        PreparedStatement statement = connection.prepare(SELECT_JOBS);
+        statement.setInt(1, limit);
+        List<BatchJob> jobs = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                jobs.add(toJob(resultSet));
+            }
+        }
+        return jobs;
+    }
+
+    static void updateStatus(StatementCachingConnection connection, UUID id, BatchJobStatus status, long finishedAt, String error)
+            throws SQLException {
+        PreparedStatement statement = connection.prepare(UPDATE_STATUS);
+        statement.setString(1, status.name());
+        statement.setLong(2, finishedAt);
+        statement.setString(3, error);
+        statement.setObject(4, id);
+        statement.executeUpdate();
+    }
+
+    /**
+     * Marks the jobs a previous run of the process left running, so they can be resumed on purpose.
+     */
+    static int interruptRunning(StatementCachingConnection connection) throws SQLException {
+        PreparedStatement statement = connection.prepare(INTERRUPT_RUNNING);
+        statement.setString(1, BatchJobStatus.INTERRUPTED.name());
+        statement.setString(2, BatchJobStatus.RUNNING.name());
+        return statement.executeUpdate();
+    }
+
+    static List<BatchJobRange> selectRanges(StatementCachingConnection connection, UUID jobId) throws SQLException {
+        PreparedStatement statement = connection.prepare(SELECT_RANGES);
+        statement.setObject(1, jobId);
+        List<BatchJobRange> ranges = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                ranges.add(BatchJobRange.builder()
+                        .id(resultSet.getLong(1))
+                        .jobId(resultSet.getObject(2, UUID.class))
+                        .rangeIndex(resultSet.getInt(3))
+                        .fromId(resultSet.getObject(4, UUID.class))
+                        .toId(resultSet.getObject(5, UUID.class))
+                        .lastId(resultSet.getObject(6, UUID.class))
+                        .processed(resultSet.getLong(7))
+                        .changed(resultSet.getLong(8))
+                        .done(resultSet.getBoolean(9))
+                        .build());
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Moves the range's checkpoint from {@code expectedLastId} to {@code lastId}; false when the range is no longer
+     * where the caller expects it, because another walker moved it or finished it, in which case the caller must roll
+     * its chunk back.
+     */
+    static boolean checkpoint(StatementCachingConnection connection, BatchJobRange range, UUID expectedLastId, UUID lastId,
+                              int processed, int changed, boolean done) throws SQLException {
+        PreparedStatement statement = connection.prepare(expectedLastId == null ? CHECKPOINT_FIRST : CHECKPOINT_AFTER);
+        if (lastId == null) {
+            statement.setNull(1, Types.OTHER);
+        } else {
+            statement.setObject(1, lastId);
+        }
+        statement.setInt(2, processed);
+        statement.setInt(3, changed);
+        statement.setBoolean(4, done);
+        statement.setLong(5, range.getId());
+        if (expectedLastId != null) {
+            statement.setObject(6, expectedLastId);
+        }
+        return statement.executeUpdate() > 0;
+    }
+
+    /**
+     * Ranges, finished ranges, processed accounts and changed accounts of a job, as checkpointed.
+     */
+    static long[] totals(StatementCachingConnection connection, UUID jobId) throws SQLException {
+        PreparedStatement statement = connection.prepare(RANGE_TOTALS);
+        statement.setObject(1, jobId);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return new long[]{resultSet.getLong(1), resultSet.getLong(2), resultSet.getLong(3), resultSet.getLong(4)};
+        }
+    }
+
+    private static BatchJob toJob(ResultSet resultSet) throws SQLException {
+        return BatchJob.builder()
+                .id(resultSet.getObject(1, UUID.class))
+                .rule(resultSet.getString(2))
+                .amount(resultSet.getLong(3))
+                .status(BatchJobStatus.valueOf(resultSet.getString(4)))
+                .chunkSize(resultSet.getInt(5))
+                .estimatedAccounts(resultSet.getLong(6))
+                .createdAt(resultSet.getLong(7))
+                .finishedAt(resultSet.getLong(8))
+                .error(resultSet.getString(9))
+                .build();
+    }
+}
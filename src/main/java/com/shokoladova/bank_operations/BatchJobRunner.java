@@ -0,0 +1,289 @@
+package com.shokoladova.bank_operations;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs a rule over every account, such as end-of-day interest or fees. A job splits the account ids into fixed
+ * ranges, and a fork-join pool walks the ranges in parallel, one chunk of accounts per transaction. Every chunk
+ * commits together with the checkpoint of its range, so a job that stopped part way, with the process or on an
+ * error, resumes from its checkpoints without applying the rule to any account twice.
+ * <p>
+ * Jobs and checkpoints live in the account database and are not in the write-ahead log, so they only outlive the
+ * process when the database is kept in a file; with persistence enabled, jobs are only run on such a database.
+ * <p>
+ * The pool is deliberately small and a chunk holds its accounts' locks only for its own transaction, so live
+ * operations keep most of the connection pool and wait at most one chunk for an account the job is touching.
+ */
+@Slf4j
+class BatchJobRunner implements AutoCloseable {
+
+    private static final int LISTED_JOBS = 20;
+
+    private static final LongAdder ACCOUNTS_PROCESSED = Metrics.counter("bank_batch_accounts_total",
+            "Accounts batch jobs have applied their rule to", "outcome", "processed");
+    private static final LongAdder ACCOUNTS_CHANGED = Metrics.counter("bank_batch_accounts_total",
+            "Accounts batch jobs have applied their rule to", "outcome", "changed");
+
+    private final BankAccountServiceImpl service;
+    private final BatchJobConfig config;
+    private final ForkJoinPool pool;
+    // one thread per running job waits for its ranges and records how it ended, outside the pool, whose
+    // workers may be interrupted while it terminates
+    private final ExecutorService coordinators;
+    private final Map<UUID, Progress> running = new ConcurrentHashMap<>();
+    // runs on the walker after each chunk it committed; lets tests hold a job part way through a range
+    private volatile Runnable afterChunk = () -> {
+    };
+
+    BatchJobRunner(BankAccountServiceImpl service, BatchJobConfig config) throws SQLException {
+        this.service = service;
+        this.config = config;
+        this.pool = new ForkJoinPool(config.getParallelism());
+        this.coordinators = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "batch-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int interrupted = service.inJdbcTransaction(BatchJobRepository::interruptRunning);
+        if (interrupted > 0) {
+            log.warn("{} batch jobs were interrupted by a restart and can be resumed", interrupted);
+        }
+    }
+
+    BatchJobDto start(String ruleName, long amount) throws SQLException {
+        AccountRule rule = AccountRule.of(ruleName, amount);
+        BatchJob job = BatchJob.builder()
+                .id(UUID.randomUUID())
+                .rule(ruleName)
+                .amount(amount)
+                .status(BatchJobStatus.RUNNING)
+                .chunkSize(config.getChunkSize())
+                .createdAt(System.currentTimeMillis())
+                .build();
+        List<BatchJobRange> ranges = ranges(job.getId(), config.getRanges());
+        service.inJdbcTransaction(connection -> {
+            job.setEstimatedAccounts(AccountRepository.count(connection));
+            BatchJobRepository.insert(connection, job, ranges);
+            return null;
+        });
+        submit(job, rule);
+        return status(job.getId());
+    }
+
+    synchronized BatchJobDto resume(UUID id) throws SQLException {
+        BatchJob job = find(id);
+        if (job.getStatus() != BatchJobStatus.INTERRUPTED && job.getStatus() != BatchJobStatus.FAILED) {
+            throw new IllegalArgumentException(String.format("Batch job %s is %s and can not be resumed", id, job.getStatus()));
+        }
+        service.inJdbcTransaction(connection -> {
+            BatchJobRepository.updateStatus(connection, id, BatchJobStatus.RUNNING, 0, null);
+            return null;
+        });
+        job.setStatus(BatchJobStatus.RUNNING);
+        submit(job, AccountRule.of(job.getRule(), job.getAmount()));
+        return status(id);
+    }
+
+    BatchJobDto status(UUID id) throws SQLException {
+        BatchJob job = find(id);
+        long[] totals = service.inJdbcTransaction(connection -> BatchJobRepository.totals(connection, id));
+        Progress progress = running.get(id);
+        return BatchJobDto.builder()
+                .id(job.getId())
+                .rule(job.getRule())
+                .amount(job.getAmount())
+                .status(job.getStatus())
+                .ranges((int) totals[0])
+                .rangesDone((int) totals[1])
+                .estimatedAccounts(job.getEstimatedAccounts())
+                .accountsProcessed(totals[2])
+                .accountsChanged(totals[3])
+                .accountsPerSecond(progress == null ? null : progress.accountsPerSecond())
+                .createdAt(job.getCreatedAt())
+                .finishedAt(job.getFinishedAt() == 0 ? null : job.getFinishedAt())
+                .error(job.getError())
+                .build();
+    }
+
+    List<BatchJobDto> list() throws SQLException {
+        List<BatchJobDto> jobs = new ArrayList<>();
+        for (BatchJob job : service.inJdbcTransaction(connection -> BatchJobRepository.selectLatest(connection, LISTED_JOBS))) {
+            jobs.add(status(job.getId()));
+        }
+        return jobs;
+    }
+
+    private BatchJob find(UUID id) throws SQLException {
+        BatchJob job = service.inJdbcTransaction(connection -> BatchJobRepository.select(connection, id));
+        if (job == null) {
+            throw new BankAccountNotFountException(String.format("Could not find batch job with id = %s", id));
+        }
+        return job;
+    }
+
+    private void submit(BatchJob job, AccountRule rule) throws SQLException {
+        List<BatchJobRange> pending = new ArrayList<>();
+        for (BatchJobRange range : service.inJdbcTransaction(connection -> BatchJobRepository.selectRanges(connection, job.getId()))) {
+            if (!range.isDone()) {
+                pending.add(range);
+            }
+        }
+        Progress progress = new Progress();
+        running.put(job.getId(), progress);
+        coordinators.execute(() -> {
+            BatchJobStatus status = BatchJobStatus.COMPLETED;
+            String error = null;
+            try {
+                pool.invoke(new RangesTask(job, rule, pending, progress));
+                if (pool.isShutdown()) {
+                    status = BatchJobStatus.INTERRUPTED;
+                }
+            } catch (RejectedExecutionException e) {
+                status = BatchJobStatus.INTERRUPTED;
+            } catch (RuntimeException e) {
+                status = BatchJobStatus.FAILED;
+                error = String.valueOf(ErrorCode.rootOf(e).getMessage());
+                log.error("Batch job {} failed", job.getId(), e);
+            }
+            try {
+                BatchJobStatus finalStatus = status;
+                String finalError = error;
+                service.inJdbcTransaction(connection -> {
+                    BatchJobRepository.updateStatus(connection, job.getId(), finalStatus, System.currentTimeMillis(), finalError);
+                    return null;
+                });
+            } catch (SQLException e) {
+                log.error("Could not record the end of batch job {}", job.getId(), e);
+            } finally {
+                running.remove(job.getId());
+            }
+        });
+    }
+
+    /**
+     * Splits the account id space into {@code count} contiguous ranges, in the order H2 sorts UUIDs: by the most
+     * significant half, then the least significant one, each compared as a signed long.
+     */
+    static List<BatchJobRange> ranges(UUID jobId, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("A batch job needs at least one range");
+        }
+        long step = Long.divideUnsigned(-1L, count);
+        List<BatchJobRange> ranges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long from = Long.MIN_VALUE + i * step;
+            ranges.add(BatchJobRange.builder()
+                    .jobId(jobId)
+                    .rangeIndex(i)
+                    .fromId(new UUID(from, Long.MIN_VALUE))
+                    .toId(i == count - 1 ? new UUID(Long.MAX_VALUE, Long.MAX_VALUE) : new UUID(from + step - 1, Long.MAX_VALUE))
+                    .build());
+        }
+        return ranges;
+    }
+
+    void afterChunk(Runnable hook) {
+        this.afterChunk = hook;
+    }
+
+    // running ranges stop after their current chunk, and their job is left interrupted
+    void stop() {
+        pool.shutdown();
+        coordinators.shutdown();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        stop();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        coordinators.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private final class RangesTask extends RecursiveAction {
+
+        private final BatchJob job;
+        private final AccountRule rule;
+        private final List<BatchJobRange> ranges;
+        private final Progress progress;
+
+        RangesTask(BatchJob job, AccountRule rule, List<BatchJobRange> ranges, Progress progress) {
+            this.job = job;
+            this.rule = rule;
+            this.ranges = ranges;
+            this.progress = progress;
+        }
+
+        // waits for both halves even when one fails, so no walker is still running once the job's status is written
+        @Override
+        protected void compute() {
+            if (ranges.size() > 1) {
+                int middle = ranges.size() / 2;
+                RangesTask left = new RangesTask(job, rule, ranges.subList(0, middle), progress);
+                RangesTask right = new RangesTask(job, rule, ranges.subList(middle, ranges.size()), progress);
+                right.fork();
+                left.quietlyInvoke();
+                right.quietlyJoin();
+                for (RangesTask half : new RangesTask[]{left, right}) {
+                    if (half.isCompletedAbnormally()) {
+                        Throwable error = half.getException();
+                        throw error instanceof RuntimeException ? (RuntimeException) error : new IllegalStateException(error);
+                    }
+                }
+            } else if (ranges.size() == 1) {
+                try {
+                    walk(ranges.get(0));
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+            }
+        }
+
+        private void walk(BatchJobRange range) throws SQLException {
+            UUID lastId = range.getLastId();
+            while (!pool.isShutdown()) {
+                UUID after = lastId;
+                List<UUID> chunk = service.inJdbcTransaction(connection ->
+                        AccountRepository.selectIds(connection, range.getFromId(), after, range.getToId(), job.getChunkSize()));
+                boolean lastChunk = chunk.size() < job.getChunkSize();
+                if (chunk.isEmpty()) {
+                    service.inJdbcTransaction(connection -> BatchJobRepository.checkpoint(connection, range, after, after, 0, 0, true));
+                    return;
+                }
+                int changed = service.applyRule(job.getId(), rule, chunk, range, after, lastChunk);
+                progress.processed.add(chunk.size());
+                ACCOUNTS_PROCESSED.add(chunk.size());
+                ACCOUNTS_CHANGED.add(changed);
+                afterChunk.run();
+                if (lastChunk) {
+                    return;
+                }
+                lastId = chunk.get(chunk.size() - 1);
+            }
+        }
+    }
+
+    private static final class Progress {
+
+        private final long startedNanos = System.nanoTime();
+        private final LongAdder processed = new LongAdder();
+
+        double accountsPerSecond() {
+            long elapsed = System.nanoTime() - startedNanos;
+            return elapsed == 0 ? 0 : processed.sum() * 1e9 / elapsed;
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package com.shokoladova.bank_operations;
+
+public enum BatchJobStatus {
+    RUNNING, COMPLETED, FAILED, INTERRUPTED
+}
@@ -0,0 +1,176 @@
+package com.shokoladova.bank_operations;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Wire format of the binary listener. Integers are big-endian, an id is its two longs, most significant first,
+ * and a string is an unsigned 16-bit byte count followed by that many bytes of UTF-8.
+ *
+ * <pre>
+ * request  = length:int32 opcode:int8 correlationId:int64 body
+ * response = length:int32 opcode:int8 correlationId:int64 status:int16 body
+ *
+ * opcode        request body                          response body when status is 200
+ * 1 CREATE      balance:int64 cardholderName:string   id balance:int64
+ * 2 GET         id                                    id balance:int64
+ * 3 DEPOSIT     id amount:int64                       id balance:int64
+ * 4 WITHDRAW    id amount:int64                       id balance:int64
+ * 5 TRANSFER    sourceId destinationId amount:int64   (empty)
+ * </pre>
+ *
+ * {@code length} counts the bytes that follow it. The status is the HTTP status the HTTP routes answer the same
+ * outcome with; any status but 200 is followed by the error message as a string. A connection may pipeline
+ * requests: they run in the order they were sent and are answered in that order, with the opcode and the
+ * correlation id echoed back. An unknown opcode is answered with 400; a frame that can not be decoded, or is
+ * longer than the server accepts, closes the connection. Requests carry no idempotency key: a retry runs again.
+ */
+final class BinaryProtocol {
+
+    static final byte CREATE = 1;
+    static final byte GET = 2;
+    static final byte DEPOSIT = 3;
+    static final byte WITHDRAW = 4;
+    static final byte TRANSFER = 5;
+
+    static final short OK = 200;
+
+    static final int LENGTH_BYTES = 4;
+    static final int MIN_REQUEST_BYTES = 1 + 8;
+    private static final int MAX_MESSAGE_CHARS = 256;
+    // no char takes more than 3 bytes of UTF-8
+    static final int MAX_RESPONSE_BYTES = LENGTH_BYTES + 1 + 8 + 2 + Math.max(16 + 8, 2 + 3 * MAX_MESSAGE_CHARS);
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Reads the request in {@code frame}, which holds exactly the bytes after the length.
+     * An unknown opcode is read without a body, so that the request can still be answered.
+     */
+    static BinaryRequest readRequest(ByteBuffer frame) {
+        byte opcode = frame.get();
+        BinaryRequest.BinaryRequestBuilder request = BinaryRequest.builder()
+                .opcode(opcode)
+                .correlationId(frame.getLong());
+        switch (opcode) {
+            case CREATE:
+                request.amount(frame.getLong()).cardholderName(readString(frame));
+                break;
+            case GET:
+                request.accountId(readId(frame));
+                break;
+            case DEPOSIT:
+            case WITHDRAW:
+                request.accountId(readId(frame)).amount(frame.getLong());
+                break;
+            case TRANSFER:
+                request.accountId(readId(frame)).destinationId(readId(frame)).amount(frame.getLong());
+                break;
+            default:
+                break;
+        }
+        return request.build();
+    }
+
+    static void writeRequest(ByteBuffer out, BinaryRequest request) {
+        int start = out.position();
+        out.putInt(0);
+        out.put(request.getOpcode());
+        out.putLong(request.getCorrelationId());
+        switch (request.getOpcode()) {
+            case CREATE:
+                out.putLong(request.getAmount());
+                writeString(out, request.getCardholderName());
+                break;
+            case GET:
+                writeId(out, request.getAccountId());
+                break;
+            case DEPOSIT:
+            case WITHDRAW:
+                writeId(out, request.getAccountId());
+                out.putLong(request.getAmount());
+                break;
+            case TRANSFER:
+                writeId(out, request.getAccountId());
+                writeId(out, request.getDestinationId());
+                out.putLong(request.getAmount());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown opcode " + request.getOpcode());
+        }
+        out.putInt(start, out.position() - start - LENGTH_BYTES);
+    }
+
+    /**
+     * Reads the response in {@code frame}, which holds exactly the bytes after the length.
+     */
+    static BinaryResponse readResponse(ByteBuffer frame) {
+        byte opcode = frame.get();
+        long correlationId = frame.getLong();
+        short status = frame.getShort();
+        BinaryResponse.BinaryResponseBuilder response = BinaryResponse.builder()
+                .opcode(opcode)
+                .correlationId(correlationId)
+                .status(status);
+        if (status != OK) {
+            response.message(readString(frame));
+        } else if (opcode != TRANSFER) {
+            response.accountId(readId(frame)).balance(frame.getLong());
+        }
+        return response.build();
+    }
+
+    /**
+     * Writes at most {@link #MAX_RESPONSE_BYTES}; longer error messages are cut.
+     */
+    static void writeResponse(ByteBuffer out, BinaryResponse response) {
+        int start = out.position();
+        out.putInt(0);
+        out.put(response.getOpcode());
+        out.putLong(response.getCorrelationId());
+        out.putShort(response.getStatus());
+        if (!response.isOk()) {
+            String message = response.getMessage() == null ? "" : response.getMessage();
+            writeString(out, message.length() > MAX_MESSAGE_CHARS ? message.substring(0, MAX_MESSAGE_CHARS) : message);
+        } else if (response.getOpcode() != TRANSFER) {
+            writeId(out, response.getAccountId());
+            out.putLong(response.getBalance());
+        }
+        out.putInt(start, out.position() - start - LENGTH_BYTES);
+    }
+
+    static ErrorCode errorCodeOf(short status) {
+        for (ErrorCode code : ErrorCode.values()) {
+            if (code.httpStatus() == status) {
+                return code;
+            }
+        }
+        return ErrorCode.INTERNAL_ERROR;
+    }
+
+    private static UUID readId(ByteBuffer in) {
+        return new UUID(in.getLong(), in.getLong());
+    }
+
+    private static void writeId(ByteBuffer out, UUID id) {
+        out.putLong(id.getMostSignificantBits());
+        out.putLong(id.getLeastSignificantBits());
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[Short.toUnsignedInt(in.getShort())];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(ByteBuffer out, String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("String of " + bytes.length + " bytes does not fit a frame");
+        }
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+}
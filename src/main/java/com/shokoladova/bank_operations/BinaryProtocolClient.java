@@ -0,0 +1,129 @@
+package com.shokoladova.bank_operations;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Blocking client of the {@link BinaryProtocol} over one connection; not safe for use by several threads.
+ * Failed operations throw the exception the service threw on the server.
+ */
+class BinaryProtocolClient implements Closeable {
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocate(BUFFER_BYTES);
+    private final ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES);
+    private long nextCorrelationId;
+
+    BinaryProtocolClient(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        in.flip();
+    }
+
+    BankAccount create(String cardholderName, long balance) throws IOException {
+        return account(call(BinaryRequest.builder().opcode(BinaryProtocol.CREATE).cardholderName(cardholderName).amount(balance)));
+    }
+
+    BankAccount get(UUID id) throws IOException {
+        return account(call(BinaryRequest.builder().opcode(BinaryProtocol.GET).accountId(id)));
+    }
+
+    BankAccount deposit(UUID id, long amount) throws IOException {
+        return account(call(BinaryRequest.builder().opcode(BinaryProtocol.DEPOSIT).accountId(id).amount(amount)));
+    }
+
+    BankAccount withdraw(UUID id, long amount) throws IOException {
+        return account(call(BinaryRequest.builder().opcode(BinaryProtocol.WITHDRAW).accountId(id).amount(amount)));
+    }
+
+    void transfer(UUID sourceId, UUID destinationId, long amount) throws IOException {
+        check(call(BinaryRequest.builder().opcode(BinaryProtocol.TRANSFER)
+                .accountId(sourceId).destinationId(destinationId).amount(amount)));
+    }
+
+    /**
+     * Sends all requests before reading any answer and returns the answers in request order. The requests must fit
+     * the client's buffer, and the server must accept that many pipelined requests, or the two end up waiting on each other.
+     */
+    List<BinaryResponse> pipeline(List<BinaryRequest> requests) throws IOException {
+        out.clear();
+        for (BinaryRequest request : requests) {
+            request.setCorrelationId(nextCorrelationId++);
+            BinaryProtocol.writeRequest(out, request);
+        }
+        write();
+        List<BinaryResponse> responses = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            responses.add(read());
+        }
+        return responses;
+    }
+
+    private BinaryResponse call(BinaryRequest.BinaryRequestBuilder request) throws IOException {
+        out.clear();
+        BinaryProtocol.writeRequest(out, request.correlationId(nextCorrelationId++).build());
+        write();
+        return read();
+    }
+
+    private void write() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+    }
+
+    private BinaryResponse read() throws IOException {
+        fill(BinaryProtocol.LENGTH_BYTES);
+        int length = in.getInt(in.position());
+        fill(BinaryProtocol.LENGTH_BYTES + length);
+        BinaryResponse response = BinaryProtocol.readResponse(in.slice(in.position() + BinaryProtocol.LENGTH_BYTES, length));
+        in.position(in.position() + BinaryProtocol.LENGTH_BYTES + length);
+        return response;
+    }
+
+    private void fill(int bytes) throws IOException {
+        if (bytes > in.capacity()) {
+            throw new IOException("Response frame of " + bytes + " bytes");
+        }
+        while (in.remaining() < bytes) {
+            in.compact();
+            int read = channel.read(in);
+            in.flip();
+            if (read < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+        }
+    }
+
+    static BankAccount account(BinaryResponse response) {
+        check(response);
+        BankAccount account = new BankAccount(null, response.getBalance());
+        account.setId(response.getAccountId());
+        return account;
+    }
+
+    static void check(BinaryResponse response) {
+        if (!response.isOk()) {
+            throw ClusterClient.exceptionOf(ErrorDto.builder()
+                    .code(BinaryProtocol.errorCodeOf(response.getStatus()))
+                    .message(response.getMessage())
+                    .build());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,31 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class BinaryProtocolConfig {
+
+    @Builder.Default
+    private int port = 0;
+    @Builder.Default
+    private int eventLoops = 2;
+    @Builder.Default
+    private int maxFrameBytes = 1024;
+    @Builder.Default
+    private int maxPipelinedRequests = 256;
+
+    public boolean isEnabled() {
+        return port > 0;
+    }
+
+    public static BinaryProtocolConfig fromSystemProperties() {
+        return BinaryProtocolConfig.builder()
+                .port(SystemProperties.getInt("binary.port", 0))
+                .eventLoops(SystemProperties.getInt("binary.eventLoops", 2))
+                .maxFrameBytes(SystemProperties.getInt("binary.maxFrameBytes", 1024))
+                .maxPipelinedRequests(SystemProperties.getInt("binary.maxPipelinedRequests", 256))
+                .build();
+    }
+}
@@ -0,0 +1,383 @@
+package com.shokoladova.bank_operations;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves the {@link BinaryProtocol} next to the HTTP routes. The event loops only move bytes: a loop decodes the
+ * frames it reads and hands them to a virtual thread of their connection, which runs them one after another, so
+ * pipelined requests are answered in order and a request waiting on the database holds up neither the loop nor
+ * the other connections on it. A connection stops being read while it has too many requests waiting or while
+ * its answers are waiting for the client to read them.
+ * <p>
+ * Requests go straight to the {@link BankAccountService}, not through the HTTP facades: there is no admission
+ * control, no routing to the node that owns an account and no idempotency, as a frame carries no idempotency key,
+ * so a retried deposit, withdraw or transfer runs again. {@code Main} refuses to start the listener when admission
+ * control or clustering is enabled rather than let binary clients bypass them.
+ */
+@Slf4j
+class BinaryProtocolServer implements Closeable {
+
+    private static final int READ_BUFFER_BYTES = 16 * 1024;
+    private static final int RESPONSES_PER_WRITE = 64;
+
+    private static final LongAdder REQUESTS = Metrics.counter("bank_binary_requests_total",
+            "Requests served over the binary protocol");
+    private static final LongAdder PROTOCOL_ERRORS = Metrics.counter("bank_binary_protocol_errors_total",
+            "Binary protocol connections closed because of a frame that could not be decoded");
+
+    private final BankAccountService service;
+    private final BinaryProtocolConfig config;
+    private final ExecutorService workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("binary-vt-", 0).factory());
+    private final EventLoop[] loops;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    BinaryProtocolServer(BankAccountService service, BinaryProtocolConfig config) {
+        this.service = service;
+        this.config = config;
+        this.loops = new EventLoop[config.getEventLoops()];
+    }
+
+    void start() throws IOException {
+        running = true;
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+            Thread thread = new Thread(loops[i], "binary-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.getPort()));
+        acceptor = new Thread(this::accept, "binary-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Binary protocol listening on port {}", config.getPort());
+    }
+
+    private void accept() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next++ % loops.length].register(channel);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                log.warn("Could not accept a binary protocol connection", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+        workers.shutdown();
+    }
+
+    private BinaryResponse execute(BinaryRequest request) {
+        BinaryResponse.BinaryResponseBuilder response = BinaryResponse.builder()
+                .opcode(request.getOpcode())
+                .correlationId(request.getCorrelationId())
+                .status(BinaryProtocol.OK);
+        try {
+            BankAccount account;
+            switch (request.getOpcode()) {
+                case BinaryProtocol.CREATE:
+                    account = service.create(request.getCardholderName(), request.getAmount());
+                    break;
+                case BinaryProtocol.GET:
+                    account = service.get(request.getAccountId());
+                    break;
+                case BinaryProtocol.DEPOSIT:
+                    account = service.deposit(request.getAccountId(), request.getAmount());
+                    break;
+                case BinaryProtocol.WITHDRAW:
+                    account = service.withdraw(request.getAccountId(), request.getAmount());
+                    break;
+                case BinaryProtocol.TRANSFER:
+                    service.transfer(TransferRequest.builder()
+                            .sourceId(request.getAccountId())
+                            .destinationId(request.getDestinationId())
+                            .amount(request.getAmount())
+                            .build());
+                    return response.build();
+                default:
+                    throw new IllegalArgumentException("Unknown opcode " + request.getOpcode());
+            }
+            return response.accountId(account.getId()).balance(account.getBalance()).build();
+        } catch (Exception e) {
+            Throwable cause = ErrorCode.rootOf(e);
+            return response.status((short) ErrorCode.of(cause).httpStatus())
+                    .message(cause.getMessage())
+                    .build();
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> interestChanges = new ConcurrentLinkedQueue<>();
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            accepted.add(channel);
+            selector.wakeup();
+        }
+
+        void updateInterest(Connection connection) {
+            interestChanges.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    log.error("Binary protocol event loop failed", e);
+                    break;
+                }
+                SocketChannel channel;
+                while ((channel = accepted.poll()) != null) {
+                    Connection connection = new Connection(channel, this);
+                    try {
+                        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    } catch (ClosedChannelException e) {
+                        connection.close();
+                    }
+                }
+                Connection changed;
+                while ((changed = interestChanges.poll()) != null) {
+                    changed.updateInterest();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.warn("Could not close a binary protocol selector", e);
+            }
+        }
+    }
+
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final ByteBuffer in = ByteBuffer.allocate(Math.max(READ_BUFFER_BYTES, BinaryProtocol.LENGTH_BYTES + config.getMaxFrameBytes()));
+        private SelectionKey key;
+
+        // guarded by this
+        private final ArrayDeque<BinaryRequest> pending = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+        private boolean executing;
+        private boolean readPaused;
+
+        Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        // event loop only
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            List<BinaryRequest> requests = new ArrayList<>();
+            try {
+                while (in.remaining() >= BinaryProtocol.LENGTH_BYTES) {
+                    int length = in.getInt(in.position());
+                    if (length < BinaryProtocol.MIN_REQUEST_BYTES || length > config.getMaxFrameBytes()) {
+                        throw new IllegalArgumentException("Frame of " + length + " bytes");
+                    }
+                    if (in.remaining() < BinaryProtocol.LENGTH_BYTES + length) {
+                        break;
+                    }
+                    ByteBuffer frame = in.slice(in.position() + BinaryProtocol.LENGTH_BYTES, length);
+                    BinaryRequest request = BinaryProtocol.readRequest(frame);
+                    if (frame.hasRemaining()) {
+                        throw new IllegalArgumentException("Frame longer than its request");
+                    }
+                    requests.add(request);
+                    in.position(in.position() + BinaryProtocol.LENGTH_BYTES + length);
+                }
+            } catch (IllegalArgumentException | BufferUnderflowException e) {
+                PROTOCOL_ERRORS.increment();
+                close();
+                return;
+            } finally {
+                in.compact();
+            }
+            if (requests.isEmpty()) {
+                return;
+            }
+            boolean start;
+            synchronized (this) {
+                pending.addAll(requests);
+                start = !executing;
+                executing = true;
+            }
+            if (start) {
+                workers.execute(this::drain);
+            }
+            updateInterest();
+        }
+
+        // worker only: runs what has arrived, answers it in one write, and repeats until nothing is left
+        private void drain() {
+            while (true) {
+                List<BinaryRequest> batch;
+                synchronized (this) {
+                    if (pending.isEmpty()) {
+                        executing = false;
+                        return;
+                    }
+                    batch = new ArrayList<>(pending);
+                    pending.clear();
+                }
+                ByteBuffer out = null;
+                try {
+                    for (BinaryRequest request : batch) {
+                        if (out == null) {
+                            out = ByteBuffer.allocate(Math.min(batch.size(), RESPONSES_PER_WRITE) * BinaryProtocol.MAX_RESPONSE_BYTES);
+                        }
+                        BinaryProtocol.writeResponse(out, BinaryProtocolServer.this.execute(request));
+                        REQUESTS.increment();
+                        if (out.remaining() < BinaryProtocol.MAX_RESPONSE_BYTES) {
+                            send(out.flip());
+                            out = null;
+                        }
+                    }
+                    if (out != null) {
+                        send(out.flip());
+                    }
+                } catch (IOException e) {
+                    close();
+                    synchronized (this) {
+                        pending.clear();
+                        executing = false;
+                    }
+                    return;
+                }
+                boolean resume;
+                synchronized (this) {
+                    resume = readPaused;
+                }
+                if (resume) {
+                    loop.updateInterest(this);
+                }
+            }
+        }
+
+        // writes straight away when nothing is queued; whatever the socket does not take is left to the event loop
+        private void send(ByteBuffer response) throws IOException {
+            boolean queued;
+            synchronized (this) {
+                if (outbound.isEmpty()) {
+                    channel.write(response);
+                }
+                queued = response.hasRemaining();
+                if (queued) {
+                    outbound.add(response);
+                }
+            }
+            if (queued) {
+                loop.updateInterest(this);
+            }
+        }
+
+        // event loop only
+        void flush() throws IOException {
+            synchronized (this) {
+                while (!outbound.isEmpty()) {
+                    ByteBuffer response = outbound.peek();
+                    channel.write(response);
+                    if (response.hasRemaining()) {
+                        break;
+                    }
+                    outbound.poll();
+                }
+            }
+            updateInterest();
+        }
+
+        // event loop only
+        void updateInterest() {
+            if (key == null || !key.isValid()) {
+                return;
+            }
+            synchronized (this) {
+                readPaused = pending.size() >= config.getMaxPipelinedRequests() || !outbound.isEmpty();
+                key.interestOps((readPaused ? 0 : SelectionKey.OP_READ) | (outbound.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+            }
+        }
+
+        void close() {
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Could not close a binary protocol connection", e);
+            }
+        }
+    }
+}
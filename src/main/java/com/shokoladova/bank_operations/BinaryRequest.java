@@ -0,0 +1,18 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.UUID;
+
+@Data
+@Builder
+public class BinaryRequest {
+
+    private byte opcode;
+    private long correlationId;
+    private UUID accountId;
+    private UUID destinationId;
+    private long amount;
+    private String cardholderName;
+}
@@ -0,0 +1,22 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.UUID;
+
+@Data
+@Builder
+public class BinaryResponse {
+
+    private byte opcode;
+    private long correlationId;
+    private short status;
+    private UUID accountId;
+    private long balance;
+    private String message;
+
+    boolean isOk() {
+        return status == BinaryProtocol.OK;
+    }
+}
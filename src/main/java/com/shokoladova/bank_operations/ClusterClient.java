@@ -0,0 +1,118 @@
+package com.shokoladova.bank_operations;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.String.format;
+
+/**
+ * Calls the other nodes of the cluster over HTTP and reads their answers back into result DTOs.
+ * Every call carries {@link #FORWARDED_HEADER}, so a node that disagrees about who owns an account
+ * answers itself instead of forwarding the request again, and {@link #SECRET_HEADER}, which the internal routes
+ * check before they trust a call to come from another node.
+ */
+class ClusterClient {
+
+    static final String FORWARDED_HEADER = "X-Forwarded-By-Node";
+    static final String SECRET_HEADER = "X-Cluster-Secret";
+
+    private static final LongAdder ANSWERED = Metrics.counter("bank_cluster_requests_total",
+            "Requests sent to other nodes by outcome", "outcome", "answered");
+    private static final LongAdder UNAVAILABLE = Metrics.counter("bank_cluster_requests_total",
+            "Requests sent to other nodes by outcome", "outcome", "unavailable");
+
+    private final List<String> nodes;
+    private final String localNode;
+    private final byte[] secret;
+    private final Duration timeout;
+    private final HttpClient http;
+
+    ClusterClient(ClusterConfig config) {
+        if (config.getSecret() == null || config.getSecret().isEmpty()) {
+            throw new IllegalArgumentException("A cluster needs cluster.secret to authenticate calls between its nodes");
+        }
+        this.nodes = config.getNodes();
+        this.secret = config.getSecret().getBytes(StandardCharsets.UTF_8);
+        this.localNode = String.valueOf(config.getNodeId());
+        this.timeout = Duration.ofMillis(config.getRequestTimeoutMillis());
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+    }
+
+    BankOperationResultDto get(int node, String pathAndQuery) {
+        return send(node, request(node, pathAndQuery).GET());
+    }
+
+    BankOperationResultDto post(int node, String pathAndQuery, byte[] body, String idempotencyKey) {
+        HttpRequest.Builder request = request(node, pathAndQuery)
+                .header("Content-Type", "application/json")
+                .POST(body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body));
+        if (idempotencyKey != null) {
+            request.header(BankAccountFacadeImpl.IDEMPOTENCY_KEY_HEADER, idempotencyKey);
+        }
+        return send(node, request);
+    }
+
+    private HttpRequest.Builder request(int node, String pathAndQuery) {
+        return HttpRequest.newBuilder(URI.create(nodes.get(node) + pathAndQuery))
+                .timeout(timeout)
+                .header(FORWARDED_HEADER, localNode)
+                .header(SECRET_HEADER, new String(secret, StandardCharsets.UTF_8));
+    }
+
+    // compares in constant time, so the secret can not be guessed byte by byte from response times
+    boolean isPeer(String presentedSecret) {
+        return presentedSecret != null && MessageDigest.isEqual(secret, presentedSecret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private BankOperationResultDto send(int node, HttpRequest.Builder request) {
+        try {
+            HttpResponse<byte[]> response = http.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            BankOperationResultDto result = Json.MAPPER.readValue(response.body(), BankOperationResultDto.class);
+            ANSWERED.increment();
+            return result;
+        } catch (IOException e) {
+            UNAVAILABLE.increment();
+            throw new NodeUnavailableException(format("Node %d at %s did not answer", node, nodes.get(node)), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NodeUnavailableException(format("Interrupted while calling node %d", node), e);
+        }
+    }
+
+    /**
+     * Turns an error another node answered with back into the exception that produces the same error here.
+     */
+    static RuntimeException exceptionOf(ErrorDto error) {
+        switch (error.getCode()) {
+            case ACCOUNT_NOT_FOUND:
+                return new BankAccountNotFountException(error.getMessage());
+            case MONEY_OPERATION_REJECTED:
+                return new MoneyOperationException(error.getMessage());
+            case BAD_REQUEST:
+                return new IllegalArgumentException(error.getMessage());
+            case CONFLICT:
+                return new ConcurrentUpdateException(error.getMessage());
+            case FORBIDDEN:
+                return new PeerRejectedException(error.getMessage());
+            case TOO_MANY_REQUESTS:
+                return new AdmissionRejectedException(error.getMessage());
+            case UNAVAILABLE:
+                return new NodeUnavailableException(error.getMessage(), null);
+            case NOT_SUPPORTED:
+                return new UnsupportedOperationException(error.getMessage());
+            default:
+                return new IllegalStateException(error.getMessage());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Nodes of a partitioned deployment, listed by base URL; a node's id is its position in the list,
+ * so every node must be started with the same list. A list of fewer than two nodes means a single node.
+ */
+@Data
+@Builder
+public class ClusterConfig {
+
+    @Builder.Default
+    private List<String> nodes = Collections.emptyList();
+    @Builder.Default
+    private int nodeId = 0;
+    @Builder.Default
+    private long requestTimeoutMillis = 5000;
+    @Builder.Default
+    private long outboxRetryMillis = 1000;
+    @Builder.Default
+    private int outboxBatchSize = 100;
+    // an undelivered credit is retried for this long; the destination must remember it was applied for longer
+    @Builder.Default
+    private long outboxRetryHorizonMillis = 12 * 60 * 60 * 1000L;
+    @Builder.Default
+    private long inboxRetentionMillis = 24 * 60 * 60 * 1000L;
+    // shared by all nodes; only a caller that presents it may credit accounts through the internal routes
+    @Builder.Default
+    private String secret = "";
+
+    public boolean isEnabled() {
+        return nodes.size() > 1;
+    }
+
+    public static ClusterConfig fromSystemProperties() {
+        String nodes = SystemProperties.getString("cluster.nodes", "");
+        return ClusterConfig.builder()
+                .nodes(nodes.isEmpty() ? Collections.emptyList() : Arrays.stream(nodes.split(","))
+                        .map(String::trim)
+                        .collect(Collectors.toList()))
+                .nodeId(SystemProperties.getInt("cluster.nodeId", 0))
+                .requestTimeoutMillis(SystemProperties.getLong("cluster.requestTimeoutMillis", 5000))
+                .outboxRetryMillis(SystemProperties.getLong("cluster.outboxRetryMillis", 1000))
+                .outboxBatchSize(SystemProperties.getInt("cluster.outboxBatchSize", 100))
+                .outboxRetryHorizonMillis(SystemProperties.getLong("cluster.outboxRetryHorizonMillis", 12 * 60 * 60 * 1000L))
+                .inboxRetentionMillis(SystemProperties.getLong("cluster.inboxRetentionMillis", 24 * 60 * 60 * 1000L))
+                .secret(SystemProperties.getString("cluster.secret", ""))
+                .build();
+    }
+}
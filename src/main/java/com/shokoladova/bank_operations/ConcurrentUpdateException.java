@@ -0,0 +1,8 @@
+package com.shokoladova.bank_operations;
+
+public class ConcurrentUpdateException extends RuntimeException {
+
+    public ConcurrentUpdateException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,114 @@
+package com.shokoladova.bank_operations;
+
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.jdbc.JdbcPooledConnectionSource;
+import com.j256.ormlite.logger.Logger;
+import com.j256.ormlite.support.DatabaseConnection;
+
+import java.sql.SQLException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.String.format;
+
+public class ConnectionPool extends JdbcPooledConnectionSource {
+
+    private final int maxConnections;
+    private final long acquireTimeoutMillis;
+    private final Semaphore permits;
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public ConnectionPool(ConnectionPoolConfig config) throws SQLException {
+        super(config.getUrl());
+        this.maxConnections = config.getMaxConnections();
+        this.acquireTimeoutMillis = config.getAcquireTimeoutMillis();
+        this.permits = new Semaphore(maxConnections, true);
+        setMaxConnectionsFree(config.getMaxIdle());
+        setMaxConnectionAgeMillis(config.getMaxConnectionAgeMillis());
+        setCheckConnectionsEveryMillis(config.getCheckConnectionsEveryMillis());
+    }
+
+    @Override
+    public DatabaseConnection getReadOnlyConnection() throws SQLException {
+        return getReadWriteConnection();
+    }
+
+    @Override
+    public DatabaseConnection getReadWriteConnection() throws SQLException {
+        // the connection of a running transaction already holds a permit
+        DatabaseConnection saved = getSavedConnection();
+        if (saved != null) {
+            return saved;
+        }
+        acquirePermit();
+        try {
+            DatabaseConnection connection = super.getReadWriteConnection();
+            active.incrementAndGet();
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void releaseConnection(DatabaseConnection connection) throws SQLException {
+        if (isSavedConnection(connection)) {
+            return;
+        }
+        try {
+            super.releaseConnection(connection);
+        } finally {
+            active.decrementAndGet();
+            permits.release();
+        }
+    }
+
+    @Override
+    protected DatabaseConnection makeConnection(Logger logger) throws SQLException {
+        // pooled connections keep their prepared statements across checkouts
+        return new StatementCachingConnection(((JdbcDatabaseConnection) super.makeConnection(logger)).getInternalConnection());
+    }
+
+    public ConnectionPoolStatsDto getStats() {
+        return ConnectionPoolStatsDto.builder()
+                .maxConnections(maxConnections)
+                .active(active.get())
+                .idle(getCurrentConnectionsFree())
+                .waiting(permits.getQueueLength())
+                .maxEverUsed(getMaxConnectionsEverUsed())
+                .opened(getOpenCount())
+                .closed(getCloseCount())
+                .acquired(acquired.sum())
+                .timeouts(timeouts.sum())
+                .totalWaitMicros(TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.sum()))
+                .maxWaitMicros(TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()))
+                .build();
+    }
+
+    private void acquirePermit() throws SQLException {
+        long start = System.nanoTime();
+        boolean granted;
+        try {
+            granted = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        if (!granted) {
+            timeouts.increment();
+            throw new SQLException(format("Could not get a database connection within %d ms", acquireTimeoutMillis));
+        }
+        acquired.increment();
+    }
+}
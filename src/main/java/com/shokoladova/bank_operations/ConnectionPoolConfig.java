@@ -0,0 +1,40 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class ConnectionPoolConfig {
+
+    static final String DEFAULT_URL = "jdbc:h2:mem:revolutDemo;DB_CLOSE_DELAY=-1";
+
+    @Builder.Default
+    private String url = DEFAULT_URL;
+    @Builder.Default
+    private int maxConnections = 32;
+    @Builder.Default
+    private int maxIdle = 8;
+    @Builder.Default
+    private long maxConnectionAgeMillis = 30 * 60 * 1000L;
+    @Builder.Default
+    private long checkConnectionsEveryMillis = 30 * 1000L;
+    @Builder.Default
+    private long acquireTimeoutMillis = 5000L;
+
+    // an in-memory database keeps only what the write-ahead log replays across a restart
+    public boolean isInMemory() {
+        return url.startsWith("jdbc:h2:mem:");
+    }
+
+    public static ConnectionPoolConfig fromSystemProperties() {
+        return ConnectionPoolConfig.builder()
+                .url(SystemProperties.getString("db.url", DEFAULT_URL))
+                .maxConnections(SystemProperties.getInt("db.pool.maxConnections", 32))
+                .maxIdle(SystemProperties.getInt("db.pool.maxIdle", 8))
+                .maxConnectionAgeMillis(SystemProperties.getLong("db.pool.maxConnectionAgeMillis", 30 * 60 * 1000L))
+                .checkConnectionsEveryMillis(SystemProperties.getLong("db.pool.checkConnectionsEveryMillis", 30 * 1000L))
+                .acquireTimeoutMillis(SystemProperties.getLong("db.pool.acquireTimeoutMillis", 5000L))
+                .build();
+    }
+}
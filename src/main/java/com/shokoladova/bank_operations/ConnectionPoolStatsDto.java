@@ -0,0 +1,21 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class ConnectionPoolStatsDto {
+
+    private int maxConnections;
+    private int active;
+    private int idle;
+    private int waiting;
+    private int maxEverUsed;
+    private long opened;
+    private long closed;
+    private long acquired;
+    private long timeouts;
+    private long totalWaitMicros;
+    private long maxWaitMicros;
+}
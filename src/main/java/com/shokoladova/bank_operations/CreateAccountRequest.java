@@ -0,0 +1,12 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class CreateAccountRequest {
+
+    private String cardholderName;
+    private long balance;
+}
@@ -0,0 +1,371 @@
+package com.shokoladova.bank_operations;
+
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Keeps the in-memory database recoverable: committed balance changes go to a {@link WriteAheadLog},
+ * and all balances are periodically written to a snapshot, so a restart only replays the balances logged since.
+ * <p>
+ * Every log record carries the absolute balance and is appended while the account's stripe is still held,
+ * so per account the log order is the commit order. That makes replay idempotent: a snapshot scanned
+ * while writes go on is still correct once every segment from the rotation point onwards is replayed over it.
+ * <p>
+ * The log is also the account history: every segment is kept, and an empty JOURNAL table is rebuilt from all of
+ * them in log order, which per account is the order the entries were committed in. The rebuilt entries get new ids,
+ * so a history cursor handed out before the restart does not carry over. Disk use grows with the history, as the
+ * in-memory JOURNAL table does.
+ */
+@Slf4j
+class DurableStore implements AutoCloseable {
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final int BATCH_SIZE = 10_000;
+
+    private final ConnectionSource connectionSource;
+    private final Path dir;
+    private final boolean fsync;
+    private final long snapshotIntervalMillis;
+    private WriteAheadLog wal;
+    private ScheduledExecutorService scheduler;
+
+    DurableStore(ConnectionSource connectionSource, BankAccountServiceConfig config) {
+        this.connectionSource = connectionSource;
+        this.dir = Paths.get(config.getPersistenceDir());
+        this.fsync = config.isPersistenceFsync();
+        this.snapshotIntervalMillis = config.getSnapshotIntervalMillis();
+    }
+
+    void recover() throws Exception {
+        Files.createDirectories(dir);
+        long started = System.nanoTime();
+        long replayFrom = 0;
+        long accounts = 0;
+        List<Long> snapshots = snapshots();
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            Path snapshot = snapshotPath(snapshots.get(i));
+            AccountLoader loader = new AccountLoader();
+            try {
+                replayFrom = AccountSnapshotFile.read(snapshot, (id, name, balance) -> loader.put(id, name, balance, true));
+            } catch (IOException e) {
+                log.warn("Skipping unreadable snapshot {}", snapshot, e);
+                continue;
+            } finally {
+                loader.close();
+            }
+            accounts = loader.getLoaded();
+            break;
+        }
+        long snapshotLoaded = System.nanoTime();
+
+        long records = 0;
+        long historyEntries = 0;
+        long nextSegment = replayFrom;
+        boolean rebuildHistory = isHistoryEmpty();
+        try (AccountLoader loader = new AccountLoader();
+             HistoryLoader history = rebuildHistory ? new HistoryLoader() : null) {
+            for (long segment : WriteAheadLog.segments(dir)) {
+                boolean replayBalances = segment >= replayFrom;
+                if (!replayBalances && history == null) {
+                    continue;
+                }
+                long replayedRecords = LedgerJournal.replay(WriteAheadLog.segmentPath(dir, segment), record -> {
+                    try {
+                        if (history != null) {
+                            history.add(record);
+                        }
+                        if (replayBalances) {
+                            loader.put(record.getAccountId(), record.getCardholderName(), record.getBalanceAfter(),
+                                    record.getType() == LedgerRecordType.CREATE);
+                        }
+                    } catch (SQLException e) {
+                        throw new IllegalStateException("Could not replay the write-ahead log", e);
+                    }
+                });
+                if (replayBalances) {
+                    records += replayedRecords;
+                }
+                if (history != null) {
+                    historyEntries += replayedRecords;
+                }
+                nextSegment = Math.max(nextSegment, segment + 1);
+            }
+        }
+        long replayed = System.nanoTime();
+        wal = new WriteAheadLog(dir, nextSegment, fsync);
+
+        long replayMillis = TimeUnit.NANOSECONDS.toMillis(replayed - snapshotLoaded);
+        log.info("Loaded {} accounts from snapshot in {} ms, replayed {} log records and {} history entries in {} ms, ready in {} ms",
+                accounts, TimeUnit.NANOSECONDS.toMillis(snapshotLoaded - started),
+                records, historyEntries, replayMillis, TimeUnit.NANOSECONDS.toMillis(replayed - started));
+    }
+
+    void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (Exception e) {
+                log.error("Snapshot failed", e);
+            }
+        }, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    long append(List<LedgerRecord> records) {
+        return wal.append(records);
+    }
+
+    void awaitDurable(long sequence) {
+        wal.awaitDurable(sequence);
+    }
+
+    synchronized void snapshot() throws IOException, SQLException {
+        long started = System.nanoTime();
+        long replayFrom = wal.rotate();
+        Path snapshot = snapshotPath(replayFrom);
+        Path temporary = dir.resolve(snapshot.getFileName() + ".tmp");
+        Files.deleteIfExists(temporary);
+        long accounts;
+        try (AccountSnapshotFile.Writer writer = AccountSnapshotFile.create(temporary, replayFrom)) {
+            scanAccounts(writer);
+            accounts = writer.getAccounts();
+        }
+        Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE);
+
+        // older segments stay: they are the account history
+        for (long older : snapshots()) {
+            if (older < replayFrom) {
+                Files.delete(snapshotPath(older));
+            }
+        }
+        log.info("Wrote snapshot of {} accounts in {} ms", accounts, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        if (wal != null) {
+            wal.close();
+        }
+    }
+
+    private void scanAccounts(AccountSnapshotFile.Writer writer) throws SQLException, IOException {
+        DatabaseConnection databaseConnection = connectionSource.getReadOnlyConnection();
+        Connection connection = ((JdbcDatabaseConnection) databaseConnection).getInternalConnection();
+        try (PreparedStatement first = connection.prepareStatement(
+                "SELECT ID, CARDHOLDERNAME, BALANCE FROM ACCOUNT ORDER BY ID LIMIT ?");
+             PreparedStatement next = connection.prepareStatement(
+                     "SELECT ID, CARDHOLDERNAME, BALANCE FROM ACCOUNT WHERE ID > ? ORDER BY ID LIMIT ?")) {
+            UUID lastId = null;
+            int read;
+            do {
+                PreparedStatement statement = lastId == null ? first : next;
+                int index = 1;
+                if (lastId != null) {
+                    statement.setObject(index++, lastId);
+                }
+                statement.setInt(index, BATCH_SIZE);
+                read = 0;
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        lastId = resultSet.getObject(1, UUID.class);
+                        writer.append(lastId, resultSet.getString(2), resultSet.getLong(3));
+                        read++;
+                    }
+                }
+            } while (read == BATCH_SIZE);
+        } finally {
+            connectionSource.releaseConnection(databaseConnection);
+        }
+    }
+
+    // a file-backed database kept its JOURNAL table across the restart and must not get the entries twice
+    private boolean isHistoryEmpty() throws SQLException {
+        DatabaseConnection databaseConnection = connectionSource.getReadOnlyConnection();
+        Connection connection = ((JdbcDatabaseConnection) databaseConnection).getInternalConnection();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM JOURNAL LIMIT 1");
+             ResultSet resultSet = statement.executeQuery()) {
+            return !resultSet.next();
+        } finally {
+            connectionSource.releaseConnection(databaseConnection);
+        }
+    }
+
+    private List<Long> snapshots() throws IOException {
+        List<Long> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                snapshots.add(Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+
+    private Path snapshotPath(long replayFrom) {
+        return dir.resolve(format("%s%016d%s", SNAPSHOT_PREFIX, replayFrom, SNAPSHOT_SUFFIX));
+    }
+
+    /**
+     * Collapses the recovered states of an account into its latest one and writes them in JDBC batches.
+     */
+    private class AccountLoader implements AutoCloseable {
+
+        private final DatabaseConnection databaseConnection;
+        private final Connection connection;
+        private final Map<UUID, LoadedAccount> pending = new LinkedHashMap<>();
+        private long loaded;
+
+        AccountLoader() throws SQLException {
+            databaseConnection = connectionSource.getReadWriteConnection();
+            connection = ((JdbcDatabaseConnection) databaseConnection).getInternalConnection();
+            connection.setAutoCommit(false);
+        }
+
+        void put(UUID id, String cardholderName, long balance, boolean created) throws SQLException {
+            LoadedAccount account = pending.get(id);
+            if (account == null || created) {
+                pending.put(id, new LoadedAccount(cardholderName, balance, created));
+            } else {
+                account.balance = balance;
+            }
+            if (pending.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        long getLoaded() {
+            return loaded;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                flush();
+            } finally {
+                connection.setAutoCommit(true);
+                connectionSource.releaseConnection(databaseConnection);
+            }
+        }
+
+        private void flush() throws SQLException {
+            try (PreparedStatement merge = connection.prepareStatement(
+                    "MERGE INTO ACCOUNT (ID, CARDHOLDERNAME, BALANCE) KEY (ID) VALUES (?, ?, ?)");
+                 PreparedStatement update = connection.prepareStatement("UPDATE ACCOUNT SET BALANCE=? WHERE ID=?")) {
+                for (Map.Entry<UUID, LoadedAccount> entry : pending.entrySet()) {
+                    LoadedAccount account = entry.getValue();
+                    if (account.created) {
+                        merge.setObject(1, entry.getKey());
+                        merge.setString(2, account.cardholderName);
+                        merge.setLong(3, account.balance);
+                        merge.addBatch();
+                    } else {
+                        update.setLong(1, account.balance);
+                        update.setObject(2, entry.getKey());
+                        update.addBatch();
+                    }
+                }
+                merge.executeBatch();
+                update.executeBatch();
+                connection.commit();
+            }
+            loaded += pending.size();
+            pending.clear();
+        }
+    }
+
+    /**
+     * Inserts replayed log records into the JOURNAL table in JDBC batches, in the order they come.
+     */
+    private class HistoryLoader implements AutoCloseable {
+
+        private final DatabaseConnection databaseConnection;
+        private final Connection connection;
+        private final PreparedStatement insert;
+        private int pending;
+
+        HistoryLoader() throws SQLException {
+            databaseConnection = connectionSource.getReadWriteConnection();
+            connection = ((JdbcDatabaseConnection) databaseConnection).getInternalConnection();
+            connection.setAutoCommit(false);
+            insert = connection.prepareStatement("INSERT INTO JOURNAL (ACCOUNTID, TYPE, AMOUNT, BALANCEAFTER, COUNTERPARTYID, "
+                    + "TRANSFERID, CREATEDAT) VALUES (?, ?, ?, ?, ?, ?, ?)");
+        }
+
+        void add(LedgerRecord record) throws SQLException {
+            insert.setObject(1, record.getAccountId());
+            insert.setInt(2, record.getType().code());
+            insert.setLong(3, record.getAmount());
+            insert.setLong(4, record.getBalanceAfter());
+            insert.setObject(5, record.getCounterpartyId());
+            insert.setObject(6, record.getTransferId());
+            insert.setLong(7, record.getCreatedAt());
+            insert.addBatch();
+            if (++pending >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                flush();
+                insert.close();
+            } finally {
+                connection.setAutoCommit(true);
+                connectionSource.releaseConnection(databaseConnection);
+            }
+        }
+
+        private void flush() throws SQLException {
+            insert.executeBatch();
+            connection.commit();
+            pending = 0;
+        }
+    }
+
+    private static class LoadedAccount {
+        private final String cardholderName;
+        private final boolean created;
+        private long balance;
+
+        LoadedAccount(String cardholderName, long balance, boolean created) {
+            this.cardholderName = cardholderName;
+            this.balance = balance;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.shokoladova.bank_operations;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.sql.SQLException;
+
+public enum ErrorCode {
+
+    BAD_REQUEST(400),
+    FORBIDDEN(403),
+    ACCOUNT_NOT_FOUND(404),
+    CONFLICT(409),
+    MONEY_OPERATION_REJECTED(422),
+    TOO_MANY_REQUESTS(429),
+    NOT_SUPPORTED(501),
+    UNAVAILABLE(503),
+    INTERNAL_ERROR(500);
+
+    private final int httpStatus;
+
+    ErrorCode(int httpStatus) {
+        this.httpStatus = httpStatus;
+    }
+
+    public int httpStatus() {
+        return httpStatus;
+    }
+
+    static ErrorCode of(Throwable e) {
+        if (e instanceof BankAccountNotFountException) {
+            return ACCOUNT_NOT_FOUND;
+        }
+        if (e instanceof MoneyOperationException) {
+            return MONEY_OPERATION_REJECTED;
+        }
+        if (e instanceof ConcurrentUpdateException) {
+            return CONFLICT;
+        }
+        if (e instanceof AdmissionRejectedException) {
+            return TOO_MANY_REQUESTS;
+        }
+        if (e instanceof IllegalArgumentException || e instanceof JsonProcessingException) {
+            return BAD_REQUEST;
+        }
+        if (e instanceof PeerRejectedException) {
+            return FORBIDDEN;
+        }
+        if (e instanceof NodeUnavailableException) {
+            return UNAVAILABLE;
+        }
+        if (e instanceof UnsupportedOperationException) {
+            return NOT_SUPPORTED;
+        }
+        return INTERNAL_ERROR;
+    }
+
+    // ORMLite wraps whatever a transaction callable throws into an SQLException
+    static Throwable rootOf(Throwable e) {
+        Throwable cause = e;
+        while (cause instanceof SQLException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
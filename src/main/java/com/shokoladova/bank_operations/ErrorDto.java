@@ -0,0 +1,20 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class ErrorDto {
+
+    private ErrorCode code;
+    private String message;
+
+    static ErrorDto of(Exception e) {
+        Throwable cause = ErrorCode.rootOf(e);
+        return ErrorDto.builder()
+                .code(ErrorCode.of(cause))
+                .message(cause.getMessage())
+                .build();
+    }
+}
@@ -0,0 +1,16 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class GroupCommitStatsDto {
+
+    private boolean enabled;
+    private int queued;
+    private long batches;
+    private long failedBatches;
+    private HistogramSnapshotDto batchSize;
+    private HistogramSnapshotDto commitMicros;
+}
@@ -0,0 +1,117 @@
+package com.shokoladova.bank_operations;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Queues balance changes and commits them in groups on a background thread.
+ * A group is flushed once it holds maxBatchSize changes or maxDelayMicros after its first change arrived.
+ */
+@Slf4j
+class GroupCommitter implements AutoCloseable {
+
+    private final BlockingQueue<BalanceChange> queue;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BatchHandler handler;
+    private final Thread committer;
+    private final Histogram batchSizes = new Histogram();
+    private final Histogram commitMicros = new Histogram();
+    private final LongAdder failedBatches = new LongAdder();
+    private volatile boolean running = true;
+
+    GroupCommitter(int maxBatchSize, long maxDelayMicros, int queueCapacity, BatchHandler handler) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.handler = handler;
+        this.committer = new Thread(this::run, "group-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    CompletableFuture<BankAccount> submit(BalanceChange change) {
+        if (!running || !queue.offer(change)) {
+            change.getResult().completeExceptionally(new RejectedExecutionException("Group commit queue is full"));
+        }
+        return change.getResult();
+    }
+
+    GroupCommitStatsDto getStats() {
+        return GroupCommitStatsDto.builder()
+                .enabled(true)
+                .queued(queue.size())
+                .batches(batchSizes.getCount())
+                .failedBatches(failedBatches.sum())
+                .batchSize(batchSizes.snapshot())
+                .commitMicros(commitMicros.snapshot())
+                .build();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        committer.join();
+    }
+
+    private void run() {
+        List<BalanceChange> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                BalanceChange first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                collect(batch, System.nanoTime() + maxDelayNanos);
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void collect(List<BalanceChange> batch, long deadline) throws InterruptedException {
+        while (batch.size() < maxBatchSize) {
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= maxBatchSize || remaining <= 0) {
+                return;
+            }
+            BalanceChange next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void commit(List<BalanceChange> batch) {
+        long start = System.nanoTime();
+        try {
+            handler.commit(batch);
+        } catch (Exception e) {
+            log.error("Group commit of {} balance changes failed", batch.size(), e);
+            failedBatches.increment();
+            batch.forEach(change -> change.getResult().completeExceptionally(e));
+        } finally {
+            batchSizes.record(batch.size());
+            commitMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
+    }
+
+    interface BatchHandler {
+        void commit(List<BalanceChange> batch) throws Exception;
+    }
+}
@@ -0,0 +1,142 @@
+package com.shokoladova.bank_operations;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free log-linear histogram of non-negative longs. Values below 16 are counted exactly,
+ * larger ones fall into 16 sub-buckets per power of two, which bounds the relative error at about 6%.
+ * Percentiles cover the last minute only, kept as six ten-second slices that are reused as time moves on;
+ * count, sum and max are cumulative since the histogram was created.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private static final int WINDOW_SLICES = 6;
+    private static final long SLICE_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final AtomicLongArray[] slices = new AtomicLongArray[WINDOW_SLICES];
+    private final AtomicLongArray sliceEpochs = new AtomicLongArray(WINDOW_SLICES);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    private final LongSupplier nanoClock;
+
+    public Histogram() {
+        this(System::nanoTime);
+    }
+
+    Histogram(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        for (int slice = 0; slice < WINDOW_SLICES; slice++) {
+            slices[slice] = new AtomicLongArray(BUCKETS);
+            sliceEpochs.set(slice, Long.MIN_VALUE);
+        }
+    }
+
+    public void record(long value) {
+        long v = Math.max(0, value);
+        currentSlice().incrementAndGet(bucketOf(v));
+        count.increment();
+        sum.add(v);
+        if (v > max.get()) {
+            max.accumulateAndGet(v, Math::max);
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        long oldestEpoch = epochOf(nanoClock.getAsLong()) - WINDOW_SLICES;
+        for (int slice = 0; slice < WINDOW_SLICES; slice++) {
+            if (sliceEpochs.get(slice) <= oldestEpoch) {
+                continue;
+            }
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                long sliceCount = slices[slice].get(bucket);
+                snapshot[bucket] += sliceCount;
+                total += sliceCount;
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += snapshot[bucket];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(bucket), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public HistogramSnapshotDto snapshot() {
+        long snapshotCount = getCount();
+        long snapshotSum = getSum();
+        return HistogramSnapshotDto.builder()
+                .count(snapshotCount)
+                .sum(snapshotSum)
+                .max(getMax())
+                .mean(snapshotCount == 0 ? 0 : (double) snapshotSum / snapshotCount)
+                .p50(getValueAtPercentile(50))
+                .p90(getValueAtPercentile(90))
+                .p99(getValueAtPercentile(99))
+                .p999(getValueAtPercentile(99.9))
+                .build();
+    }
+
+    // the first recorder of a new ten seconds wipes the slice it takes over; values racing with the wipe may be lost
+    private AtomicLongArray currentSlice() {
+        long epoch = epochOf(nanoClock.getAsLong());
+        int slice = (int) Math.floorMod(epoch, WINDOW_SLICES);
+        long sliceEpoch = sliceEpochs.get(slice);
+        if (sliceEpoch < epoch && sliceEpochs.compareAndSet(slice, sliceEpoch, epoch)) {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                slices[slice].set(bucket, 0);
+            }
+        }
+        return slices[slice];
+    }
+
+    private static long epochOf(long nanos) {
+        return Math.floorDiv(nanos, SLICE_NANOS);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long lower = (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
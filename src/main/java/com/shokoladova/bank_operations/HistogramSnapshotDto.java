@@ -0,0 +1,18 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class HistogramSnapshotDto {
+
+    private long count;
+    private long sum;
+    private long max;
+    private double mean;
+    private long p50;
+    private long p90;
+    private long p99;
+    private long p999;
+}
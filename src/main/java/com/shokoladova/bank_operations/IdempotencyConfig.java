@@ -0,0 +1,21 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class IdempotencyConfig {
+
+    @Builder.Default
+    private int maxEntries = 200_000;
+    @Builder.Default
+    private long ttlMillis = 10 * 60 * 1000L;
+
+    public static IdempotencyConfig fromSystemProperties() {
+        return IdempotencyConfig.builder()
+                .maxEntries(SystemProperties.getInt("idempotency.maxEntries", 200_000))
+                .ttlMillis(SystemProperties.getLong("idempotency.ttlMillis", 10 * 60 * 1000L))
+                .build();
+    }
+}
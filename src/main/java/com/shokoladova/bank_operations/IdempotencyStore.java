@@ -0,0 +1,146 @@
+package com.shokoladova.bank_operations;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the result of every operation sent with an idempotency key, so a retried request gets the
+ * first answer instead of moving money again. A retry that arrives while the first attempt is still
+ * running waits for it.
+ * <p>
+ * Every entry lives for the same TTL, so insertion order is expiry order: expired entries are dropped
+ * from the head of a FIFO queue as new keys come in, and the oldest ones go early once the store is full.
+ * Internal errors, lost optimistic conflicts and unreachable nodes are not remembered, so such a request can be retried for real.
+ * <p>
+ * Each entry keeps a digest of the request it answered. A key sent again with a different account, amount or
+ * transfer is rejected as a bad request instead of getting the answer meant for the first one.
+ */
+class IdempotencyStore {
+
+    private static final LongAdder HITS = Metrics.counter("bank_idempotency_requests_total",
+            "Requests with an idempotency key by outcome", "outcome", "replayed");
+    private static final LongAdder MISSES = Metrics.counter("bank_idempotency_requests_total",
+            "Requests with an idempotency key by outcome", "outcome", "executed");
+    private static final LongAdder MISMATCHES = Metrics.counter("bank_idempotency_requests_total",
+            "Requests with an idempotency key by outcome", "outcome", "mismatched");
+    private static final LongAdder EVICTED_EARLY = Metrics.counter("bank_idempotency_evictions_total",
+            "Idempotency keys dropped before their TTL because the store was full");
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> expiryQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    IdempotencyStore(IdempotencyConfig config) {
+        this.maxEntries = config.getMaxEntries();
+        this.ttlMillis = config.getTtlMillis();
+    }
+
+    /**
+     * @param fingerprint what the request asks for, e.g. the account and the amount; a retry must send the same
+     */
+    BankOperationResultDto execute(String key, String fingerprint, Supplier<BankOperationResultDto> operation) {
+        if (key == null) {
+            return operation.get();
+        }
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(key, digest(fingerprint), now + ttlMillis);
+        while (true) {
+            Entry existing = entries.putIfAbsent(key, entry);
+            if (existing == null) {
+                break;
+            }
+            if (existing.expiresAt > now) {
+                if (!Arrays.equals(existing.fingerprint, entry.fingerprint)) {
+                    MISMATCHES.increment();
+                    return BankOperationResultDto.builder()
+                            .status(OperationStatus.NE_OK)
+                            .error(ErrorDto.of(new IllegalArgumentException(
+                                    "Idempotency key " + key + " was already used for a different request")))
+                            .build();
+                }
+                BankOperationResultDto replayed = existing.result.join();
+                if (replayed != null) {
+                    HITS.increment();
+                    return replayed;
+                }
+                // the first attempt threw and has already been forgotten
+                continue;
+            }
+            if (entries.replace(key, existing, entry)) {
+                break;
+            }
+        }
+        MISSES.increment();
+        expiryQueue.add(entry);
+        queued.incrementAndGet();
+        evict(now);
+
+        BankOperationResultDto result = null;
+        try {
+            result = operation.get();
+            return result;
+        } finally {
+            if (result == null || result.getError() != null && isRetryable(result.getError().getCode())) {
+                entries.remove(key, entry);
+            }
+            entry.result.complete(result);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void evict(long now) {
+        while (true) {
+            Entry head = expiryQueue.peek();
+            boolean full = queued.get() > maxEntries;
+            if (head == null || !full && head.expiresAt > now) {
+                return;
+            }
+            head = expiryQueue.poll();
+            if (head == null) {
+                return;
+            }
+            queued.decrementAndGet();
+            if (entries.remove(head.key, head) && head.expiresAt > now) {
+                EVICTED_EARLY.increment();
+            }
+        }
+    }
+
+    private static byte[] digest(String fingerprint) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(String.valueOf(fingerprint).getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isRetryable(ErrorCode code) {
+        return code == ErrorCode.INTERNAL_ERROR || code == ErrorCode.CONFLICT || code == ErrorCode.UNAVAILABLE;
+    }
+
+    private static class Entry {
+        private final String key;
+        private final byte[] fingerprint;
+        private final long expiresAt;
+        private final CompletableFuture<BankOperationResultDto> result = new CompletableFuture<>();
+
+        Entry(String key, byte[] fingerprint, long expiresAt) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.shokoladova.bank_operations;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+/**
+ * A cross-node credit that has been applied; redeliveries of the same transfer id are ignored.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@DatabaseTable(tableName = "INBOX")
+public class InboxEntry {
+
+    @DatabaseField(id = true, columnDefinition = "UUID")
+    private UUID transferId;
+
+    @DatabaseField
+    private long createdAt;
+}
@@ -0,0 +1,110 @@
+package com.shokoladova.bank_operations;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and times every call of the wrapped {@link BankAccountService}, whichever engine it is.
+ */
+public class InstrumentedBankAccountService implements BankAccountService {
+
+    private final BankAccountService delegate;
+    private final Call create = new Call("create");
+    private final Call createBatch = new Call("createBatch");
+    private final Call get = new Call("get");
+    private final Call withdraw = new Call("withdraw");
+    private final Call deposit = new Call("deposit");
+    private final Call transfer = new Call("transfer");
+    private final Call transferBatch = new Call("transferBatch");
+    private final Call transferIn = new Call("transferIn");
+    private final Call history = new Call("history");
+    private final Call search = new Call("search");
+
+    public InstrumentedBankAccountService(BankAccountService delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public BankAccount create(String cardholderName, long initialBalance) throws SQLException {
+        return create.time(() -> delegate.create(cardholderName, initialBalance));
+    }
+
+    @Override
+    public List<BankAccount> createBatch(List<CreateAccountRequest> requests) throws SQLException {
+        return createBatch.time(() -> delegate.createBatch(requests));
+    }
+
+    @Override
+    public BankAccount get(UUID id) throws SQLException {
+        return get.time(() -> delegate.get(id));
+    }
+
+    @Override
+    public BankAccount withdraw(UUID id, long amount) throws SQLException {
+        return withdraw.time(() -> delegate.withdraw(id, amount));
+    }
+
+    @Override
+    public BankAccount deposit(UUID id, long amount) throws SQLException {
+        return deposit.time(() -> delegate.deposit(id, amount));
+    }
+
+    @Override
+    public boolean transfer(TransferRequest transferRequest) throws SQLException {
+        return transfer.time(() -> delegate.transfer(transferRequest));
+    }
+
+    @Override
+    public List<TransferResult> transferBatch(List<TransferRequest> transferRequests) throws SQLException {
+        return transferBatch.time(() -> delegate.transferBatch(transferRequests));
+    }
+
+    @Override
+    public boolean transferIn(UUID transferId, UUID sourceId, UUID destinationId, long amount) throws SQLException {
+        return transferIn.time(() -> delegate.transferIn(transferId, sourceId, destinationId, amount));
+    }
+
+    @Override
+    public List<JournalEntry> history(UUID accountId, long afterEntryId, int limit) throws SQLException {
+        return history.time(() -> delegate.history(accountId, afterEntryId, limit));
+    }
+
+    @Override
+    public List<BankAccount> search(AccountSearchQuery query) throws SQLException {
+        return search.time(() -> delegate.search(query));
+    }
+
+    private interface ServiceCall<T> {
+        T call() throws SQLException;
+    }
+
+    private static class Call {
+        private final LongAdder ok;
+        private final LongAdder failed;
+        private final Histogram latency;
+
+        Call(String method) {
+            ok = Metrics.counter("bank_service_calls_total", "BankAccountService calls by outcome",
+                    "method", method, "outcome", "ok");
+            failed = Metrics.counter("bank_service_calls_total", "BankAccountService calls by outcome",
+                    "method", method, "outcome", "error");
+            latency = Metrics.summary("bank_service_call_duration_seconds", "BankAccountService call latency",
+                    "method", method);
+        }
+
+        <T> T time(ServiceCall<T> call) throws SQLException {
+            long start = System.nanoTime();
+            boolean succeeded = false;
+            try {
+                T result = call.call();
+                succeeded = true;
+                return result;
+            } finally {
+                latency.record(System.nanoTime() - start);
+                (succeeded ? ok : failed).increment();
+            }
+        }
+    }
+}
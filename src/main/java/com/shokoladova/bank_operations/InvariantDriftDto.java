@@ -0,0 +1,20 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.UUID;
+
+/**
+ * A bucket of account ids whose aggregates disagree with the table; the deltas are aggregate minus table.
+ */
+@Data
+@Builder
+public class InvariantDriftDto {
+
+    private UUID fromId;
+    private UUID toId;
+    private long accountsDelta;
+    private long balanceDelta;
+    private long detectedAt;
+}
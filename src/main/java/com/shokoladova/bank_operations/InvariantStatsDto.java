@@ -0,0 +1,27 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class InvariantStatsDto {
+
+    private boolean enabled;
+    private long totalBalance;
+    private long accounts;
+    private long openingBalance;
+    private long netInflows;
+    private long created;
+    private long deposited;
+    private long withdrawn;
+    private long transferredIn;
+    private long transferredOut;
+    private int buckets;
+    private long checks;
+    private long inconclusiveChecks;
+    private Long lastPassCompletedAt;
+    private List<InvariantDriftDto> drifts;
+}
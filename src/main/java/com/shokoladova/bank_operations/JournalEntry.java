@@ -0,0 +1,43 @@
+package com.shokoladova.bank_operations;
+
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@DatabaseTable(tableName = "JOURNAL")
+public class JournalEntry {
+
+    @DatabaseField(generatedId = true)
+    private long id;
+
+    @DatabaseField(canBeNull = false, columnDefinition = "UUID NOT NULL")
+    private UUID accountId;
+
+    @DatabaseField(canBeNull = false, dataType = DataType.ENUM_INTEGER)
+    private LedgerRecordType type;
+
+    @DatabaseField
+    private long amount;
+
+    @DatabaseField
+    private long balanceAfter;
+
+    @DatabaseField(columnDefinition = "UUID")
+    private UUID counterpartyId;
+
+    @DatabaseField(columnDefinition = "UUID")
+    private UUID transferId;
+
+    @DatabaseField
+    private long createdAt;
+}
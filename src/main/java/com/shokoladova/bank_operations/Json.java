@@ -0,0 +1,38 @@
+package com.shokoladova.bank_operations;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The one Jackson configuration of the application. Readers and writers are immutable and cache
+ * their serializers, so they are built once and shared by all requests.
+ */
+final class Json {
+
+    static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .disable(SerializationFeature.FAIL_ON_EMPTY_BEANS)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    static final ObjectReader TRANSFER_REQUEST_READER = MAPPER.readerFor(TransferRequest.class);
+
+    static final ObjectReader CREATE_ACCOUNT_REQUEST_READER = MAPPER.readerFor(CreateAccountRequest.class);
+
+    static final ObjectReader SCHEDULED_TRANSFER_REQUEST_READER = MAPPER.readerFor(ScheduledTransferRequest.class);
+
+    static final ObjectWriter RESULT_WRITER = MAPPER.writerFor(BankOperationResultDto.class);
+
+    private Json() {
+    }
+
+    static void writeResult(OutputStream out, BankOperationResultDto result) throws IOException {
+        RESULT_WRITER.writeValue(out, result);
+    }
+}
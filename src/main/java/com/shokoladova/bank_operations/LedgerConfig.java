@@ -0,0 +1,33 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class LedgerConfig {
+
+    @Builder.Default
+    private int shards = Runtime.getRuntime().availableProcessors();
+    @Builder.Default
+    private String journalDir = "ledger";
+    @Builder.Default
+    private boolean fsync = true;
+    @Builder.Default
+    private int queueCapacity = 65536;
+    @Builder.Default
+    private int maxBatch = 512;
+    @Builder.Default
+    private long handOffRetryMillis = 100;
+
+    public static LedgerConfig fromSystemProperties() {
+        return LedgerConfig.builder()
+                .shards(SystemProperties.getInt("ledger.shards", Runtime.getRuntime().availableProcessors()))
+                .journalDir(SystemProperties.getString("ledger.journalDir", "ledger"))
+                .fsync(SystemProperties.getBoolean("ledger.fsync", true))
+                .queueCapacity(SystemProperties.getInt("ledger.queueCapacity", 65536))
+                .maxBatch(SystemProperties.getInt("ledger.maxBatch", 512))
+                .handOffRetryMillis(SystemProperties.getLong("ledger.handOffRetryMillis", 100))
+                .build();
+    }
+}
@@ -0,0 +1,224 @@
+package com.shokoladova.bank_operations;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only binary journal. Every record is framed as {@code [int length][int crc32][body]},
+ * so a torn write at the tail is detected on replay and cut off.
+ * Not thread-safe: owned by a single writer.
+ */
+class LedgerJournal implements AutoCloseable {
+
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1024;
+
+    private final FileChannel channel;
+    private final boolean fsync;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final CRC32 crc = new CRC32();
+    private long appended;
+    private long flushedSize;
+    private long flushedAppended;
+
+    LedgerJournal(Path path, boolean fsync) throws IOException {
+        this.channel = FileChannel.open(path, CREATE, READ, WRITE);
+        this.fsync = fsync;
+        this.flushedSize = channel.size();
+        channel.position(flushedSize);
+    }
+
+    void append(LedgerRecord record) {
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            writeBuffer();
+        }
+        int start = buffer.position();
+        buffer.position(start + HEADER_SIZE);
+        writeBody(record);
+        int end = buffer.position();
+
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + HEADER_SIZE).limit(end);
+        crc.reset();
+        crc.update(body);
+        buffer.putInt(start, end - start - HEADER_SIZE);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        appended++;
+    }
+
+    void flush() {
+        writeBuffer();
+        sync();
+        try {
+            flushedSize = channel.position();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        flushedAppended = appended;
+    }
+
+    /**
+     * Drops every record appended since the last successful {@link #flush}, including whatever part of them already
+     * reached the file, so the journal ends where the last acknowledged batch ended.
+     */
+    void discard() {
+        buffer.clear();
+        appended = flushedAppended;
+        try {
+            channel.truncate(flushedSize);
+            channel.position(flushedSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void writeBuffer() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    void sync() {
+        if (fsync) {
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    long getAppended() {
+        return appended;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    static long replay(Path path, Consumer<LedgerRecord> consumer) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long records = 0;
+        try (FileChannel channel = FileChannel.open(path, READ, WRITE)) {
+            long size = channel.size();
+            if (size == 0) {
+                return 0;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32 crc = new CRC32();
+            int validUpTo = 0;
+            while (mapped.remaining() >= HEADER_SIZE) {
+                int length = mapped.getInt();
+                int checksum = mapped.getInt();
+                if (length <= 0 || length > mapped.remaining()) {
+                    break;
+                }
+                ByteBuffer body = mapped.slice();
+                body.limit(length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                consumer.accept(readBody(body));
+                mapped.position(mapped.position() + length);
+                validUpTo = mapped.position();
+                records++;
+            }
+            if (validUpTo < size) {
+                channel.truncate(validUpTo);
+            }
+        }
+        return records;
+    }
+
+    private void writeBody(LedgerRecord record) {
+        buffer.put(record.getType().code());
+        putUuid(record.getAccountId());
+        buffer.putLong(record.getAmount());
+        buffer.putLong(record.getBalanceAfter());
+        switch (record.getType()) {
+            case CREATE:
+                byte[] name = record.getCardholderName() == null ?
+                        null :
+                        record.getCardholderName().getBytes(StandardCharsets.UTF_8);
+                buffer.putShort(name == null ? -1 : (short) name.length);
+                if (name != null) {
+                    buffer.put(name);
+                }
+                break;
+            case TRANSFER_OUT:
+            case TRANSFER_IN:
+                putUuid(record.getCounterpartyId());
+                putUuid(record.getTransferId());
+                break;
+            default:
+                break;
+        }
+        buffer.putLong(record.getCreatedAt());
+    }
+
+    private static LedgerRecord readBody(ByteBuffer body) {
+        LedgerRecordType type = LedgerRecordType.fromCode(body.get());
+        LedgerRecord.LedgerRecordBuilder record = LedgerRecord.builder()
+                .type(type)
+                .accountId(getUuid(body))
+                .amount(body.getLong())
+                .balanceAfter(body.getLong());
+        switch (type) {
+            case CREATE:
+                short length = body.getShort();
+                if (length >= 0) {
+                    byte[] name = new byte[length];
+                    body.get(name);
+                    record.cardholderName(new String(name, StandardCharsets.UTF_8));
+                }
+                break;
+            case TRANSFER_OUT:
+            case TRANSFER_IN:
+                record.counterpartyId(getUuid(body))
+                        .transferId(getUuid(body));
+                break;
+            default:
+                break;
+        }
+        // records written before the time was journaled end here
+        if (body.remaining() >= Long.BYTES) {
+            record.createdAt(body.getLong());
+        }
+        return record.build();
+    }
+
+    private void putUuid(UUID id) {
+        buffer.putLong(id.getMostSignificantBits());
+        buffer.putLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID getUuid(ByteBuffer body) {
+        return new UUID(body.getLong(), body.getLong());
+    }
+}
@@ -0,0 +1,20 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.UUID;
+
+@Data
+@Builder
+public class LedgerRecord {
+
+    private LedgerRecordType type;
+    private UUID accountId;
+    private long amount;
+    private long balanceAfter;
+    private String cardholderName;
+    private UUID counterpartyId;
+    private UUID transferId;
+    private long createdAt;
+}
@@ -0,0 +1,18 @@
+package com.shokoladova.bank_operations;
+
+public enum LedgerRecordType {
+    CREATE, DEPOSIT, WITHDRAW, TRANSFER_OUT, TRANSFER_IN;
+
+    private static final LedgerRecordType[] VALUES = values();
+
+    byte code() {
+        return (byte) ordinal();
+    }
+
+    static LedgerRecordType fromCode(byte code) {
+        if (code < 0 || code >= VALUES.length) {
+            throw new IllegalArgumentException("Unknown ledger record type " + code);
+        }
+        return VALUES[code];
+    }
+}
@@ -0,0 +1,225 @@
+package com.shokoladova.bank_operations;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * One partition of the in-memory ledger. All mutations of the shard's accounts run on its writer thread,
+ * which journals them and acknowledges a whole drained batch after a single flush.
+ * Balances are published through volatile fields, so reads do not go through the queue.
+ * <p>
+ * A batch whose flush fails is undone: its balances go back to what they were, the accounts it created are removed
+ * and its records are cut from the journal, so a caller told that its operation failed finds nothing moved.
+ */
+@Slf4j
+class LedgerShard implements AutoCloseable {
+
+    private final int index;
+    private final ConcurrentHashMap<UUID, Account> accounts = new ConcurrentHashMap<>();
+    private final BlockingQueue<Task<?>> queue;
+    private final int maxBatch;
+    private final Path journalPath;
+    private final boolean fsync;
+    // what the running batch changed, so a failed flush can undo it
+    private final Map<Account, Long> balancesBeforeBatch = new IdentityHashMap<>();
+    private final List<UUID> createdInBatch = new ArrayList<>();
+    LedgerJournal journal;
+    private Thread writer;
+    private volatile boolean running;
+
+    LedgerShard(int index, Path journalPath, LedgerConfig config) {
+        this.index = index;
+        this.journalPath = journalPath;
+        this.fsync = config.isFsync();
+        this.maxBatch = config.getMaxBatch();
+        this.queue = new ArrayBlockingQueue<>(config.getQueueCapacity());
+    }
+
+    long recover(Consumer<LedgerRecord> transferTracker) throws IOException {
+        return LedgerJournal.replay(journalPath, record -> {
+            if (record.getType() == LedgerRecordType.CREATE) {
+                accounts.put(record.getAccountId(),
+                        new Account(record.getAccountId(), record.getCardholderName(), record.getBalanceAfter()));
+            } else {
+                accounts.get(record.getAccountId()).balance = record.getBalanceAfter();
+            }
+            transferTracker.accept(record);
+        });
+    }
+
+    void start() throws IOException {
+        journal = new LedgerJournal(journalPath, fsync);
+        running = true;
+        writer = new Thread(this::runWriter, "ledger-shard-" + index);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    <T> CompletableFuture<T> submit(Function<LedgerShard, T> operation) {
+        Task<T> task = new Task<>(operation, new CompletableFuture<>());
+        if (!running || !queue.offer(task)) {
+            task.future.completeExceptionally(new RejectedExecutionException("Ledger shard " + index + " is not accepting operations"));
+        }
+        return task.future;
+    }
+
+    Account find(UUID id) {
+        return accounts.get(id);
+    }
+
+    Account require(UUID id) {
+        Account account = accounts.get(id);
+        if (account == null) {
+            throw new BankAccountNotFountException(String.format("Could not find account with id = %s", id));
+        }
+        return account;
+    }
+
+    Account create(UUID id, String cardholderName, long balance) {
+        Account account = new Account(id, cardholderName, balance);
+        journal.append(LedgerRecord.builder()
+                .type(LedgerRecordType.CREATE)
+                .accountId(id)
+                .amount(balance)
+                .balanceAfter(balance)
+                .cardholderName(cardholderName)
+                .build());
+        accounts.put(id, account);
+        createdInBatch.add(id);
+        return account;
+    }
+
+    Account apply(LedgerRecordType type, Account account, long delta, UUID counterpartyId, UUID transferId) {
+        if (!canApply(account, delta)) {
+            throw new MoneyOperationException(delta > 0 ?
+                    "Could not credit the account cause its balance would overflow" :
+                    "Could not withdraw cause insufficient money");
+        }
+        long balance = account.balance + delta;
+        journal.append(LedgerRecord.builder()
+                .type(type)
+                .accountId(account.id)
+                .amount(Math.abs(delta))
+                .balanceAfter(balance)
+                .counterpartyId(counterpartyId)
+                .transferId(transferId)
+                .build());
+        balancesBeforeBatch.putIfAbsent(account, account.balance);
+        account.balance = balance;
+        return account;
+    }
+
+    static boolean canApply(Account account, long delta) {
+        return delta > 0 ? account.balance <= Long.MAX_VALUE - delta : account.balance + delta >= 0;
+    }
+
+    int size() {
+        return accounts.size();
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+        running = false;
+        if (writer != null) {
+            writer.join();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private void runWriter() {
+        List<Task<?>> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Task<?> first = queue.poll(50, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                for (Task<?> task : batch) {
+                    task.execute(this);
+                }
+                journal.flush();
+                for (Task<?> task : batch) {
+                    task.complete();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Ledger shard {} failed to flush its journal, undoing the batch", index, e);
+                undoBatch();
+                batch.forEach(task -> task.future.completeExceptionally(e));
+            } finally {
+                batch.clear();
+                balancesBeforeBatch.clear();
+                createdInBatch.clear();
+            }
+        }
+    }
+
+    private void undoBatch() {
+        balancesBeforeBatch.forEach((account, balance) -> account.balance = balance);
+        createdInBatch.forEach(accounts::remove);
+        try {
+            journal.discard();
+        } catch (RuntimeException e) {
+            log.error("Ledger shard {} could not cut the failed batch from its journal", index, e);
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    static class Account {
+        private final UUID id;
+        private final String cardholderName;
+        private volatile long balance;
+    }
+
+    private static class Task<T> {
+        private final Function<LedgerShard, T> operation;
+        private final CompletableFuture<T> future;
+        private T result;
+        private RuntimeException error;
+
+        Task(Function<LedgerShard, T> operation, CompletableFuture<T> future) {
+            this.operation = operation;
+            this.future = future;
+        }
+
+        void execute(LedgerShard shard) {
+            try {
+                result = operation.apply(shard);
+            } catch (RuntimeException e) {
+                error = e;
+            }
+        }
+
+        void complete() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class LockStatsDto {
+
+    private int stripes;
+    private long acquisitions;
+    private long contended;
+    private long totalWaitMicros;
+    private List<StripeStats> hottestStripes;
+
+    @Data
+    @Builder
+    public static class StripeStats {
+        private int stripe;
+        private long contended;
+        private long waitMicros;
+    }
+}
@@ -0,0 +1,11 @@
+package com.shokoladova.bank_operations;
+
+/**
+ * How the JDBC engine keeps concurrent writes to an account apart.
+ * {@link #PESSIMISTIC} serializes them on stripe and row locks up front; {@link #OPTIMISTIC} lets them run
+ * and only applies an update if the account's version is unchanged, retrying the losers.
+ */
+public enum LockingMode {
+    PESSIMISTIC,
+    OPTIMISTIC
+}
@@ -1,9 +1,108 @@
 package com.shokoladova.bank_operations;
 
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+@Slf4j
 public class Main {
 
-    public static void main(String[] args) {
-        SparkServer server = new SparkServer();
+    public static void main(String[] args) throws SQLException, IOException {
+        String engine = SystemProperties.getString("engine", "jdbc");
+        ClusterConfig clusterConfig = ClusterConfig.fromSystemProperties();
+        ConnectionPoolConfig connectionPoolConfig = ConnectionPoolConfig.fromSystemProperties();
+        BankAccountServiceConfig serviceConfig = BankAccountServiceConfig.fromSystemProperties();
+        AccountPartitioner partitioner = null;
+        ClusterClient clusterClient = null;
+        if (clusterConfig.isEnabled()) {
+            if ("ledger".equals(engine)) {
+                throw new IllegalArgumentException("The ledger engine can not run as part of a cluster");
+            }
+            if (connectionPoolConfig.isInMemory()) {
+                throw new IllegalArgumentException("A cluster node needs a file-backed db.url: its outbox and inbox are not in the write-ahead log");
+            }
+            partitioner = new AccountPartitioner(clusterConfig.getNodes().size(), clusterConfig.getNodeId());
+            clusterClient = new ClusterClient(clusterConfig);
+        }
+        ConnectionPool connectionPool;
+        StripedLockTable lockTable;
+        BankAccountServiceImpl jdbcService;
+        BankAccountService bankAccountService;
+        if ("ledger".equals(engine)) {
+            connectionPool = null;
+            lockTable = null;
+            jdbcService = null;
+            bankAccountService = new ShardedLedgerService(LedgerConfig.fromSystemProperties());
+        } else {
+            connectionPool = new ConnectionPool(connectionPoolConfig);
+            lockTable = StripedLockTable.fromSystemProperties();
+            if (partitioner != null) {
+                jdbcService = new BankAccountServiceImpl(connectionPool, lockTable, serviceConfig,
+                        partitioner::newLocalId);
+                bankAccountService = new PartitionedBankAccountService(jdbcService, partitioner, clusterClient, clusterConfig);
+            } else {
+                jdbcService = new BankAccountServiceImpl(connectionPool, lockTable, serviceConfig);
+                bankAccountService = jdbcService;
+            }
+        }
+        BankAccountService instrumentedService = new InstrumentedBankAccountService(bankAccountService);
+        BankAccountFacade facade = new BankAccountFacadeImpl(instrumentedService,
+                new IdempotencyStore(IdempotencyConfig.fromSystemProperties()));
+        AdmissionConfig admissionConfig = AdmissionConfig.fromSystemProperties();
+        if (admissionConfig.isEnabled()) {
+            facade = new AdmissionControlledBankAccountFacade(facade, admissionConfig);
+        }
+        if (partitioner != null) {
+            facade = new RoutingBankAccountFacade(facade, partitioner, clusterClient);
+        }
+        // jobs and schedules are not in the write-ahead log: they would silently vanish with an in-memory database
+        boolean jobsOutliveRestart = !serviceConfig.isPersistenceEnabled() || !connectionPoolConfig.isInMemory();
+        if (jdbcService != null && !jobsOutliveRestart) {
+            log.warn("Batch jobs and scheduled transfers are disabled: with persistence enabled they need a file-backed db.url");
+        }
+        BatchJobRunner batchJobRunner = jdbcService != null && jobsOutliveRestart ?
+                new BatchJobRunner(jdbcService, BatchJobConfig.fromSystemProperties()) :
+                null;
+        TransferScheduler transferScheduler = jdbcService != null && jobsOutliveRestart ?
+                new TransferScheduler(jdbcService, ScheduledTransferConfig.fromSystemProperties()) :
+                null;
+        ServerConfig serverConfig = ServerConfig.fromSystemProperties();
+        serverConfig.setInternalRoutes(clusterConfig.isEnabled());
+        SparkServer server = new SparkServer(facade, new StatsFacadeImpl(connectionPool, lockTable, jdbcService),
+                new BatchJobFacadeImpl(batchJobRunner), new ScheduledTransferFacadeImpl(transferScheduler), serverConfig);
+        BinaryProtocolConfig binaryConfig = BinaryProtocolConfig.fromSystemProperties();
+        if (binaryConfig.isEnabled() && (clusterConfig.isEnabled() || admissionConfig.isEnabled())) {
+            throw new IllegalArgumentException("The binary protocol talks to the service directly, past admission control and "
+                    + "cluster routing: it can not be enabled together with either");
+        }
+        BinaryProtocolServer binaryServer = binaryConfig.isEnabled() ? new BinaryProtocolServer(instrumentedService, binaryConfig) : null;
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                if (binaryServer != null) {
+                    binaryServer.close();
+                }
+                if (transferScheduler != null) {
+                    transferScheduler.close();
+                }
+                if (batchJobRunner != null) {
+                    batchJobRunner.close();
+                }
+                if (bankAccountService instanceof AutoCloseable) {
+                    ((AutoCloseable) bankAccountService).close();
+                }
+            } catch (Exception e) {
+                log.error("Shutdown failed", e);
+            }
+            if (connectionPool != null) {
+                connectionPool.closeQuietly();
+            }
+        }));
         server.start();
+        if (binaryServer != null) {
+            binaryServer.start();
+        }
     }
-}
\ No newline at end of file
+}
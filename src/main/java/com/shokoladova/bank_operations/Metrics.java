@@ -0,0 +1,107 @@
+package com.shokoladova.bank_operations;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide registry of counters and latency summaries, rendered in the Prometheus text format.
+ * Lookups go through a map, so hot paths resolve their metrics once and keep the references.
+ * Latencies are recorded in nanoseconds and exposed in seconds; summary quantiles cover the last minute.
+ */
+public final class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final ConcurrentMap<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, "counter").metrics.computeIfAbsent(labelsOf(labels), key -> new LongAdder());
+    }
+
+    public static Histogram summary(String name, String help, String... labels) {
+        return (Histogram) family(name, help, "summary").metrics.computeIfAbsent(labelsOf(labels), key -> new Histogram());
+    }
+
+    public static void writeTo(StringBuilder out) {
+        for (Family family : FAMILIES.values()) {
+            writeHeader(out, family.name, family.help, family.type);
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                if (metric.getValue() instanceof LongAdder) {
+                    writeSample(out, family.name, metric.getKey(), ((LongAdder) metric.getValue()).sum());
+                } else {
+                    writeSummary(out, family.name, metric.getKey(), ((Histogram) metric.getValue()).snapshot(), 1e9);
+                }
+            }
+        }
+    }
+
+    static void writeHeader(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    static void writeSample(StringBuilder out, String name, String labels, double value) {
+        writeName(out, name, labels).append(value).append('\n');
+    }
+
+    static void writeSample(StringBuilder out, String name, String labels, long value) {
+        writeName(out, name, labels).append(value).append('\n');
+    }
+
+    private static StringBuilder writeName(StringBuilder out, String name, String labels) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        return out.append(' ');
+    }
+
+    static void writeSummary(StringBuilder out, String name, String labels, HistogramSnapshotDto snapshot, double unit) {
+        String separator = labels.isEmpty() ? "" : labels + ",";
+        long[] values = {snapshot.getP50(), snapshot.getP90(), snapshot.getP99(), snapshot.getP999()};
+        for (int i = 0; i < QUANTILES.length; i++) {
+            writeSample(out, name, separator + "quantile=\"" + QUANTILES[i] + "\"", values[i] / unit);
+        }
+        writeSample(out, name + "_sum", labels, snapshot.getSum() / unit);
+        writeSample(out, name + "_count", labels, snapshot.getCount());
+    }
+
+    private static Family family(String name, String help, String type) {
+        Family family = FAMILIES.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static String labelsOf(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name/value pairs");
+        }
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(labels[i]).append("=\"").append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return key.toString();
+    }
+
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.shokoladova.bank_operations;
+
+public class NodeUnavailableException extends RuntimeException {
+
+    public NodeUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,36 @@
+package com.shokoladova.bank_operations;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+/**
+ * A cross-node transfer whose source is already debited and whose credit has not been confirmed by the destination's owner.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@DatabaseTable(tableName = "OUTBOX")
+public class OutboxEntry {
+
+    @DatabaseField(id = true, columnDefinition = "UUID")
+    private UUID transferId;
+
+    @DatabaseField(canBeNull = false, columnDefinition = "UUID NOT NULL")
+    private UUID sourceId;
+
+    @DatabaseField(canBeNull = false, columnDefinition = "UUID NOT NULL")
+    private UUID destinationId;
+
+    @DatabaseField
+    private long amount;
+
+    @DatabaseField
+    private long createdAt;
+}
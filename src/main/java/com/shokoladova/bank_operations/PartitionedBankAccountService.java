@@ -0,0 +1,217 @@
+package com.shokoladova.bank_operations;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The service of one node of an account-partitioned cluster. Everything but a transfer to an account another node
+ * owns is local. Such a transfer first asks the destination's owner whether the account exists, then debits the
+ * source and records the credit in the outbox in one local transaction, and finally delivers the credit to the
+ * owner, which applies it at most once per transfer id. A credit the owner turns down is refunded to the source;
+ * a credit that could not be delivered stays in the outbox and is redelivered in the background until it is.
+ * <p>
+ * Redelivery gives up on a credit after {@code outboxRetryHorizonMillis}, leaving it in the outbox to be settled by
+ * hand, and a node remembers the credits it applied for longer than that, so a redelivered credit is never applied
+ * twice. The outbox and inbox are not in the write-ahead log, so a node must keep its database in a file.
+ */
+@Slf4j
+public class PartitionedBankAccountService implements BankAccountService, AutoCloseable {
+
+    private static final long INBOX_PRUNE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final LongAdder DELIVERED = Metrics.counter("bank_outbox_deliveries_total",
+            "Attempts to deliver cross-node transfer credits by outcome", "outcome", "delivered");
+    private static final LongAdder REFUNDED = Metrics.counter("bank_outbox_deliveries_total",
+            "Attempts to deliver cross-node transfer credits by outcome", "outcome", "refunded");
+    private static final LongAdder DEFERRED = Metrics.counter("bank_outbox_deliveries_total",
+            "Attempts to deliver cross-node transfer credits by outcome", "outcome", "deferred");
+
+    private final BankAccountServiceImpl delegate;
+    private final AccountPartitioner partitioner;
+    private final ClusterClient client;
+    private final long outboxRetryMillis;
+    private final long outboxRetryHorizonMillis;
+    private final int outboxBatchSize;
+    private final long inboxRetentionMillis;
+    private final ScheduledExecutorService relay;
+
+    PartitionedBankAccountService(BankAccountServiceImpl delegate, AccountPartitioner partitioner, ClusterClient client,
+                                  ClusterConfig config) {
+        if (config.getInboxRetentionMillis() <= config.getOutboxRetryHorizonMillis()) {
+            throw new IllegalArgumentException(String.format("Inbox retention of %d ms must be longer than the outbox retry horizon of %d ms",
+                    config.getInboxRetentionMillis(), config.getOutboxRetryHorizonMillis()));
+        }
+        this.delegate = delegate;
+        this.partitioner = partitioner;
+        this.client = client;
+        this.outboxRetryMillis = config.getOutboxRetryMillis();
+        this.outboxRetryHorizonMillis = config.getOutboxRetryHorizonMillis();
+        this.outboxBatchSize = config.getOutboxBatchSize();
+        this.inboxRetentionMillis = config.getInboxRetentionMillis();
+        this.relay = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbox-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        relay.scheduleWithFixedDelay(this::redeliver, outboxRetryMillis, outboxRetryMillis, TimeUnit.MILLISECONDS);
+        relay.scheduleWithFixedDelay(this::prune, INBOX_PRUNE_INTERVAL_MILLIS, INBOX_PRUNE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public BankAccount create(String cardholderName, long initialBalance) throws SQLException {
+        return delegate.create(cardholderName, initialBalance);
+    }
+
+    @Override
+    public List<BankAccount> createBatch(List<CreateAccountRequest> requests) throws SQLException {
+        return delegate.createBatch(requests);
+    }
+
+    @Override
+    public BankAccount get(UUID id) throws SQLException {
+        return delegate.get(id);
+    }
+
+    @Override
+    public BankAccount withdraw(UUID id, long amount) throws SQLException {
+        return delegate.withdraw(id, amount);
+    }
+
+    @Override
+    public BankAccount deposit(UUID id, long amount) throws SQLException {
+        return delegate.deposit(id, amount);
+    }
+
+    /**
+     * Returns once the source is debited; when the destination's owner could not be reached after that,
+     * the credit is applied later by the outbox relay.
+     */
+    @Override
+    public boolean transfer(TransferRequest transferRequest) throws SQLException {
+        UUID destinationId = transferRequest.getDestinationId();
+        if (destinationId == null || partitioner.isLocal(destinationId)) {
+            return delegate.transfer(transferRequest);
+        }
+        if (transferRequest.getAmount() <= 0) {
+            throw new MoneyOperationException("Can not transfer non-positive value");
+        }
+        int owner = partitioner.ownerOf(destinationId);
+        BankOperationResultDto prepared = client.get(owner, "/account?id=" + destinationId);
+        if (prepared.getStatus() != OperationStatus.OK) {
+            throw ClusterClient.exceptionOf(prepared.getError());
+        }
+        RuntimeException rejected = deliver(delegate.transferOut(transferRequest));
+        if (rejected != null) {
+            throw rejected;
+        }
+        return true;
+    }
+
+    @Override
+    public List<TransferResult> transferBatch(List<TransferRequest> transferRequests) throws SQLException {
+        for (TransferRequest transferRequest : transferRequests) {
+            if (transferRequest.getDestinationId() != null && !partitioner.isLocal(transferRequest.getDestinationId())) {
+                return BankAccountService.super.transferBatch(transferRequests);
+            }
+        }
+        return delegate.transferBatch(transferRequests);
+    }
+
+    @Override
+    public boolean transferIn(UUID transferId, UUID sourceId, UUID destinationId, long amount) throws SQLException {
+        return delegate.transferIn(transferId, sourceId, destinationId, amount);
+    }
+
+    @Override
+    public List<JournalEntry> history(UUID accountId, long afterEntryId, int limit) throws SQLException {
+        return delegate.history(accountId, afterEntryId, limit);
+    }
+
+    // only the accounts this node owns
+    @Override
+    public List<BankAccount> search(AccountSearchQuery query) throws SQLException {
+        return delegate.search(query);
+    }
+
+    // returns the error the destination's owner turned the credit down with, or null when it was applied or deferred
+    private RuntimeException deliver(OutboxEntry entry) throws SQLException {
+        BankOperationResultDto result;
+        try {
+            result = client.post(partitioner.ownerOf(entry.getDestinationId()), "/internal/transfer/in", credit(entry), null);
+        } catch (NodeUnavailableException e) {
+            DEFERRED.increment();
+            return null;
+        }
+        if (result.getStatus() == OperationStatus.OK) {
+            delegate.completeTransfer(entry.getTransferId());
+            DELIVERED.increment();
+            return null;
+        }
+        switch (result.getError().getCode()) {
+            case ACCOUNT_NOT_FOUND:
+            case MONEY_OPERATION_REJECTED:
+            case BAD_REQUEST:
+                delegate.refundTransfer(entry);
+                REFUNDED.increment();
+                return ClusterClient.exceptionOf(result.getError());
+            default:
+                DEFERRED.increment();
+                return null;
+        }
+    }
+
+    private static byte[] credit(OutboxEntry entry) {
+        try {
+            return Json.MAPPER.writeValueAsBytes(TransferRequest.builder()
+                    .sourceId(entry.getSourceId())
+                    .destinationId(entry.getDestinationId())
+                    .amount(entry.getAmount())
+                    .requestId(entry.getTransferId().toString())
+                    .build());
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // one batch per run, and only entries older than the retry interval, so a transfer still delivering synchronously is left alone
+    private void redeliver() {
+        try {
+            long now = System.currentTimeMillis();
+            for (OutboxEntry entry : delegate.pendingTransfers(now - outboxRetryHorizonMillis, now - outboxRetryMillis, outboxBatchSize)) {
+                deliver(entry);
+            }
+        } catch (Exception e) {
+            log.error("Outbox redelivery failed", e);
+        }
+    }
+
+    private void prune() {
+        try {
+            long now = System.currentTimeMillis();
+            delegate.pruneInbox(now - inboxRetentionMillis);
+            long abandoned = delegate.abandonedTransfers(now - outboxRetryHorizonMillis);
+            if (abandoned > 0) {
+                log.error("{} cross-node credits were not delivered within {} ms and are left in the outbox to be settled by hand",
+                        abandoned, outboxRetryHorizonMillis);
+            }
+        } catch (Exception e) {
+            log.error("Inbox pruning failed", e);
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        relay.shutdown();
+        relay.awaitTermination(1, TimeUnit.MINUTES);
+        delegate.close();
+    }
+}
@@ -0,0 +1,7 @@
+package com.shokoladova.bank_operations;
+
+public class PeerRejectedException extends RuntimeException {
+    public PeerRejectedException(String s) {
+        super(s);
+    }
+}
@@ -0,0 +1,219 @@
+package com.shokoladova.bank_operations;
+
+import spark.Request;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static com.shokoladova.bank_operations.OperationStatus.NE_OK;
+import static com.shokoladova.bank_operations.OperationStatus.OK;
+
+/**
+ * Sends every operation on an account to the node that owns it. Requests another node already forwarded are
+ * always answered here, so nodes that disagree about the cluster layout can not bounce a request between them.
+ */
+public class RoutingBankAccountFacade implements BankAccountFacade {
+
+    private static final LongAdder FORWARDED = Metrics.counter("bank_cluster_forwarded_total",
+            "Requests forwarded to the node that owns the account");
+
+    private final BankAccountFacade delegate;
+    private final AccountPartitioner partitioner;
+    private final ClusterClient client;
+
+    RoutingBankAccountFacade(BankAccountFacade delegate, AccountPartitioner partitioner, ClusterClient client) {
+        this.delegate = delegate;
+        this.partitioner = partitioner;
+        this.client = client;
+    }
+
+    @Override
+    public BankOperationResultDto create(Request req) {
+        return delegate.create(req);
+    }
+
+    @Override
+    public BankOperationResultDto importAccounts(Request req) {
+        return delegate.importAccounts(req);
+    }
+
+    @Override
+    public BankOperationResultDto get(Request req) {
+        return route(req, delegate::get);
+    }
+
+    @Override
+    public BankOperationResultDto withdraw(Request req) {
+        return route(req, delegate::withdraw);
+    }
+
+    @Override
+    public BankOperationResultDto deposit(Request req) {
+        return route(req, delegate::deposit);
+    }
+
+    @Override
+    public BankOperationResultDto transfer(Request req) {
+        if (isForwarded(req)) {
+            return delegate.transfer(req);
+        }
+        TransferRequest transferRequest;
+        try {
+            transferRequest = BankAccountFacadeImpl.readTransferRequest(req);
+        } catch (Exception e) {
+            return failed(e);
+        }
+        UUID sourceId = transferRequest.getSourceId();
+        if (sourceId == null || partitioner.isLocal(sourceId)) {
+            req.attribute(BankAccountFacadeImpl.TRANSFER_REQUEST_ATTRIBUTE, transferRequest);
+            return delegate.transfer(req);
+        }
+        try {
+            return forward(partitioner.ownerOf(sourceId), req, Json.MAPPER.writeValueAsBytes(transferRequest));
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * Splits the batch by the owner of each source account, runs the local part here and the rest on the owners,
+     * and answers with the results in the order of the original batch.
+     */
+    @Override
+    public BankOperationResultDto transferBatch(Request req) {
+        if (isForwarded(req)) {
+            return delegate.transferBatch(req);
+        }
+        List<TransferRequest> transferRequests;
+        try {
+            transferRequests = BankAccountFacadeImpl.readTransferRequests(req);
+        } catch (Exception e) {
+            return failed(e);
+        }
+        Map<Integer, List<Integer>> legsByNode = new TreeMap<>();
+        for (int i = 0; i < transferRequests.size(); i++) {
+            UUID sourceId = transferRequests.get(i).getSourceId();
+            int node = sourceId == null ? partitioner.getLocalNode() : partitioner.ownerOf(sourceId);
+            legsByNode.computeIfAbsent(node, n -> new ArrayList<>()).add(i);
+        }
+        if (legsByNode.isEmpty() || legsByNode.keySet().equals(Collections.singleton(partitioner.getLocalNode()))) {
+            req.attribute(BankAccountFacadeImpl.TRANSFER_REQUESTS_ATTRIBUTE, transferRequests);
+            return delegate.transferBatch(req);
+        }
+
+        Object[] results = new Object[transferRequests.size()];
+        for (Map.Entry<Integer, List<Integer>> legs : legsByNode.entrySet()) {
+            List<TransferRequest> part = new ArrayList<>(legs.getValue().size());
+            for (int i : legs.getValue()) {
+                part.add(transferRequests.get(i));
+            }
+            BankOperationResultDto partResult;
+            if (legs.getKey() == partitioner.getLocalNode()) {
+                req.attribute(BankAccountFacadeImpl.TRANSFER_REQUESTS_ATTRIBUTE, part);
+                partResult = delegate.transferBatch(req);
+            } else {
+                try {
+                    partResult = forward(legs.getKey(), req, ndjson(part));
+                } catch (Exception e) {
+                    partResult = failed(e);
+                }
+            }
+            List<?> partResults = partResult.getStatus() == OK ? (List<?>) partResult.getResult() : null;
+            for (int j = 0; j < legs.getValue().size(); j++) {
+                results[legs.getValue().get(j)] = partResults != null ? partResults.get(j) : partResult;
+            }
+        }
+        return BankOperationResultDto.builder()
+                .status(OK)
+                .result(Arrays.asList(results))
+                .build();
+    }
+
+    /**
+     * Only another node may credit an account here, for a transfer out of an account that node owns.
+     */
+    @Override
+    public BankOperationResultDto transferIn(Request req) {
+        if (!client.isPeer(req.headers(ClusterClient.SECRET_HEADER))) {
+            return failed(new PeerRejectedException("Only other nodes of the cluster may credit transfers between nodes"));
+        }
+        TransferRequest transferRequest;
+        try {
+            transferRequest = BankAccountFacadeImpl.readTransferRequest(req);
+        } catch (Exception e) {
+            return failed(e);
+        }
+        if (transferRequest.getSourceId() == null || partitioner.isLocal(transferRequest.getSourceId())) {
+            return failed(new IllegalArgumentException("A transfer between nodes must come from an account another node owns"));
+        }
+        req.attribute(BankAccountFacadeImpl.TRANSFER_REQUEST_ATTRIBUTE, transferRequest);
+        return delegate.transferIn(req);
+    }
+
+    @Override
+    public BankOperationResultDto history(Request req) {
+        return route(req, delegate::history);
+    }
+
+    // searches cover the accounts of this node; a node can only seek its own indexes
+    @Override
+    public BankOperationResultDto search(Request req) {
+        return delegate.search(req);
+    }
+
+    private BankOperationResultDto route(Request req, Function<Request, BankOperationResultDto> local) {
+        UUID id;
+        try {
+            id = UUID.fromString(req.queryParams("id"));
+        } catch (RuntimeException e) {
+            // malformed ids are left to the facade, which reports them as bad requests
+            return local.apply(req);
+        }
+        if (isForwarded(req) || partitioner.isLocal(id)) {
+            return local.apply(req);
+        }
+        try {
+            return forward(partitioner.ownerOf(id), req, null);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    private BankOperationResultDto forward(int node, Request req, byte[] body) {
+        FORWARDED.increment();
+        String path = req.queryString() == null ? req.pathInfo() : req.pathInfo() + '?' + req.queryString();
+        return "GET".equals(req.requestMethod()) ?
+                client.get(node, path) :
+                client.post(node, path, body, req.headers(BankAccountFacadeImpl.IDEMPOTENCY_KEY_HEADER));
+    }
+
+    // only a peer may ask for an answer from here: a client setting the header would otherwise turn routing off
+    private boolean isForwarded(Request req) {
+        return req.headers(ClusterClient.FORWARDED_HEADER) != null && client.isPeer(req.headers(ClusterClient.SECRET_HEADER));
+    }
+
+    private static byte[] ndjson(List<TransferRequest> transferRequests) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (TransferRequest transferRequest : transferRequests) {
+            Json.MAPPER.writeValue(out, transferRequest);
+            out.write('\n');
+        }
+        return out.toByteArray();
+    }
+
+    private static BankOperationResultDto failed(Exception e) {
+        return BankOperationResultDto.builder()
+                .status(NE_OK)
+                .error(ErrorDto.of(e))
+                .build();
+    }
+}
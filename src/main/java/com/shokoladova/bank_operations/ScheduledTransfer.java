@@ -0,0 +1,58 @@
+package com.shokoladova.bank_operations;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@DatabaseTable(tableName = "SCHEDULED_TRANSFER")
+public class ScheduledTransfer {
+
+    @DatabaseField(id = true, columnDefinition = "UUID")
+    private UUID id;
+
+    @DatabaseField(canBeNull = false, columnDefinition = "UUID NOT NULL")
+    private UUID sourceId;
+
+    @DatabaseField(canBeNull = false, columnDefinition = "UUID NOT NULL")
+    private UUID destinationId;
+
+    @DatabaseField
+    private long amount;
+
+    // an ISO-8601 period such as P1M, or none for a transfer that runs once
+    @DatabaseField
+    private String period;
+
+    @DatabaseField
+    private long firstRunAt;
+
+    @DatabaseField
+    private long nextRunAt;
+
+    @DatabaseField
+    private int occurrence;
+
+    @DatabaseField(canBeNull = false)
+    private ScheduledTransferStatus status;
+
+    @DatabaseField
+    private int runs;
+
+    @DatabaseField
+    private int failures;
+
+    @DatabaseField(width = 1024)
+    private String lastError;
+
+    @DatabaseField
+    private long createdAt;
+}
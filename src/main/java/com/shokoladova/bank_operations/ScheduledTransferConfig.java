@@ -0,0 +1,30 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class ScheduledTransferConfig {
+
+    @Builder.Default
+    private long tickMillis = 100;
+    @Builder.Default
+    private long loadAheadMillis = 10 * 60 * 1000;
+    @Builder.Default
+    private int batchSize = 200;
+    @Builder.Default
+    private int loadPageSize = 10_000;
+    @Builder.Default
+    private long retryDelayMillis = 1000;
+
+    public static ScheduledTransferConfig fromSystemProperties() {
+        return ScheduledTransferConfig.builder()
+                .tickMillis(SystemProperties.getLong("schedule.tickMillis", 100))
+                .loadAheadMillis(SystemProperties.getLong("schedule.loadAheadMillis", 10 * 60 * 1000))
+                .batchSize(SystemProperties.getInt("schedule.batchSize", 200))
+                .loadPageSize(SystemProperties.getInt("schedule.loadPageSize", 10_000))
+                .retryDelayMillis(SystemProperties.getLong("schedule.retryDelayMillis", 1000))
+                .build();
+    }
+}
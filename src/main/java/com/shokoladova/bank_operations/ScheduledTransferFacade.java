@@ -0,0 +1,12 @@
+package com.shokoladova.bank_operations;
+
+import spark.Request;
+
+public interface ScheduledTransferFacade {
+
+    BankOperationResultDto create(Request req);
+
+    BankOperationResultDto get(Request req);
+
+    BankOperationResultDto cancel(Request req);
+}
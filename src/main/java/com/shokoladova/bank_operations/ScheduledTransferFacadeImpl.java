@@ -0,0 +1,67 @@
+package com.shokoladova.bank_operations;
+
+import spark.Request;
+
+import java.util.UUID;
+
+import static com.shokoladova.bank_operations.OperationStatus.NE_OK;
+import static com.shokoladova.bank_operations.OperationStatus.OK;
+
+public class ScheduledTransferFacadeImpl implements ScheduledTransferFacade {
+
+    private final TransferScheduler scheduler;
+
+    ScheduledTransferFacadeImpl(TransferScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public BankOperationResultDto create(Request req) {
+        try {
+            ScheduledTransferRequest request = Json.SCHEDULED_TRANSFER_REQUEST_READER.readValue(req.raw().getInputStream());
+
+            return buildSuccessfullResult(scheduler().create(request));
+        } catch (Exception e) {
+            return buildErrorResult(e);
+        }
+    }
+
+    @Override
+    public BankOperationResultDto get(Request req) {
+        try {
+            return buildSuccessfullResult(scheduler().get(UUID.fromString(req.params("id"))));
+        } catch (Exception e) {
+            return buildErrorResult(e);
+        }
+    }
+
+    @Override
+    public BankOperationResultDto cancel(Request req) {
+        try {
+            return buildSuccessfullResult(scheduler().cancel(UUID.fromString(req.params("id"))));
+        } catch (Exception e) {
+            return buildErrorResult(e);
+        }
+    }
+
+    private TransferScheduler scheduler() {
+        if (scheduler == null) {
+            throw new UnsupportedOperationException("Scheduled transfers need the jdbc engine, and a file-backed db.url when persistence is enabled");
+        }
+        return scheduler;
+    }
+
+    private BankOperationResultDto buildSuccessfullResult(Object result) {
+        return BankOperationResultDto.builder()
+                .result(result)
+                .status(OK)
+                .build();
+    }
+
+    private BankOperationResultDto buildErrorResult(Exception e) {
+        return BankOperationResultDto.builder()
+                .status(NE_OK)
+                .error(ErrorDto.of(e))
+                .build();
+    }
+}
@@ -0,0 +1,171 @@
+package com.shokoladova.bank_operations;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Data access for scheduled transfers, in the style of {@link AccountRepository}.
+ */
+final class ScheduledTransferRepository {
+
+    private static final String COLUMNS = "ID, SOURCEID, DESTINATIONID, AMOUNT, PERIOD, FIRSTRUNAT, NEXTRUNAT, OCCURRENCE, STATUS, " +
+            "RUNS, FAILURES, LASTERROR, CREATEDAT";
+
+    private static final String INSERT =
+            "INSERT INTO SCHEDULED_TRANSFER (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String SELECT = "SELECT " + COLUMNS + " FROM SCHEDULED_TRANSFER WHERE ID=?";
+    private static final String SELECT_ALL_PREFIX = "SELECT " + COLUMNS + " FROM SCHEDULED_TRANSFER WHERE ID IN (";
+    private static final String CANCEL = "UPDATE SCHEDULED_TRANSFER SET STATUS=? WHERE ID=? AND STATUS=?";
+    private static final String SELECT_DUE =
+            "SELECT ID, NEXTRUNAT FROM SCHEDULED_TRANSFER WHERE STATUS=? AND NEXTRUNAT>=? AND NEXTRUNAT<? " +
+                    "ORDER BY NEXTRUNAT, ID LIMIT ?";
+    private static final String SELECT_DUE_AFTER =
+            "SELECT ID, NEXTRUNAT FROM SCHEDULED_TRANSFER WHERE STATUS=? AND NEXTRUNAT>=? AND NEXTRUNAT<? " +
+                    "AND (NEXTRUNAT>? OR ID>?) ORDER BY NEXTRUNAT, ID LIMIT ?";
+    private static final String UPDATE_AFTER_RUN =
+            "UPDATE SCHEDULED_TRANSFER SET NEXTRUNAT=?, OCCURRENCE=?, STATUS=?, RUNS=?, FAILURES=?, LASTERROR=? WHERE ID=?";
+
+    private ScheduledTransferRepository() {
+    }
+
+    static void insert(StatementCachingConnection connection, ScheduledTransfer schedule) throws SQLException {
+        PreparedStatement statement = connection.prepare(INSERT);
+        statement.setObject(1, schedule.getId());
+        statement.setObject(2, schedule.getSourceId());
+        statement.setObject(3, schedule.getDestinationId());
+        statement.setLong(4, schedule.getAmount());
+        statement.setString(5, schedule.getPeriod());
+        statement.setLong(6, schedule.getFirstRunAt());
+        statement.setLong(7, schedule.getNextRunAt());
+        statement.setInt(8, schedule.getOccurrence());
+        statement.setString(9, schedule.getStatus().name());
+        statement.setInt(10, schedule.getRuns());
+        statement.setInt(11, schedule.getFailures());
+        statement.setString(12, schedule.getLastError());
+        statement.setLong(13, schedule.getCreatedAt());
+        statement.executeUpdate();
+    }
+
+    static ScheduledTransfer select(StatementCachingConnection connection, UUID id) throws SQLException {
+        PreparedStatement statement = connection.prepare(SELECT);
+        statement.setObject(1, id);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? toSchedule(resultSet) : null;
+        }
+    }
+
+    static List<ScheduledTransfer> read(StatementCachingConnection connection, Collection<UUID> ids) throws SQLException {
+        return selectAll(connection, ids, ")");
+    }
+
+    /**
+     * Reads and locks the given schedules, so a schedule being run is neither cancelled nor run again meanwhile.
+     */
+    static List<ScheduledTransfer> lock(StatementCachingConnection connection, Collection<UUID> ids) throws SQLException {
+        return selectAll(connection, ids, ") FOR UPDATE");
+    }
+
+    private static List<ScheduledTransfer> selectAll(StatementCachingConnection connection, Collection<UUID> ids,
+                                                     String suffix) throws SQLException {
+        List<ScheduledTransfer> schedules = new ArrayList<>(ids.size());
+        if (ids.isEmpty()) {
+            return schedules;
+        }
+        PreparedStatement statement = connection.prepareIn(SELECT_ALL_PREFIX, ids, suffix);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                schedules.add(toSchedule(resultSet));
+            }
+        }
+        return schedules;
+    }
+
+    /**
+     * Cancels an active schedule; false when there is no active schedule with that id.
+     */
+    static boolean cancel(StatementCachingConnection connection, UUID id) throws SQLException {
+        PreparedStatement statement = connection.prepare(CANCEL);
+        statement.setString(1, ScheduledTransferStatus.CANCELLED.name());
+        statement.setObject(2, id);
+        statement.setString(3, ScheduledTransferStatus.ACTIVE.name());
+        return statement.executeUpdate() > 0;
+    }
+
+    /**
+     * Hands over the ids and run times of the active schedules that run from {@code from} up to but excluding
+     * {@code until}, one page of at most {@code limit} after the given one, in the order of the
+     * {@code (STATUS, NEXTRUNAT, ID)} index. Returns how many were handed over.
+     */
+    static int selectDue(StatementCachingConnection connection, long from, long until, Long afterRunAt, UUID afterId,
+                         int limit, DueConsumer consumer) throws SQLException {
+        boolean after = afterId != null;
+        PreparedStatement statement = connection.prepare(after ? SELECT_DUE_AFTER : SELECT_DUE);
+        int index = 1;
+        statement.setString(index++, ScheduledTransferStatus.ACTIVE.name());
+        statement.setLong(index++, after ? Math.max(from, afterRunAt) : from);
+        statement.setLong(index++, until);
+        if (after) {
+            statement.setLong(index++, afterRunAt);
+            statement.setObject(index++, afterId);
+        }
+        statement.setInt(index, limit);
+        int count = 0;
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                consumer.accept(resultSet.getObject(1, UUID.class), resultSet.getLong(2));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static void updateAfterRun(StatementCachingConnection connection, List<ScheduledTransfer> schedules) throws SQLException {
+        if (schedules.isEmpty()) {
+            return;
+        }
+        PreparedStatement statement = connection.prepare(UPDATE_AFTER_RUN);
+        try {
+            for (ScheduledTransfer schedule : schedules) {
+                statement.setLong(1, schedule.getNextRunAt());
+                statement.setInt(2, schedule.getOccurrence());
+                statement.setString(3, schedule.getStatus().name());
+                statement.setInt(4, schedule.getRuns());
+                statement.setInt(5, schedule.getFailures());
+                statement.setString(6, schedule.getLastError());
+                statement.setObject(7, schedule.getId());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            statement.clearBatch();
+        }
+    }
+
+    private static ScheduledTransfer toSchedule(ResultSet resultSet) throws SQLException {
+        return ScheduledTransfer.builder()
+                .id(resultSet.getObject(1, UUID.class))
+                .sourceId(resultSet.getObject(2, UUID.class))
+                .destinationId(resultSet.getObject(3, UUID.class))
+                .amount(resultSet.getLong(4))
+                .period(resultSet.getString(5))
+                .firstRunAt(resultSet.getLong(6))
+                .nextRunAt(resultSet.getLong(7))
+                .occurrence(resultSet.getInt(8))
+                .status(ScheduledTransferStatus.valueOf(resultSet.getString(9)))
+                .runs(resultSet.getInt(10))
+                .failures(resultSet.getInt(11))
+                .lastError(resultSet.getString(12))
+                .createdAt(resultSet.getLong(13))
+                .build();
+    }
+
+    @FunctionalInterface
+    interface DueConsumer {
+        void accept(UUID id, long runAt);
+    }
+}
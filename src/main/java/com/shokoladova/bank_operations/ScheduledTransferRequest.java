@@ -0,0 +1,18 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.UUID;
+
+@Data
+@Builder
+public class ScheduledTransferRequest {
+
+    private UUID sourceId;
+    private UUID destinationId;
+    private long amount;
+    // epoch millis of the first run, now when missing
+    private Long runAt;
+    private String period;
+}
@@ -0,0 +1,5 @@
+package com.shokoladova.bank_operations;
+
+public enum ScheduledTransferStatus {
+    ACTIVE, COMPLETED, FAILED, CANCELLED
+}
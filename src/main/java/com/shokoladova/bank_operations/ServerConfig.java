@@ -0,0 +1,39 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class ServerConfig {
+
+    @Builder.Default
+    private int port = 8080;
+    @Builder.Default
+    private boolean virtualThreads = false;
+    @Builder.Default
+    private int maxThreads = 200;
+    @Builder.Default
+    private int minThreads = 8;
+    @Builder.Default
+    private int idleTimeoutMillis = 60_000;
+    @Builder.Default
+    private int queueCapacity = 10_000;
+    @Builder.Default
+    private int maxVirtualThreads = 10_000;
+    // the routes nodes of a cluster call each other on; left out of a single node
+    @Builder.Default
+    private boolean internalRoutes = false;
+
+    public static ServerConfig fromSystemProperties() {
+        return ServerConfig.builder()
+                .port(SystemProperties.getInt("port", 8080))
+                .virtualThreads(SystemProperties.getBoolean("server.virtualThreads", false))
+                .maxThreads(SystemProperties.getInt("server.maxThreads", 200))
+                .minThreads(SystemProperties.getInt("server.minThreads", 8))
+                .idleTimeoutMillis(SystemProperties.getInt("server.idleTimeoutMillis", 60_000))
+                .queueCapacity(SystemProperties.getInt("server.queueCapacity", 10_000))
+                .maxVirtualThreads(SystemProperties.getInt("server.maxVirtualThreads", 10_000))
+                .build();
+    }
+}
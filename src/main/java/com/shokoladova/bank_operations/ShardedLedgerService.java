@@ -0,0 +1,318 @@
+package com.shokoladova.bank_operations;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * In-memory {@link BankAccountService} that partitions accounts by id into single-writer shards.
+ * A transfer between shards checks that the destination can take the credit, debits the source on its shard
+ * and then hands the credit over to the destination shard. A hand-off the destination shard does not take is
+ * parked and retried, and a credit it turns down is refunded to the source, so a debit is never left on its own.
+ * Both legs are journaled, so a hand-off still unfinished when the process stops is completed on recovery.
+ */
+@Slf4j
+public class ShardedLedgerService implements BankAccountService, AutoCloseable {
+
+    private static final int MAX_CARDHOLDER_NAME_LENGTH = 255;
+    private static final String BALANCE_OVERFLOW = "Could not credit the account cause its balance would overflow";
+
+    private final LedgerShard[] shards;
+    private final Queue<HandOff> parked = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService handOffRetry;
+
+    public ShardedLedgerService(LedgerConfig config) {
+        try {
+            Path journalDir = Paths.get(config.getJournalDir());
+            Files.createDirectories(journalDir);
+            validateShardLayout(journalDir, config.getShards());
+
+            shards = new LedgerShard[config.getShards()];
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = new LedgerShard(i, journalDir.resolve(journalFileName(i, shards.length)), config);
+            }
+            handOffRetry = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ledger-hand-off");
+                thread.setDaemon(true);
+                return thread;
+            });
+            recover();
+            handOffRetry.scheduleWithFixedDelay(this::retryParked, config.getHandOffRetryMillis(), config.getHandOffRetryMillis(),
+                    TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public BankAccount create(String cardholderName, long initialBalance) throws SQLException {
+        if (initialBalance < 0) {
+            throw new MoneyOperationException("Could not create account with negative balance");
+        }
+        if (cardholderName != null && cardholderName.length() > MAX_CARDHOLDER_NAME_LENGTH) {
+            throw new IllegalArgumentException("Cardholder name is too long");
+        }
+        UUID id = UUID.randomUUID();
+        return await(shardOf(id).submit(shard -> toBankAccount(shard.create(id, cardholderName, initialBalance))));
+    }
+
+    @Override
+    public BankAccount get(UUID id) throws SQLException {
+        LedgerShard.Account account = shardOf(id).find(id);
+        if (account == null) {
+            throw new BankAccountNotFountException(format("Could not find account with id = %s", id));
+        }
+        return toBankAccount(account);
+    }
+
+    @Override
+    public BankAccount withdraw(UUID id, long amount) throws SQLException {
+        validateAccountExists(id);
+        if (amount <= 0) {
+            throw new MoneyOperationException("Can not withdraw non-positive value");
+        }
+        return awaitBalanceChange(shardOf(id).submit(shard ->
+                toBankAccount(shard.apply(LedgerRecordType.WITHDRAW, shard.require(id), -amount, null, null))));
+    }
+
+    @Override
+    public BankAccount deposit(UUID id, long amount) throws SQLException {
+        validateAccountExists(id);
+        if (amount <= 0) {
+            throw new MoneyOperationException("Can not deposit non-positive value");
+        }
+        return awaitBalanceChange(shardOf(id).submit(shard ->
+                toBankAccount(shard.apply(LedgerRecordType.DEPOSIT, shard.require(id), amount, null, null))));
+    }
+
+    @Override
+    public boolean transfer(TransferRequest transferRequest) throws SQLException {
+        validateAccountExists(transferRequest.getSourceId());
+        validateAccountExists(transferRequest.getDestinationId());
+        if (transferRequest.getAmount() <= 0) {
+            throw new MoneyOperationException("Can not transfer non-positive value");
+        }
+
+        UUID sourceId = transferRequest.getSourceId();
+        UUID destinationId = transferRequest.getDestinationId();
+        long amount = transferRequest.getAmount();
+        UUID transferId = UUID.randomUUID();
+        LedgerShard source = shardOf(sourceId);
+        LedgerShard destination = shardOf(destinationId);
+
+        CompletableFuture<Boolean> transferred;
+        if (source == destination) {
+            // both legs are checked before either is applied, so the writer thread never leaves half a transfer behind
+            transferred = source.submit(shard -> {
+                LedgerShard.Account debited = debitable(shard, sourceId, amount);
+                LedgerShard.Account credited = creditable(shard.require(destinationId), amount);
+                shard.apply(LedgerRecordType.TRANSFER_OUT, debited, -amount, destinationId, transferId);
+                shard.apply(LedgerRecordType.TRANSFER_IN, credited, amount, sourceId, transferId);
+                return true;
+            });
+        } else {
+            creditable(destination.find(destinationId), amount);
+            // a credit that is parked or refunded still settles the transfer, so the caller learns about the debit only
+            transferred = source.submit(shard ->
+                    shard.apply(LedgerRecordType.TRANSFER_OUT, debitable(shard, sourceId, amount), -amount, destinationId, transferId))
+                    .thenCompose(debited -> handOff(new HandOff(sourceId, destinationId, amount, transferId, false)))
+                    .thenApply(settled -> true);
+        }
+        return await(transferred);
+    }
+
+    // parked hand-offs stay unfinished in the journals and are completed by the next recovery
+    @Override
+    public void close() throws IOException, InterruptedException {
+        handOffRetry.shutdown();
+        handOffRetry.awaitTermination(10, TimeUnit.SECONDS);
+        for (LedgerShard shard : shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * Credits a debited transfer on the destination shard, or refunds it to the source shard. A hand-off the shard
+     * does not take is parked for {@link #retryParked}; a credit the destination turns down, because the account is
+     * gone or its balance grew past what it can take since the check before the debit, is refunded instead. The
+     * refund is journaled as a credit of the same transfer, which settles the transfer for recovery too.
+     * The returned future never fails.
+     */
+    private CompletableFuture<Void> handOff(HandOff handOff) {
+        UUID accountId = handOff.refund ? handOff.sourceId : handOff.destinationId;
+        UUID counterpartyId = handOff.refund ? handOff.destinationId : handOff.sourceId;
+        return shardOf(accountId).submit(shard ->
+                        shard.apply(LedgerRecordType.TRANSFER_IN, shard.require(accountId), handOff.amount, counterpartyId, handOff.transferId))
+                .handle((credited, error) -> {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (cause == null) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    if (cause instanceof RejectedExecutionException) {
+                        parked.add(handOff);
+                    } else if (!handOff.refund && (cause instanceof MoneyOperationException || cause instanceof BankAccountNotFountException)) {
+                        log.warn("Credit of transfer {} was turned down, refunding it: {}", handOff.transferId, cause.getMessage());
+                        return handOff(new HandOff(handOff.sourceId, handOff.destinationId, handOff.amount, handOff.transferId, true));
+                    } else if (cause instanceof MoneyOperationException) {
+                        log.error("Refund of transfer {} was turned down, retrying it: {}", handOff.transferId, cause.getMessage());
+                        parked.add(handOff);
+                    } else {
+                        // the shard could not flush the credit and undid it; recovery redoes it from the debit in the journal
+                        log.error("Hand-off of transfer {} failed", handOff.transferId, cause);
+                    }
+                    return CompletableFuture.<Void>completedFuture(null);
+                })
+                .thenCompose(next -> next);
+    }
+
+    private void retryParked() {
+        for (int waiting = parked.size(); waiting > 0; waiting--) {
+            HandOff handOff = parked.poll();
+            if (handOff == null) {
+                return;
+            }
+            handOff(handOff);
+        }
+    }
+
+    int parkedHandOffs() {
+        return parked.size();
+    }
+
+    private LedgerShard.Account debitable(LedgerShard shard, UUID sourceId, long amount) {
+        LedgerShard.Account account = shard.require(sourceId);
+        if (account.getBalance() < amount) {
+            throw new MoneyOperationException("Could not transfer cause insufficient money");
+        }
+        return account;
+    }
+
+    private static LedgerShard.Account creditable(LedgerShard.Account account, long amount) {
+        if (!LedgerShard.canApply(account, amount)) {
+            throw new MoneyOperationException(BALANCE_OVERFLOW);
+        }
+        return account;
+    }
+
+    private void recover() throws IOException {
+        long started = System.nanoTime();
+        Map<UUID, LedgerRecord> pendingCredits = new HashMap<>();
+        Set<UUID> credited = new HashSet<>();
+        long records = 0;
+        for (LedgerShard shard : shards) {
+            records += shard.recover(record -> {
+                if (record.getType() == LedgerRecordType.TRANSFER_OUT) {
+                    pendingCredits.put(record.getTransferId(), record);
+                } else if (record.getType() == LedgerRecordType.TRANSFER_IN) {
+                    credited.add(record.getTransferId());
+                }
+            });
+        }
+        pendingCredits.keySet().removeAll(credited);
+        for (LedgerShard shard : shards) {
+            shard.start();
+        }
+        for (LedgerRecord debit : pendingCredits.values()) {
+            handOff(new HandOff(debit.getAccountId(), debit.getCounterpartyId(), debit.getAmount(), debit.getTransferId(), false)).join();
+        }
+        log.info("Recovered {} ledger records and completed {} pending transfers in {} ms",
+                records, pendingCredits.size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private void validateShardLayout(Path journalDir, int shardCount) throws IOException {
+        try (DirectoryStream<Path> journals = Files.newDirectoryStream(journalDir, "shard-*.journal")) {
+            for (Path journal : journals) {
+                if (!journal.getFileName().toString().endsWith("-of-" + shardCount + ".journal")) {
+                    throw new IllegalStateException(format("Journal %s was written with a different shard count than %d", journal, shardCount));
+                }
+            }
+        }
+    }
+
+    private static String journalFileName(int index, int shardCount) {
+        return format("shard-%d-of-%d.journal", index, shardCount);
+    }
+
+    private LedgerShard shardOf(UUID id) {
+        return shards[Math.floorMod(id.hashCode(), shards.length)];
+    }
+
+    private void validateAccountExists(UUID id) {
+        if (shardOf(id).find(id) == null) {
+            throw new BankAccountNotFountException(format("Could not find account with id = %s", id));
+        }
+    }
+
+    private static final class HandOff {
+
+        private final UUID sourceId;
+        private final UUID destinationId;
+        private final long amount;
+        private final UUID transferId;
+        private final boolean refund;
+
+        HandOff(UUID sourceId, UUID destinationId, long amount, UUID transferId, boolean refund) {
+            this.sourceId = sourceId;
+            this.destinationId = destinationId;
+            this.amount = amount;
+            this.transferId = transferId;
+            this.refund = refund;
+        }
+    }
+
+    private static BankAccount toBankAccount(LedgerShard.Account account) {
+        BankAccount bankAccount = new BankAccount(account.getCardholderName(), account.getBalance());
+        bankAccount.setId(account.getId());
+        return bankAccount;
+    }
+
+    // the JDBC engine throws a rejected withdraw or deposit as it is, not wrapped
+    private static BankAccount awaitBalanceChange(CompletableFuture<BankAccount> future) throws SQLException {
+        try {
+            return await(future);
+        } catch (SQLException e) {
+            if (e.getCause() instanceof MoneyOperationException) {
+                throw (MoneyOperationException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the ledger", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BankAccountNotFountException) {
+                throw (BankAccountNotFountException) cause;
+            }
+            // same contract as the JDBC engine, where failures inside a transaction surface as SQLException
+            throw new SQLException(cause.getMessage(), cause);
+        }
+    }
+}
@@ -1,39 +1,157 @@
 package com.shokoladova.bank_operations;
 
 
-import java.util.Optional;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+import spark.Service;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
 
-import static spark.Spark.*;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
 
 class SparkServer {
 
-    private final BankAccountFacade facade = new BankAccountFacadeImpl();
+    private final BankAccountFacade facade;
+    private final StatsFacade statsFacade;
+    private final BatchJobFacade batchJobFacade;
+    private final ScheduledTransferFacade scheduledTransferFacade;
+    private final ServerConfig config;
+    private final Service http = Service.ignite();
+
+    SparkServer(BankAccountFacade facade, StatsFacade statsFacade) {
+        this(facade, statsFacade, ServerConfig.fromSystemProperties());
+    }
+
+    SparkServer(BankAccountFacade facade, StatsFacade statsFacade, ServerConfig config) {
+        this(facade, statsFacade, new BatchJobFacadeImpl(null), config);
+    }
+
+    SparkServer(BankAccountFacade facade, StatsFacade statsFacade, BatchJobFacade batchJobFacade, ServerConfig config) {
+        this(facade, statsFacade, batchJobFacade, new ScheduledTransferFacadeImpl(null), config);
+    }
+
+    SparkServer(BankAccountFacade facade, StatsFacade statsFacade, BatchJobFacade batchJobFacade,
+                ScheduledTransferFacade scheduledTransferFacade, ServerConfig config) {
+        this.facade = facade;
+        this.statsFacade = statsFacade;
+        this.batchJobFacade = batchJobFacade;
+        this.scheduledTransferFacade = scheduledTransferFacade;
+        this.config = config;
+    }
 
     void start() {
-        initPort();
-        init();
-        awaitInitialization();
+        http.port(config.getPort());
+        // Spark 2.8 looks the server factory up in a JVM-wide registry, so servers of several nodes start one at a time
+        synchronized (SparkServer.class) {
+            EmbeddedServers.add(EmbeddedServers.defaultIdentifier(), new EmbeddedJettyFactory().withThreadPool(threadPool()));
+            http.init();
+            http.awaitInitialization();
+        }
         initRoutes();
     }
 
+    void stop() {
+        http.stop();
+        http.awaitStop();
+    }
+
     private void initRoutes() {
 
-        path("/account", () -> {
+        http.path("/account", () -> {
+
+            http.post("", timed("create", facade::create));
+            http.post("/import", timed("import", facade::importAccounts));
+            http.get("", timed("get", facade::get));
+            http.post("/withdraw", timed("withdraw", facade::withdraw));
+            http.post("/transfer", timed("transfer", facade::transfer));
+            http.post("/transfer/batch", timed("transfer_batch", facade::transferBatch));
+            http.post("/transfer/scheduled", timed("transfer_scheduled", scheduledTransferFacade::create));
+            http.get("/transfer/scheduled/:id", timed("transfer_scheduled_get", scheduledTransferFacade::get));
+            http.delete("/transfer/scheduled/:id", timed("transfer_scheduled_cancel", scheduledTransferFacade::cancel));
+            http.post("/deposit", timed("deposit", facade::deposit));
+            http.get("/history", timed("history", facade::history));
+            http.get("/search", timed("search", facade::search));
+        });
+
+        if (config.isInternalRoutes()) {
+            http.path("/internal", () -> {
+
+                http.post("/transfer/in", timed("transfer_in", facade::transferIn));
+            });
+        }
+
+        http.path("/batch/jobs", () -> {
+
+            http.post("", timed("batch_start", batchJobFacade::start));
+            http.get("", timed("batch_list", batchJobFacade::list));
+            http.get("/:id", timed("batch_status", batchJobFacade::status));
+            http.post("/:id/resume", timed("batch_resume", batchJobFacade::resume));
+        });
+
+        http.path("/stats", () -> {
 
-            post("", (req, res) -> facade.create(req));
-            get("", (req, res) -> facade.get(req));
-            post("/withdraw", (req, res) -> facade.withdraw(req));
-            post("/transfer", (req, res) -> facade.transfer(req));
-            post("/deposit", (req, res) -> facade.deposit(req));
+            http.get("/pool", timed("stats_pool", req -> statsFacade.pool()));
+            http.get("/locks", timed("stats_locks", req -> statsFacade.locks()));
+            http.get("/group-commit", timed("stats_group_commit", req -> statsFacade.groupCommit()));
+            http.get("/cache", timed("stats_cache", req -> statsFacade.cache()));
+            http.get("/invariants", timed("stats_invariants", req -> statsFacade.invariants()));
         });
 
+        http.get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4");
+            return statsFacade.metrics();
+        });
+    }
+
+    private static Route timed(String name, Handler handler) {
+        LongAdder ok = Metrics.counter("bank_http_requests_total", "HTTP requests by route and operation status",
+                "route", name, "status", OperationStatus.OK.name());
+        LongAdder failed = Metrics.counter("bank_http_requests_total", "HTTP requests by route and operation status",
+                "route", name, "status", OperationStatus.NE_OK.name());
+        Histogram latency = Metrics.summary("bank_http_request_duration_seconds", "HTTP request latency by route",
+                "route", name);
+        return (req, res) -> {
+            long start = System.nanoTime();
+            BankOperationResultDto result = null;
+            try {
+                result = handler.handle(req);
+                return write(res, result);
+            } finally {
+                latency.record(System.nanoTime() - start);
+                (result != null && result.getStatus() == OperationStatus.OK ? ok : failed).increment();
+            }
+        };
+    }
+
+    // the DTO is encoded straight into the servlet stream; the empty body tells Spark there is nothing left to write
+    private static String write(Response res, BankOperationResultDto result) throws IOException {
+        res.type("application/json");
+        if (result.getError() != null) {
+            res.status(result.getError().getCode().httpStatus());
+            if (result.getError().getCode() == ErrorCode.TOO_MANY_REQUESTS || result.getError().getCode() == ErrorCode.CONFLICT) {
+                res.header("Retry-After", "1");
+            }
+        }
+        Json.writeResult(res.raw().getOutputStream(), result);
+        return "";
+    }
 
+    private interface Handler {
+        BankOperationResultDto handle(Request req);
     }
 
-    private void initPort() {
-        Integer port = Optional.ofNullable(System.getProperty("port"))
-                .map(Integer::parseInt)
-                .orElse(8080);
-        port(port);
+    private ThreadPool threadPool() {
+        if (config.isVirtualThreads()) {
+            return new VirtualThreadPool(config.getMaxVirtualThreads());
+        }
+        QueuedThreadPool pool = new QueuedThreadPool(config.getMaxThreads(), config.getMinThreads(), config.getIdleTimeoutMillis(),
+                new BlockingArrayQueue<>(config.getMinThreads(), config.getMinThreads(), config.getQueueCapacity()));
+        pool.setName("http");
+        return pool;
     }
 }
@@ -0,0 +1,89 @@
+package com.shokoladova.bank_operations;
+
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Pooled connection that keeps its prepared statements for as long as it lives, so each statement is parsed
+ * and planned once per connection instead of once per call. A pooled connection is used by one thread at a time,
+ * so the cache needs no locking. Cached statements are closed with the connection and must not be closed by callers.
+ * <p>
+ * The cache holds at most {@value #MAX_STATEMENTS} statements and closes the least recently used one to make room,
+ * so a caller must be done with a statement before it prepares that many others.
+ */
+class StatementCachingConnection extends JdbcDatabaseConnection {
+
+    static final int MAX_STATEMENTS = 64;
+
+    private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= MAX_STATEMENTS) {
+                return false;
+            }
+            closeQuietly(eldest.getValue());
+            return true;
+        }
+    };
+
+    StatementCachingConnection(Connection connection) {
+        super(connection);
+    }
+
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = getInternalConnection().prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Prepares {@code prefix}, an IN list of the given ids and {@code suffix}, with the ids bound in order from the
+     * first parameter. The list is padded to a power of two by repeating the last id, so lists of any size share a
+     * handful of statements instead of taking one each.
+     */
+    PreparedStatement prepareIn(String prefix, Collection<UUID> ids, String suffix) throws SQLException {
+        if (ids.isEmpty()) {
+            throw new IllegalArgumentException("IN list needs at least one id");
+        }
+        int size = ids.size() == 1 ? 1 : Integer.highestOneBit(ids.size() - 1) << 1;
+        PreparedStatement statement = prepare(prefix + String.join(",", Collections.nCopies(size, "?")) + suffix);
+        int index = 1;
+        UUID last = null;
+        for (UUID id : ids) {
+            statement.setObject(index++, id);
+            last = id;
+        }
+        while (index <= size) {
+            statement.setObject(index++, last);
+        }
+        return statement;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+        super.close();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+            // the statement is not used again anyway
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.shokoladova.bank_operations;
+
+public interface StatsFacade {
+
+    BankOperationResultDto pool();
+
+    BankOperationResultDto locks();
+
+    BankOperationResultDto groupCommit();
+
+    BankOperationResultDto cache();
+
+    BankOperationResultDto invariants();
+
+    String metrics();
+}
@@ -0,0 +1,130 @@
+package com.shokoladova.bank_operations;
+
+import static com.shokoladova.bank_operations.OperationStatus.NE_OK;
+import static com.shokoladova.bank_operations.OperationStatus.OK;
+
+public class StatsFacadeImpl implements StatsFacade {
+
+    private final ConnectionPool connectionPool;
+    private final StripedLockTable lockTable;
+    private final BankAccountServiceImpl bankAccountService;
+
+    StatsFacadeImpl(ConnectionPool connectionPool, StripedLockTable lockTable, BankAccountServiceImpl bankAccountService) {
+        this.connectionPool = connectionPool;
+        this.lockTable = lockTable;
+        this.bankAccountService = bankAccountService;
+    }
+
+    @Override
+    public BankOperationResultDto pool() {
+        if (connectionPool == null) {
+            return buildErrorResult(new UnsupportedOperationException("Connection pool is not used by the current engine"));
+        }
+        return buildSuccessfullResult(connectionPool.getStats());
+    }
+
+    @Override
+    public BankOperationResultDto locks() {
+        if (lockTable == null) {
+            return buildErrorResult(new UnsupportedOperationException("Lock table is not used by the current engine"));
+        }
+        return buildSuccessfullResult(lockTable.getStats());
+    }
+
+    @Override
+    public BankOperationResultDto groupCommit() {
+        if (bankAccountService == null) {
+            return buildErrorResult(new UnsupportedOperationException("Group commit is not used by the current engine"));
+        }
+        return buildSuccessfullResult(bankAccountService.getGroupCommitStats());
+    }
+
+    @Override
+    public BankOperationResultDto cache() {
+        if (bankAccountService == null) {
+            return buildErrorResult(new UnsupportedOperationException("Account cache is not used by the current engine"));
+        }
+        return buildSuccessfullResult(bankAccountService.getCacheStats());
+    }
+
+    @Override
+    public BankOperationResultDto invariants() {
+        if (bankAccountService == null) {
+            return buildErrorResult(new UnsupportedOperationException("Balance invariants are not monitored by the current engine"));
+        }
+        return buildSuccessfullResult(bankAccountService.getInvariantStats());
+    }
+
+    @Override
+    public String metrics() {
+        StringBuilder out = new StringBuilder(8192);
+        Metrics.writeTo(out);
+        if (connectionPool != null) {
+            ConnectionPoolStatsDto pool = connectionPool.getStats();
+            write(out, "bank_pool_connections_max", "Connection pool size limit", "gauge", pool.getMaxConnections());
+            write(out, "bank_pool_connections_active", "Connections handed out", "gauge", pool.getActive());
+            write(out, "bank_pool_connections_idle", "Idle pooled connections", "gauge", pool.getIdle());
+            write(out, "bank_pool_waiting_threads", "Threads waiting for a connection", "gauge", pool.getWaiting());
+            write(out, "bank_pool_acquired_total", "Connections acquired", "counter", pool.getAcquired());
+            write(out, "bank_pool_timeouts_total", "Connection acquisitions that timed out", "counter", pool.getTimeouts());
+            write(out, "bank_pool_wait_seconds_total", "Time spent waiting for a connection", "counter", pool.getTotalWaitMicros() / 1e6);
+        }
+        if (lockTable != null) {
+            LockStatsDto locks = lockTable.getStats();
+            write(out, "bank_lock_acquisitions_total", "Account lock stripe acquisitions", "counter", locks.getAcquisitions());
+            write(out, "bank_lock_contended_total", "Account lock stripe acquisitions that had to wait", "counter", locks.getContended());
+        }
+        if (bankAccountService != null) {
+            CacheStatsDto cache = bankAccountService.getCacheStats();
+            write(out, "bank_cache_size", "Cached accounts", "gauge", cache.getSize());
+            write(out, "bank_cache_hits_total", "Account cache hits", "counter", cache.getHits());
+            write(out, "bank_cache_misses_total", "Account cache misses", "counter", cache.getMisses());
+            write(out, "bank_cache_evictions_total", "Accounts evicted from the cache", "counter", cache.getEvictions());
+            GroupCommitStatsDto groupCommit = bankAccountService.getGroupCommitStats();
+            write(out, "bank_group_commit_queued", "Balance changes waiting for a group commit", "gauge", groupCommit.getQueued());
+            write(out, "bank_group_commit_batches_total", "Group commit batches", "counter", groupCommit.getBatches());
+            write(out, "bank_group_commit_failed_batches_total", "Group commit batches that failed", "counter", groupCommit.getFailedBatches());
+            if (groupCommit.isEnabled()) {
+                write(out, "bank_group_commit_batch_size", "Balance changes per group commit batch", groupCommit.getBatchSize(), 1);
+                write(out, "bank_group_commit_duration_seconds", "Group commit batch latency", groupCommit.getCommitMicros(), 1e6);
+            }
+            InvariantStatsDto invariants = bankAccountService.getInvariantStats();
+            if (invariants.isEnabled()) {
+                write(out, "bank_invariant_total_balance", "Total balance of all accounts, kept up to date incrementally", "gauge", invariants.getTotalBalance());
+                write(out, "bank_invariant_accounts", "Number of accounts, kept up to date incrementally", "gauge", invariants.getAccounts());
+                write(out, "bank_invariant_drifted_buckets", "Account id buckets whose aggregates disagree with the table", "gauge",
+                        invariants.getDrifts().size());
+            }
+        }
+        return out.toString();
+    }
+
+    private static void write(StringBuilder out, String name, String help, String type, long value) {
+        Metrics.writeHeader(out, name, help, type);
+        Metrics.writeSample(out, name, "", value);
+    }
+
+    private static void write(StringBuilder out, String name, String help, String type, double value) {
+        Metrics.writeHeader(out, name, help, type);
+        Metrics.writeSample(out, name, "", value);
+    }
+
+    private static void write(StringBuilder out, String name, String help, HistogramSnapshotDto snapshot, double unit) {
+        Metrics.writeHeader(out, name, help, "summary");
+        Metrics.writeSummary(out, name, "", snapshot, unit);
+    }
+
+    private BankOperationResultDto buildSuccessfullResult(Object result) {
+        return BankOperationResultDto.builder()
+                .result(result)
+                .status(OK)
+                .build();
+    }
+
+    private BankOperationResultDto buildErrorResult(Exception e) {
+        return BankOperationResultDto.builder()
+                .status(NE_OK)
+                .error(ErrorDto.of(e))
+                .build();
+    }
+}
@@ -0,0 +1,146 @@
+package com.shokoladova.bank_operations;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * In-process lock table in front of the database. Accounts are mapped onto a fixed number of stripes,
+ * and several stripes are always taken in ascending stripe order, so two operations can never wait on each other in a cycle.
+ */
+public class StripedLockTable {
+
+    private static final int HOTTEST_STRIPES = 10;
+    private static final Histogram LOCK_WAIT_TIME = Metrics.summary("bank_lock_wait_duration_seconds",
+            "Time spent waiting for a contended account lock stripe");
+
+    private final ReentrantLock[] locks;
+    private final int mask;
+    private final AtomicLongArray contended;
+    private final AtomicLongArray waitNanos;
+    private final LongAdder acquisitions = new LongAdder();
+
+    public StripedLockTable(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+        contended = new AtomicLongArray(size);
+        waitNanos = new AtomicLongArray(size);
+    }
+
+    public static StripedLockTable fromSystemProperties() {
+        return new StripedLockTable(SystemProperties.getInt("locks.stripes", 1024));
+    }
+
+    public Held lock(UUID id) {
+        int stripe = stripeOf(id);
+        acquire(stripe);
+        return () -> locks[stripe].unlock();
+    }
+
+    public Held lock(UUID first, UUID second) {
+        int a = stripeOf(first);
+        int b = stripeOf(second);
+        if (a == b) {
+            return lock(first);
+        }
+        int lower = Math.min(a, b);
+        int upper = Math.max(a, b);
+        acquire(lower);
+        try {
+            acquire(upper);
+        } catch (RuntimeException e) {
+            locks[lower].unlock();
+            throw e;
+        }
+        return () -> {
+            locks[upper].unlock();
+            locks[lower].unlock();
+        };
+    }
+
+    public Held lock(Collection<UUID> ids) {
+        int[] stripes = ids.stream()
+                .mapToInt(this::stripeOf)
+                .distinct()
+                .sorted()
+                .toArray();
+        int acquired = 0;
+        try {
+            for (; acquired < stripes.length; acquired++) {
+                acquire(stripes[acquired]);
+            }
+        } catch (RuntimeException e) {
+            unlock(stripes, acquired);
+            throw e;
+        }
+        return () -> unlock(stripes, stripes.length);
+    }
+
+    public LockStatsDto getStats() {
+        List<LockStatsDto.StripeStats> hottest = IntStream.range(0, locks.length)
+                .filter(stripe -> contended.get(stripe) > 0)
+                .boxed()
+                .sorted(Comparator.comparingLong(waitNanos::get).reversed())
+                .limit(HOTTEST_STRIPES)
+                .map(stripe -> LockStatsDto.StripeStats.builder()
+                        .stripe(stripe)
+                        .contended(contended.get(stripe))
+                        .waitMicros(TimeUnit.NANOSECONDS.toMicros(waitNanos.get(stripe)))
+                        .build())
+                .collect(Collectors.toList());
+        long totalContended = 0;
+        long totalWait = 0;
+        for (int i = 0; i < locks.length; i++) {
+            totalContended += contended.get(i);
+            totalWait += waitNanos.get(i);
+        }
+        return LockStatsDto.builder()
+                .stripes(locks.length)
+                .acquisitions(acquisitions.sum())
+                .contended(totalContended)
+                .totalWaitMicros(TimeUnit.NANOSECONDS.toMicros(totalWait))
+                .hottestStripes(hottest)
+                .build();
+    }
+
+    int stripeOf(UUID id) {
+        int h = id.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void unlock(int[] stripes, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+
+    private void acquire(int stripe) {
+        ReentrantLock lock = locks[stripe];
+        if (!lock.tryLock()) {
+            long start = System.nanoTime();
+            lock.lock();
+            long waited = System.nanoTime() - start;
+            contended.incrementAndGet(stripe);
+            waitNanos.addAndGet(stripe, waited);
+            LOCK_WAIT_TIME.record(waited);
+        }
+        acquisitions.increment();
+    }
+
+    public interface Held extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,32 @@
+package com.shokoladova.bank_operations;
+
+import java.util.Optional;
+
+final class SystemProperties {
+
+    private SystemProperties() {
+    }
+
+    static String getString(String name, String defaultValue) {
+        return Optional.ofNullable(System.getProperty(name))
+                .orElse(defaultValue);
+    }
+
+    static int getInt(String name, int defaultValue) {
+        return Optional.ofNullable(System.getProperty(name))
+                .map(Integer::parseInt)
+                .orElse(defaultValue);
+    }
+
+    static long getLong(String name, long defaultValue) {
+        return Optional.ofNullable(System.getProperty(name))
+                .map(Long::parseLong)
+                .orElse(defaultValue);
+    }
+
+    static boolean getBoolean(String name, boolean defaultValue) {
+        return Optional.ofNullable(System.getProperty(name))
+                .map(Boolean::parseBoolean)
+                .orElse(defaultValue);
+    }
+}
@@ -0,0 +1,128 @@
+package com.shokoladova.bank_operations;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel. Every level has {@code 2^bits} slots; a slot of the first level is one tick wide and a
+ * slot of each further level is as wide as the whole level below it. An item goes into the slot of the lowest level
+ * whose span covers its deadline, which takes constant time whatever the number of pending items. When the wheel
+ * turns onto a slot of a higher level, that slot's items move down one or more levels, each at most once per level,
+ * and the items in the current slot of the first level expire.
+ * <p>
+ * Deadlines are rounded down to the tick, and an item never expires before its tick has started.
+ * Not thread safe: one thread schedules and advances.
+ */
+class TimerWheel<T> {
+
+    private final long tickMillis;
+    private final int bits;
+    private final int mask;
+    private final Node<T>[][] slots;
+    private Node<T> overdue;
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long tickMillis, int bits, int levels, long startMillis) {
+        if (tickMillis <= 0 || bits <= 0 || levels <= 0 || bits * levels >= Long.SIZE - 1) {
+            throw new IllegalArgumentException("Timer wheel needs a positive tick and at most 62 bits of ticks in all levels");
+        }
+        this.tickMillis = tickMillis;
+        this.bits = bits;
+        this.mask = (1 << bits) - 1;
+        this.slots = new Node[levels][1 << bits];
+        this.currentTick = Math.floorDiv(startMillis, tickMillis);
+    }
+
+    void schedule(T item, long deadlineMillis) {
+        insert(new Node<>(item, Math.floorDiv(deadlineMillis, tickMillis)));
+        size++;
+    }
+
+    /**
+     * Turns the wheel up to the tick {@code nowMillis} falls into and hands every item that is due to {@code expired}.
+     */
+    void advance(long nowMillis, Consumer<T> expired) {
+        long targetTick = Math.floorDiv(nowMillis, tickMillis);
+        expire(detachOverdue(), expired);
+        while (currentTick < targetTick) {
+            currentTick++;
+            for (int level = slots.length - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (bits * level)) - 1)) == 0) {
+                    Node<T> cascaded = detach(level, slot(currentTick, level));
+                    while (cascaded != null) {
+                        Node<T> next = cascaded.next;
+                        insert(cascaded);
+                        cascaded = next;
+                    }
+                }
+            }
+            expire(detach(0, slot(currentTick, 0)), expired);
+            expire(detachOverdue(), expired);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void insert(Node<T> node) {
+        long delta = node.deadlineTick - currentTick;
+        if (delta <= 0) {
+            node.next = overdue;
+            overdue = node;
+            return;
+        }
+        for (int level = 0; level < slots.length; level++) {
+            if (delta < 1L << (bits * (level + 1))) {
+                push(level, slot(node.deadlineTick, level), node);
+                return;
+            }
+        }
+        // beyond the span of the wheel: park it in the top slot turned last, from where it cascades down again
+        int top = slots.length - 1;
+        push(top, slot(currentTick - 1, top), node);
+    }
+
+    private void push(int level, int slot, Node<T> node) {
+        node.next = slots[level][slot];
+        slots[level][slot] = node;
+    }
+
+    private int slot(long tick, int level) {
+        return (int) (tick >>> (bits * level)) & mask;
+    }
+
+    private Node<T> detach(int level, int slot) {
+        Node<T> head = slots[level][slot];
+        slots[level][slot] = null;
+        return head;
+    }
+
+    private Node<T> detachOverdue() {
+        Node<T> head = overdue;
+        overdue = null;
+        return head;
+    }
+
+    private void expire(Node<T> node, Consumer<T> expired) {
+        while (node != null) {
+            Node<T> next = node.next;
+            size--;
+            expired.accept(node.item);
+            node = next;
+        }
+    }
+
+    private static final class Node<T> {
+
+        private final T item;
+        private final long deadlineTick;
+        private Node<T> next;
+
+        Node(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
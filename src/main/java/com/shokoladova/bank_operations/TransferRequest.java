@@ -11,5 +11,6 @@ public class TransferRequest {
 
     private UUID sourceId;
     private UUID destinationId;
-    private Integer amount;
+    private long amount;
+    private String requestId;
 }
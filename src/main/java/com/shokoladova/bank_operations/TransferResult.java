@@ -0,0 +1,25 @@
+package com.shokoladova.bank_operations;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class TransferResult {
+
+    private boolean transferred;
+    private Exception error;
+
+    static TransferResult transferred() {
+        return TransferResult.builder()
+                .transferred(true)
+                .build();
+    }
+
+    static TransferResult failed(Exception error) {
+        return TransferResult.builder()
+                .transferred(false)
+                .error(error)
+                .build();
+    }
+}
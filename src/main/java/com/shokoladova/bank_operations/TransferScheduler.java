@@ -0,0 +1,274 @@
+package com.shokoladova.bank_operations;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.Period;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs transfers at a given time, once or recurring. Schedules live in the account database, and only the ones that
+ * run within the next {@code loadAheadMillis} sit in a {@link TimerWheel}, so a tick costs the same however many
+ * schedules there are. One thread owns the wheel: it loads the next window of schedules off the
+ * {@code (STATUS, NEXTRUNAT, ID)} index before the current one runs out, and at every tick runs the schedules that
+ * fell due in batches of transfers.
+ * <p>
+ * On start the first window reaches back to the oldest schedule still active, so the runs a stopped process missed
+ * are found with one index range scan and run right away. A recurring schedule that missed several occurrences runs
+ * once and moves on to its next occurrence after now. Schedules are not in the write-ahead log, so they only outlive
+ * the process when the database is kept in a file; with persistence enabled, schedules are only run on such a database.
+ * <p>
+ * A schedule may be in the wheel twice, or fire after it was cancelled: a run only goes ahead while its schedule is
+ * still active and due at the time it fired for, checked under the schedule's row lock.
+ */
+@Slf4j
+class TransferScheduler implements AutoCloseable {
+
+    private static final long MIN_INTERVAL_MILLIS = 1000;
+
+    private static final LongAdder TRANSFERRED = Metrics.counter("bank_scheduled_transfers_total",
+            "Runs of scheduled transfers", "outcome", "transferred");
+    private static final LongAdder FAILED = Metrics.counter("bank_scheduled_transfers_total",
+            "Runs of scheduled transfers", "outcome", "failed");
+    private static final LongAdder SKIPPED = Metrics.counter("bank_scheduled_transfers_total",
+            "Runs of scheduled transfers", "outcome", "skipped");
+
+    private final BankAccountServiceImpl service;
+    private final ScheduledTransferConfig config;
+    private final TimerWheel<Due> wheel;
+    private final Queue<Due> created = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService ticker;
+    // schedules that run before this are in the wheel or about to be put there
+    private volatile long loadedUntil = Long.MIN_VALUE;
+
+    TransferScheduler(BankAccountServiceImpl service, ScheduledTransferConfig config) {
+        this.service = service;
+        this.config = config;
+        this.wheel = new TimerWheel<>(config.getTickMillis(), 8, 4, System.currentTimeMillis());
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transfer-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(this::tick, 0, config.getTickMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    ScheduledTransfer create(ScheduledTransferRequest request) throws SQLException {
+        if (request.getSourceId() == null || request.getDestinationId() == null) {
+            throw new IllegalArgumentException("Transfer needs source and destination account");
+        }
+        if (request.getAmount() <= 0) {
+            throw new MoneyOperationException("Can not transfer non-positive value");
+        }
+        long now = System.currentTimeMillis();
+        long runAt = request.getRunAt() == null ? now : request.getRunAt();
+        if (request.getPeriod() != null) {
+            validatePeriod(request.getPeriod(), runAt);
+        }
+        ScheduledTransfer schedule = ScheduledTransfer.builder()
+                .id(UUID.randomUUID())
+                .sourceId(request.getSourceId())
+                .destinationId(request.getDestinationId())
+                .amount(request.getAmount())
+                .period(request.getPeriod())
+                .firstRunAt(runAt)
+                .nextRunAt(runAt)
+                .status(ScheduledTransferStatus.ACTIVE)
+                .createdAt(now)
+                .build();
+        service.inJdbcTransaction(connection -> {
+            for (UUID id : new UUID[]{schedule.getSourceId(), schedule.getDestinationId()}) {
+                if (!AccountRepository.exists(connection, id)) {
+                    throw new BankAccountNotFountException(String.format("Could not find account with id = %s", id));
+                }
+            }
+            ScheduledTransferRepository.insert(connection, schedule);
+            return null;
+        });
+        // read after the insert committed: a window loaded before that was marked loaded before its query
+        if (runAt < loadedUntil) {
+            created.add(new Due(schedule.getId(), runAt));
+        }
+        return schedule;
+    }
+
+    ScheduledTransfer get(UUID id) throws SQLException {
+        ScheduledTransfer schedule = service.inJdbcTransaction(connection -> ScheduledTransferRepository.select(connection, id));
+        if (schedule == null) {
+            throw new BankAccountNotFountException(String.format("Could not find scheduled transfer with id = %s", id));
+        }
+        return schedule;
+    }
+
+    // the wheel keeps its entry, which is skipped when it fires
+    ScheduledTransfer cancel(UUID id) throws SQLException {
+        if (!service.inJdbcTransaction(connection -> ScheduledTransferRepository.cancel(connection, id))) {
+            ScheduledTransfer schedule = get(id);
+            throw new IllegalArgumentException(String.format("Scheduled transfer %s is %s and can not be cancelled",
+                    id, schedule.getStatus()));
+        }
+        return get(id);
+    }
+
+    int pending() {
+        return wheel.size();
+    }
+
+    private void tick() {
+        try {
+            for (Due due = created.poll(); due != null; due = created.poll()) {
+                wheel.schedule(due, due.runAt);
+            }
+            long now = System.currentTimeMillis();
+            if (now + config.getLoadAheadMillis() / 2 >= loadedUntil) {
+                load(now + config.getLoadAheadMillis());
+            }
+            List<Due> fired = new ArrayList<>();
+            wheel.advance(now, fired::add);
+            for (int from = 0; from < fired.size(); from += config.getBatchSize()) {
+                run(fired.subList(from, Math.min(fired.size(), from + config.getBatchSize())), now);
+            }
+        } catch (Exception e) {
+            log.error("Scheduled transfers tick failed", e);
+        }
+    }
+
+    private void load(long until) throws SQLException {
+        long from = loadedUntil;
+        loadedUntil = until;
+        Long afterRunAt = null;
+        UUID afterId = null;
+        int loaded = 0;
+        while (true) {
+            List<Due> page = new ArrayList<>();
+            Long pageAfterRunAt = afterRunAt;
+            UUID pageAfterId = afterId;
+            service.inJdbcTransaction(connection -> ScheduledTransferRepository.selectDue(connection, from, until,
+                    pageAfterRunAt, pageAfterId, config.getLoadPageSize(), (id, runAt) -> page.add(new Due(id, runAt))));
+            for (Due due : page) {
+                wheel.schedule(due, due.runAt);
+            }
+            loaded += page.size();
+            if (page.size() < config.getLoadPageSize()) {
+                break;
+            }
+            afterRunAt = page.get(page.size() - 1).runAt;
+            afterId = page.get(page.size() - 1).id;
+        }
+        if (from == Long.MIN_VALUE && loaded > 0) {
+            log.info("Loaded {} scheduled transfers due before {}, missed runs included", loaded, Instant.ofEpochMilli(until));
+        }
+    }
+
+    private void run(List<Due> batch, long now) {
+        Map<UUID, Long> fired = new LinkedHashMap<>();
+        for (Due due : batch) {
+            fired.put(due.id, due.runAt);
+        }
+        List<ScheduledTransfer> ran;
+        try {
+            ran = service.runScheduled(fired, now);
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Could not run {} scheduled transfers, retrying in {} ms", fired.size(), config.getRetryDelayMillis(), e);
+            for (Due due : batch) {
+                wheel.schedule(due, now + config.getRetryDelayMillis());
+            }
+            return;
+        }
+        SKIPPED.add(batch.size() - ran.size());
+        for (ScheduledTransfer schedule : ran) {
+            (schedule.getLastError() == null ? TRANSFERRED : FAILED).increment();
+            if (schedule.getStatus() == ScheduledTransferStatus.ACTIVE && schedule.getNextRunAt() < loadedUntil) {
+                wheel.schedule(new Due(schedule.getId(), schedule.getNextRunAt()), schedule.getNextRunAt());
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a run on its schedule and moves a recurring schedule on to its first occurrence after
+     * {@code now}. Called inside the transaction that ran the transfer.
+     */
+    static void recordRun(ScheduledTransfer schedule, TransferResult result, long now) {
+        if (result.isTransferred()) {
+            schedule.setRuns(schedule.getRuns() + 1);
+            schedule.setLastError(null);
+        } else {
+            schedule.setFailures(schedule.getFailures() + 1);
+            schedule.setLastError(String.valueOf(ErrorCode.rootOf(result.getError()).getMessage()));
+        }
+        if (schedule.getPeriod() == null) {
+            schedule.setStatus(result.isTransferred() ? ScheduledTransferStatus.COMPLETED : ScheduledTransferStatus.FAILED);
+            return;
+        }
+        int occurrence = schedule.getOccurrence() + 1;
+        long runAt = runAt(schedule.getPeriod(), schedule.getFirstRunAt(), occurrence);
+        if (runAt <= now && schedule.getPeriod().contains("T")) {
+            long interval = Duration.parse(schedule.getPeriod()).toMillis();
+            occurrence = Math.toIntExact((now - schedule.getFirstRunAt()) / interval + 1);
+            runAt = runAt(schedule.getPeriod(), schedule.getFirstRunAt(), occurrence);
+        }
+        while (runAt <= now) {
+            occurrence++;
+            runAt = runAt(schedule.getPeriod(), schedule.getFirstRunAt(), occurrence);
+        }
+        schedule.setOccurrence(occurrence);
+        schedule.setNextRunAt(runAt);
+    }
+
+    /**
+     * When an occurrence of a schedule runs. Occurrences count from the first run rather than from each other, so a
+     * monthly transfer first run on the 31st runs on the last day of shorter months and on the 31st again after them.
+     * A period with a time part, such as {@code PT1H}, is an exact number of milliseconds; a date-based one, such as
+     * {@code P1M}, follows the UTC calendar.
+     */
+    static long runAt(String period, long firstRunAt, int occurrence) {
+        if (period.contains("T")) {
+            return Math.addExact(firstRunAt, Math.multiplyExact(Duration.parse(period).toMillis(), occurrence));
+        }
+        return Instant.ofEpochMilli(firstRunAt).atOffset(ZoneOffset.UTC)
+                .plus(Period.parse(period).multipliedBy(occurrence))
+                .toInstant()
+                .toEpochMilli();
+    }
+
+    private static void validatePeriod(String period, long firstRunAt) {
+        try {
+            if (runAt(period, firstRunAt, 1) - firstRunAt < MIN_INTERVAL_MILLIS) {
+                throw new IllegalArgumentException(String.format("Period %s of a scheduled transfer must be at least a second", period));
+            }
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(String.format("Period %s is not an ISO-8601 period such as P1M or PT1H", period), e);
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        ticker.shutdown();
+        ticker.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private static final class Due {
+
+        private final UUID id;
+        private final long runAt;
+
+        Due(UUID id, long runAt) {
+            this.id = id;
+            this.runAt = runAt;
+        }
+    }
+}
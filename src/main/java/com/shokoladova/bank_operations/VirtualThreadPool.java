@@ -0,0 +1,71 @@
+package com.shokoladova.bank_operations;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Jetty thread pool that starts a virtual thread per task, so a request blocked on the database or a
+ * stripe lock parks instead of holding a platform thread. At most {@code maxThreads} tasks run at once;
+ * beyond that Jetty gets a {@link RejectedExecutionException} and drops the connection.
+ */
+class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+    private final ThreadFactory threads = Thread.ofVirtual().name("http-vt-", 0).factory();
+    private final Semaphore permits;
+    private final int maxThreads;
+    private final Object joinMonitor = new Object();
+
+    VirtualThreadPool(int maxThreads) {
+        this.maxThreads = maxThreads;
+        this.permits = new Semaphore(maxThreads);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("All " + maxThreads + " virtual request threads are busy");
+        }
+        threads.newThread(() -> {
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        }).start();
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        synchronized (joinMonitor) {
+            while (isRunning()) {
+                joinMonitor.wait();
+            }
+        }
+    }
+
+    @Override
+    protected void doStop() {
+        synchronized (joinMonitor) {
+            joinMonitor.notifyAll();
+        }
+    }
+
+    @Override
+    public int getThreads() {
+        return maxThreads - permits.availablePermits();
+    }
+
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        return permits.availablePermits() == 0;
+    }
+}
@@ -0,0 +1,131 @@
+package com.shokoladova.bank_operations;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.lang.String.format;
+
+/**
+ * Segmented redo log of the JDBC engine, written with the ledger's {@link LedgerJournal} format.
+ * Appends are serialized on the append lock; {@link #awaitDurable} lets one caller write and force
+ * the log for everybody queued behind it, so concurrent commits share a single fsync. Both are
+ * {@link ReentrantLock}s rather than monitors, so a virtual thread doing log I/O under them can unmount
+ * from its carrier instead of pinning it.
+ */
+class WriteAheadLog implements AutoCloseable {
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private final Path dir;
+    private final boolean fsync;
+    private final ReentrantLock syncLock = new ReentrantLock();
+    // held only to buffer records, never across an fsync, so appends go on while the log is forced
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private LedgerJournal segment;
+    private long segmentNumber;
+    private long appended;
+    private volatile long durable;
+
+    WriteAheadLog(Path dir, long segmentNumber, boolean fsync) throws IOException {
+        this.dir = dir;
+        this.fsync = fsync;
+        this.segmentNumber = segmentNumber;
+        this.segment = new LedgerJournal(segmentPath(dir, segmentNumber), fsync);
+    }
+
+    long append(List<LedgerRecord> records) {
+        appendLock.lock();
+        try {
+            for (LedgerRecord record : records) {
+                segment.append(record);
+            }
+            return ++appended;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    void awaitDurable(long sequence) {
+        if (durable >= sequence) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (durable >= sequence) {
+                return;
+            }
+            long target;
+            appendLock.lock();
+            try {
+                segment.writeBuffer();
+                target = appended;
+            } finally {
+                appendLock.unlock();
+            }
+            segment.sync();
+            durable = target;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Closes the current segment and starts the next one; returns the number of the new segment.
+     */
+    long rotate() throws IOException {
+        syncLock.lock();
+        try {
+            appendLock.lock();
+            try {
+                segment.close();
+                durable = appended;
+                segmentNumber++;
+                segment = new LedgerJournal(segmentPath(dir, segmentNumber), fsync);
+                return segmentNumber;
+            } finally {
+                appendLock.unlock();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        syncLock.lock();
+        try {
+            appendLock.lock();
+            try {
+                segment.close();
+                durable = appended;
+            } finally {
+                appendLock.unlock();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    static List<Long> segments(Path dir) throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    static Path segmentPath(Path dir, long segmentNumber) {
+        return dir.resolve(format("%s%016d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX));
+    }
+}
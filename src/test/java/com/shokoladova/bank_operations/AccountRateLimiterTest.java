@@ -0,0 +1,52 @@
+package com.shokoladova.bank_operations;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AccountRateLimiterTest {
+
+    // one token a second, so nothing refills while a test runs
+    private final AccountRateLimiter limiter = new AccountRateLimiter(1024, 1, 2);
+
+    @Test
+    public void an_account_gets_its_burst_and_is_limited_after_that() {
+        UUID account = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+
+        assertTrue(limiter.tryAcquire(account));
+        assertTrue(limiter.tryAcquire(account));
+        assertFalse(limiter.tryAcquire(account));
+        assertTrue(limiter.tryAcquire(other));
+    }
+
+    @Test
+    public void accounts_over_their_limit_leave_the_others_untouched() {
+        UUID source = UUID.randomUUID();
+        UUID destination = UUID.randomUUID();
+        assertTrue(limiter.tryAcquire(destination));
+        assertTrue(limiter.tryAcquire(destination));
+
+        assertEquals(destination, limiter.tryAcquire(Arrays.asList(source, destination)));
+        assertTrue(limiter.tryAcquire(source));
+        assertTrue(limiter.tryAcquire(source));
+        assertFalse(limiter.tryAcquire(source));
+    }
+
+    @Test
+    public void an_account_pays_for_every_leg_it_is_in() {
+        UUID source = UUID.randomUUID();
+        UUID destination = UUID.randomUUID();
+
+        assertEquals(source, limiter.tryAcquire(Arrays.asList(source, destination, source, destination, source, null)));
+        assertNull(limiter.tryAcquire(Arrays.asList(source, destination, source, null)));
+        assertFalse(limiter.tryAcquire(source));
+        assertTrue(limiter.tryAcquire(destination));
+    }
+}
@@ -0,0 +1,119 @@
+package com.shokoladova.bank_operations;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControlledBankAccountFacadeTest {
+
+    private final HttpClient http = HttpClient.newHttpClient();
+    private ConnectionPool connectionPool;
+    private BankAccountServiceImpl service;
+    private SparkServer server;
+    private String url;
+
+    @Before
+    public void start() throws Exception {
+        connectionPool = new ConnectionPool(ConnectionPoolConfig.builder()
+                .url("jdbc:h2:mem:admission-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1")
+                .build());
+        StripedLockTable lockTable = new StripedLockTable(16);
+        service = new BankAccountServiceImpl(connectionPool, lockTable, BankAccountServiceConfig.builder().build());
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        url = "http://localhost:" + port;
+        // one token a second, so nothing refills while a test runs
+        AdmissionConfig config = AdmissionConfig.builder()
+                .enabled(true)
+                .accountRatePerSecond(1)
+                .accountBurst(2)
+                .build();
+        server = new SparkServer(new AdmissionControlledBankAccountFacade(new BankAccountFacadeImpl(service), config),
+                new StatsFacadeImpl(connectionPool, lockTable, service), ServerConfig.builder().port(port).build());
+        server.start();
+    }
+
+    @After
+    public void stop() throws Exception {
+        server.stop();
+        service.close();
+        connectionPool.closeQuietly();
+    }
+
+    @Test
+    public void transfer_to_a_limited_account_is_rejected_without_spending_the_source_token() throws Exception {
+        UUID source = service.create("shokoladova", 100).getId();
+        UUID destination = service.create("marmeladova", 0).getId();
+        assertEquals(200, post("/account/deposit?id=" + destination + "&amount=1", null).statusCode());
+        assertEquals(200, post("/account/deposit?id=" + destination + "&amount=1", null).statusCode());
+
+        HttpResponse<String> rejected = post("/account/transfer", transfer(source, destination, 10));
+
+        assertEquals(429, rejected.statusCode());
+        assertEquals("1", rejected.headers().firstValue("Retry-After").orElse(null));
+        assertEquals(100L, service.get(source).getBalance());
+        assertEquals(200, post("/account/withdraw?id=" + source + "&amount=1", null).statusCode());
+        assertEquals(200, post("/account/withdraw?id=" + source + "&amount=1", null).statusCode());
+        assertEquals(429, post("/account/withdraw?id=" + source + "&amount=1", null).statusCode());
+    }
+
+    @Test
+    public void batch_is_limited_on_every_account_of_every_leg() throws Exception {
+        UUID source = service.create("shokoladova", 100).getId();
+        UUID first = service.create("marmeladova", 0).getId();
+        UUID second = service.create("pastilova", 0).getId();
+        String batch = transfer(source, first, 10) + "\n" + transfer(source, second, 10) + "\n" + transfer(source, first, 10);
+
+        assertEquals(429, post("/account/transfer/batch", batch).statusCode());
+        assertEquals(100L, service.get(source).getBalance());
+        assertEquals(200, post("/account/transfer/batch", transfer(source, first, 10) + "\n" + transfer(source, second, 10)).statusCode());
+        assertEquals(80L, service.get(source).getBalance());
+    }
+
+    @Test
+    public void import_failing_part_way_is_reported_with_the_accounts_created_before_it() throws Exception {
+        StringBuilder csv = new StringBuilder("cardholderName,balance\n");
+        for (int i = 0; i < BankAccountFacadeImpl.IMPORT_CHUNK_SIZE; i++) {
+            csv.append("shokoladova,100\n");
+        }
+        csv.append("marmeladova,ten\npastilova,300\n");
+
+        HttpResponse<String> response = post("/account/import", csv.toString(), "text/csv");
+
+        assertEquals(400, response.statusCode());
+        assertTrue(response.body().contains("\"imported\":" + BankAccountFacadeImpl.IMPORT_CHUNK_SIZE));
+        Matcher id = Pattern.compile("\"ids\":\\[\"([0-9a-f-]+)\"").matcher(response.body());
+        assertTrue(id.find());
+        assertEquals(100L, service.get(UUID.fromString(id.group(1))).getBalance());
+    }
+
+    private HttpResponse<String> post(String path, String body) throws Exception {
+        return post(path, body, "application/json");
+    }
+
+    private HttpResponse<String> post(String path, String body, String contentType) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url + path))
+                .header("Content-Type", contentType)
+                .POST(body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return http.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String transfer(UUID source, UUID destination, long amount) {
+        return String.format("{\"sourceId\":\"%s\",\"destinationId\":\"%s\",\"amount\":%d}", source, destination, amount);
+    }
+}
@@ -7,24 +7,38 @@ import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
-public class BankAccountServiceImplTest {
+public class BankAccountServiceImplTest extends BankAccountServiceTest<BankAccountServiceImpl> {
 
     private Dao<BankAccount, UUID> accountDao;
     private ConnectionSource source;
-    private BankAccountServiceImpl service = new BankAccountServiceImpl();
+    private final List<ConnectionPool> pools = new ArrayList<>();
 
-    public BankAccountServiceImplTest() throws SQLException {
-    }
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
     @Before
     public void init() throws SQLException {
@@ -32,232 +46,555 @@ public class BankAccountServiceImplTest {
         accountDao = DaoManager.createDao(source, BankAccount.class);
     }
 
-    @After
-    public void teardown() throws SQLException {
-        TableUtils.clearTable(source, BankAccount.class);
+    @Override
+    protected BankAccountServiceImpl newService() throws SQLException {
+        return new BankAccountServiceImpl();
     }
 
-    @Test(expected = MoneyOperationException.class)
-    public void can_not_create_account_with_negative_balance() throws SQLException {
-        service.create("shokoladova", -10000);
+    @Override
+    protected BankAccount stored(UUID id) throws SQLException {
+        return accountDao.queryForId(id);
     }
 
-    @Test
-    public void create_new_account_with_some_balance() throws Exception {
-        BankAccount account = service.create("shokoladova", 10000);
-
-        BankAccount accountFromDatabase = accountDao.queryForId(account.getId());
-
-        assertEquals(account, accountFromDatabase);
+    @After
+    public void teardown() throws Exception {
+        service.close();
+        pools.forEach(ConnectionPool::closeQuietly);
+        TableUtils.clearTable(source, BankAccount.class);
+        TableUtils.clearTable(source, JournalEntry.class);
     }
 
     @Test
-    public void get_account_returns_existing_one() throws SQLException {
-        BankAccount account = service.create("shokoladova", 0);
-
-        BankAccount returnedAccount = service.get(account.getId());
-
-        assertEquals(account, returnedAccount);
-    }
-
-    @Test(expected = BankAccountNotFountException.class)
-    public void get_account_throws_exception_when_account_not_found() throws SQLException {
-        service.get(UUID.randomUUID());
+    public void create_batch_creates_accounts_in_request_order() throws Exception {
+        List<BankAccount> accounts = service.createBatch(Arrays.asList(
+                CreateAccountRequest.builder().cardholderName("shokoladova").balance(10000).build(),
+                CreateAccountRequest.builder().cardholderName("marmeladova").balance(0).build()));
+
+        assertEquals(2, accounts.size());
+        assertEquals(accounts.get(0), accountDao.queryForId(accounts.get(0).getId()));
+        assertEquals(accounts.get(1), accountDao.queryForId(accounts.get(1).getId()));
+        List<JournalEntry> journal = new ArrayList<>();
+        service.history(accounts.get(0).getId(), 0, 10).forEach(journal::add);
+        assertEquals(1, journal.size());
+        assertEquals(LedgerRecordType.CREATE, journal.get(0).getType());
+        assertEquals(10000L, journal.get(0).getBalanceAfter());
     }
 
     @Test
-    public void withdraw_successfully_decreases_balnace() throws Exception {
+    public void get_account_returns_balance_after_acknowledged_writes() throws Exception {
         BankAccount account = service.create("shokoladova", 10000);
+        BankAccount destinationAccount = service.create("marmeladova", 0);
+        service.get(account.getId());
+        service.get(destinationAccount.getId());
 
-        service.withdraw(account.getId(), 10000);
+        service.deposit(account.getId(), 500);
+        assertEquals(10500L, service.get(account.getId()).getBalance());
 
-        BankAccount accountFromDb = accountDao.queryForId(account.getId());
-        assertEquals(new Integer(0), accountFromDb.getBalance());
-    }
-
-    @Test(expected = MoneyOperationException.class)
-    public void can_not_withdraw_zero_value() throws SQLException {
-        BankAccount account = service.create("shokoladova", 10000);
-
-        service.withdraw(account.getId(), 0);
-    }
-
-    @Test(expected = MoneyOperationException.class)
-    public void can_not_withdraw_negative_value() throws SQLException {
-        BankAccount account = service.create("shokoladova", 10000);
-
-        service.withdraw(account.getId(), 0);
+        service.transfer(buildTransferRequest(account.getId(), destinationAccount.getId(), 10500));
+        assertEquals(0L, service.get(account.getId()).getBalance());
+        assertEquals(10500L, service.get(destinationAccount.getId()).getBalance());
     }
 
     @Test
-    public void deposit_successfully_increases_balnace() throws Exception {
-        BankAccount account = service.create("shokoladova", 10000);
-
-        service.deposit(account.getId(), 10000);
-
-        BankAccount accountFromDb = accountDao.queryForId(account.getId());
-        assertEquals(new Integer(20000), accountFromDb.getBalance());
+    public void optimistic_mode_applies_concurrent_transfers_and_deposits_correctly() throws Exception {
+        BankAccountServiceConfig config = BankAccountServiceConfig.builder()
+                .lockingMode(LockingMode.OPTIMISTIC)
+                .optimisticMaxAttempts(1000)
+                .optimisticBackoffMicros(50)
+                .build();
+        ExecutorService executorService = Executors.newFixedThreadPool(20);
+        try (BankAccountServiceImpl optimisticService = new BankAccountServiceImpl(
+                pool(ConnectionPoolConfig.builder().build()), new StripedLockTable(16), config)) {
+            UUID sourceAccountId = optimisticService.create("shokoladova", 10000).getId();
+            UUID destinationAccountId = optimisticService.create("marmeladova", 10000).getId();
+            CompletableFuture[] futures = new CompletableFuture[30];
+            for (int i = 0; i < 10; i++) {
+                futures[i] = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return optimisticService.transfer(buildTransferRequest(sourceAccountId, destinationAccountId, 500));
+                    } catch (SQLException e) {
+                        return false;
+                    }
+                }, executorService);
+                futures[10 + i] = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return optimisticService.transfer(buildTransferRequest(destinationAccountId, sourceAccountId, 1000));
+                    } catch (SQLException e) {
+                        return false;
+                    }
+                }, executorService);
+                futures[20 + i] = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return optimisticService.deposit(sourceAccountId, 100);
+                    } catch (SQLException e) {
+                        return false;
+                    }
+                }, executorService);
+            }
+            CompletableFuture.allOf(futures).get();
+
+            assertEquals(16000L, accountDao.queryForId(sourceAccountId).getBalance());
+            assertEquals(5000L, accountDao.queryForId(destinationAccountId).getBalance());
+            assertEquals(30L, accountDao.queryForId(sourceAccountId).getVersion());
+        } finally {
+            executorService.shutdown();
+        }
     }
 
-    @Test(expected = MoneyOperationException.class)
-    public void can_not_deposit_negative_value() throws SQLException {
-        BankAccount account = service.create("shokoladova", 10000);
-
-        service.deposit(account.getId(), -100);
+    @Test
+    public void interrupted_batch_job_resumes_without_applying_the_rule_twice() throws Exception {
+        List<CreateAccountRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            requests.add(CreateAccountRequest.builder().cardholderName("holder " + i).balance(10000).build());
+        }
+        List<BankAccount> accounts = service.createBatch(requests);
+        BatchJobConfig config = BatchJobConfig.builder().ranges(8).chunkSize(10).build();
+
+        BatchJobRunner interrupted = new BatchJobRunner(service, config);
+        CountDownLatch chunkApplied = new CountDownLatch(1);
+        CountDownLatch stopped = new CountDownLatch(1);
+        interrupted.afterChunk(() -> {
+            chunkApplied.countDown();
+            try {
+                stopped.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        UUID jobId = interrupted.start("interest", 100).getId();
+        chunkApplied.await();
+        interrupted.stop();
+        stopped.countDown();
+        interrupted.close();
+        BatchJobDto stoppedStatus = interrupted.status(jobId);
+        assertEquals(BatchJobStatus.INTERRUPTED, stoppedStatus.getStatus());
+        assertTrue(stoppedStatus.getAccountsProcessed() > 0 && stoppedStatus.getAccountsProcessed() < accounts.size());
+
+        BatchJobRunner runner = new BatchJobRunner(service, config);
+        runner.resume(jobId);
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (runner.status(jobId).getStatus() == BatchJobStatus.RUNNING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        runner.close();
 
+        BatchJobDto status = runner.status(jobId);
+        assertEquals(BatchJobStatus.COMPLETED, status.getStatus());
+        assertEquals(8, status.getRangesDone());
+        for (BankAccount account : accounts) {
+            assertEquals(10100L, accountDao.queryForId(account.getId()).getBalance());
+        }
     }
 
-    @Test(expected = MoneyOperationException.class)
-    public void can_not_deposit_zero_value() throws SQLException {
+    @Test
+    public void batch_job_chunk_from_a_stale_checkpoint_is_rolled_back() throws Exception {
         BankAccount account = service.create("shokoladova", 10000);
+        BatchJob job = BatchJob.builder()
+                .id(UUID.randomUUID())
+                .rule("interest")
+                .amount(100)
+                .status(BatchJobStatus.RUNNING)
+                .chunkSize(10)
+                .build();
+        service.inJdbcTransaction(connection -> {
+            BatchJobRepository.insert(connection, job, BatchJobRunner.ranges(job.getId(), 1));
+            return null;
+        });
+        BatchJobRange range = service.inJdbcTransaction(connection -> BatchJobRepository.selectRanges(connection, job.getId())).get(0);
+        AccountRule rule = AccountRule.of("interest", 100);
+        List<UUID> chunk = Arrays.asList(account.getId());
+
+        assertEquals(1, service.applyRule(job.getId(), rule, chunk, range, null, false));
+        for (UUID staleAfter : Arrays.asList(null, UUID.randomUUID())) {
+            try {
+                service.applyRule(job.getId(), rule, chunk, range, staleAfter, false);
+                fail();
+            } catch (SQLException e) {
+                assertEquals(ConcurrentUpdateException.class, ErrorCode.rootOf(e).getClass());
+            }
+        }
 
-        service.deposit(account.getId(), 0);
+        assertEquals(10100L, service.get(account.getId()).getBalance());
+        assertEquals(1L, service.inJdbcTransaction(connection -> BatchJobRepository.totals(connection, job.getId()))[2]);
     }
 
     @Test
-    public void transfer_successfully_transfers_money() throws Exception {
+    public void transfer_batch_applies_legs_in_order_and_reports_each_one() throws Exception {
         BankAccount sourceAccount = service.create("shokoladova", 10000);
-        BankAccount destinationAccount = service.create("marmeladova", 10000);
-
+        BankAccount destinationAccount = service.create("marmeladova", 0);
         UUID sourceAccountId = sourceAccount.getId();
         UUID destinationAccountId = destinationAccount.getId();
-        TransferRequest transferRequest = buildTransferRequest(sourceAccountId, destinationAccountId, sourceAccount.getBalance());
-
-        service.transfer(transferRequest);
 
-        BankAccount sourceAccountFromDb = accountDao.queryForId(sourceAccountId);
-        BankAccount destinationAccountFromDb = accountDao.queryForId(destinationAccountId);
-        assertEquals(new Integer(0), sourceAccountFromDb.getBalance());
-        assertEquals(new Integer(20000), destinationAccountFromDb.getBalance());
+        List<TransferResult> results = service.transferBatch(Arrays.asList(
+                buildTransferRequest(sourceAccountId, destinationAccountId, 6000),
+                buildTransferRequest(sourceAccountId, destinationAccountId, 6000),
+                buildTransferRequest(destinationAccountId, sourceAccountId, 1000),
+                buildTransferRequest(sourceAccountId, UUID.randomUUID(), 10),
+                buildTransferRequest(sourceAccountId, destinationAccountId, 0)));
+
+        assertTrue(results.get(0).isTransferred());
+        assertEquals(MoneyOperationException.class, results.get(1).getError().getClass());
+        assertTrue(results.get(2).isTransferred());
+        assertEquals(BankAccountNotFountException.class, results.get(3).getError().getClass());
+        assertEquals(MoneyOperationException.class, results.get(4).getError().getClass());
+        assertEquals(5000L, accountDao.queryForId(sourceAccountId).getBalance());
+        assertEquals(5000L, accountDao.queryForId(destinationAccountId).getBalance());
     }
 
     @Test
-    public void transfer_fails_when_have_insufficient_money() throws SQLException {
-        BankAccount sourceAccount = service.create("shokoladova", 10000);
-        BankAccount destinationAccount = service.create("marmeladova", 10000);
-
-        UUID sourceAccountId = sourceAccount.getId();
-        UUID destinationAccountId = destinationAccount.getId();
-        TransferRequest transferRequest = buildTransferRequest(sourceAccountId, destinationAccountId, sourceAccount.getBalance() * 10);
-
-        try {
-            service.transfer(transferRequest);
-        } catch (SQLException e) {
-            assertEquals(e.getCause().getClass(), MoneyOperationException.class);
+    public void group_commit_applies_concurrent_withdraw_and_deposit_correctly() throws Exception {
+        BankAccountServiceConfig config = BankAccountServiceConfig.builder()
+                .groupCommitEnabled(true)
+                .groupCommitMaxBatchSize(8)
+                .build();
+        ExecutorService executorService = Executors.newFixedThreadPool(20);
+        try (BankAccountServiceImpl groupCommitService = new BankAccountServiceImpl(
+                pool(ConnectionPoolConfig.builder().build()), new StripedLockTable(16), config)) {
+            BankAccount account = groupCommitService.create("shokoladova", 10000);
+            CompletableFuture[] futures = new CompletableFuture[40];
+            for (int i = 0; i < 20; i++) {
+                futures[i] = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return groupCommitService.withdraw(account.getId(), 1000);
+                    } catch (SQLException e) {
+                        return false;
+                    }
+                }, executorService);
+                futures[futures.length - i - 1] = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return groupCommitService.deposit(account.getId(), 500);
+                    } catch (SQLException e) {
+                        return false;
+                    }
+                }, executorService);
+            }
+            CompletableFuture.allOf(futures).exceptionally(e -> null).get();
+
+            long withdrawn = 0;
+            for (int i = 0; i < 20; i++) {
+                if (!futures[i].isCompletedExceptionally()) {
+                    withdrawn += 1000;
+                }
+            }
+            BankAccount accountFromDb = accountDao.queryForId(account.getId());
+            assertEquals(10000 + 20 * 500 - withdrawn, accountFromDb.getBalance());
+            assertTrue(groupCommitService.getGroupCommitStats().getBatches() > 0);
+        } finally {
+            executorService.shutdown();
         }
     }
 
     @Test(expected = BankAccountNotFountException.class)
-    public void transfer_fails_when_source_account_does_not_exists() throws Exception {
-        BankAccount destinationAccount = service.create("marmeladova", 10000);
-
-        UUID destinationAccountId = destinationAccount.getId();
-        TransferRequest transferRequest = buildTransferRequest(UUID.randomUUID(), destinationAccountId, 10);
-
-        service.transfer(transferRequest);
+    public void group_commit_reports_missing_account() throws Exception {
+        BankAccountServiceConfig config = BankAccountServiceConfig.builder()
+                .groupCommitEnabled(true)
+                .build();
+        try (BankAccountServiceImpl groupCommitService = new BankAccountServiceImpl(
+                pool(ConnectionPoolConfig.builder().build()), new StripedLockTable(16), config)) {
+            groupCommitService.deposit(UUID.randomUUID(), 100);
+        }
     }
 
-    @Test(expected = BankAccountNotFountException.class)
-    public void transfer_fails_when_destination_account_does_not_exists() throws SQLException {
-        BankAccount sourceAccount = service.create("shokoladova", 10000);
+    @Test
+    public void history_lists_every_movement_of_the_account_page_by_page() throws Exception {
+        BankAccount account = service.create("shokoladova", 10000);
+        BankAccount other = service.create("marmeladova", 10000);
+        service.deposit(account.getId(), 500);
+        service.withdraw(account.getId(), 200);
+        service.transfer(buildTransferRequest(account.getId(), other.getId(), 300));
+        service.transferBatch(Arrays.asList(buildTransferRequest(other.getId(), account.getId(), 1000)));
+
+        List<JournalEntry> firstPage = new ArrayList<>();
+        service.history(account.getId(), 0, 3).forEach(firstPage::add);
+        List<JournalEntry> secondPage = new ArrayList<>();
+        service.history(account.getId(), firstPage.get(2).getId(), 3).forEach(secondPage::add);
+
+        assertEquals(3, firstPage.size());
+        assertEquals(2, secondPage.size());
+        assertEquals(LedgerRecordType.CREATE, firstPage.get(0).getType());
+        assertEquals(LedgerRecordType.DEPOSIT, firstPage.get(1).getType());
+        assertEquals(LedgerRecordType.WITHDRAW, firstPage.get(2).getType());
+        assertEquals(10300, firstPage.get(2).getBalanceAfter());
+        assertEquals(LedgerRecordType.TRANSFER_OUT, secondPage.get(0).getType());
+        assertEquals(other.getId(), secondPage.get(0).getCounterpartyId());
+        assertEquals(LedgerRecordType.TRANSFER_IN, secondPage.get(1).getType());
+        assertEquals(11000, secondPage.get(1).getBalanceAfter());
+    }
 
-        TransferRequest transferRequest = buildTransferRequest(sourceAccount.getId(), UUID.randomUUID(), 10);
+    @Test
+    public void search_pages_through_ties_with_a_cursor_without_skipping_or_repeating_accounts() throws Exception {
+        List<BankAccount> accounts = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            accounts.add(service.create((i % 2 == 0 ? "anna " : "boris ") + i % 7, (i % 5) * 100));
+        }
 
-        service.transfer(transferRequest);
+        List<BankAccount> byBalance = searchAll(AccountSearchQuery.builder().minBalance(100).maxBalance(300));
+        List<BankAccount> byName = searchAll(AccountSearchQuery.builder().namePrefix("anna").maxBalance(300));
+
+        List<BankAccount> expectedByBalance = new ArrayList<>();
+        List<BankAccount> expectedByName = new ArrayList<>();
+        for (BankAccount account : accounts) {
+            if (account.getBalance() >= 100 && account.getBalance() <= 300) {
+                expectedByBalance.add(account);
+            }
+            if (account.getCardholderName().startsWith("anna") && account.getBalance() <= 300) {
+                expectedByName.add(account);
+            }
+        }
+        expectedByBalance.sort(Comparator.comparingLong(BankAccount::getBalance).thenComparing(BankAccount::getId));
+        expectedByName.sort(Comparator.comparing(BankAccount::getCardholderName).thenComparing(BankAccount::getId));
+        assertEquals(expectedByBalance, byBalance);
+        assertEquals(expectedByName, byName);
     }
 
-    @Test(expected = MoneyOperationException.class)
-    public void transfer_fails_when_trying_transfer_zero_value() throws SQLException {
-        BankAccount sourceAccount = service.create("shokoladova", 10000);
-        BankAccount destinationAccount = service.create("marmeladova", 10000);
-
-        UUID sourceAccountId = sourceAccount.getId();
-        UUID destinationAccountId = destinationAccount.getId();
-        TransferRequest transferRequest = buildTransferRequest(sourceAccountId, destinationAccountId, 0);
+    private List<BankAccount> searchAll(AccountSearchQuery.AccountSearchQueryBuilder builder) throws Exception {
+        List<BankAccount> found = new ArrayList<>();
+        String cursor = null;
+        do {
+            AccountSearchQuery query = builder.limit(4).build();
+            if (cursor != null) {
+                query.startAfter(cursor);
+            }
+            List<BankAccount> page = new ArrayList<>();
+            service.search(query).forEach(page::add);
+            found.addAll(page);
+            cursor = page.size() == query.getLimit() ? query.cursorAfter(page.get(page.size() - 1)) : null;
+        } while (cursor != null);
+        return found;
+    }
 
-        service.transfer(transferRequest);
+    @Test
+    public void invariant_monitor_follows_every_operation_and_reports_drift_from_the_table() throws Exception {
+        String url = "jdbc:h2:mem:invariants-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        BankAccountServiceConfig config = BankAccountServiceConfig.builder()
+                .invariantsBuckets(4)
+                .invariantsVerifyIntervalMillis(5)
+                .build();
+        try (BankAccountServiceImpl monitored = new BankAccountServiceImpl(
+                pool(ConnectionPoolConfig.builder().url(url).build()), new StripedLockTable(16), config);
+             Connection connection = DriverManager.getConnection(url)) {
+            List<CreateAccountRequest> requests = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                requests.add(CreateAccountRequest.builder().cardholderName("holder " + i).balance(1000).build());
+            }
+            List<BankAccount> accounts = monitored.createBatch(requests);
+            BankAccount account = monitored.create("shokoladova", 500);
+            monitored.deposit(account.getId(), 300);
+            monitored.withdraw(accounts.get(0).getId(), 100);
+            monitored.transfer(buildTransferRequest(accounts.get(1).getId(), account.getId(), 200));
+            monitored.transferBatch(Arrays.asList(buildTransferRequest(account.getId(), accounts.get(2).getId(), 50)));
+
+            InvariantStatsDto stats = monitored.getInvariantStats();
+            assertEquals(21, stats.getAccounts());
+            assertEquals(20_700, stats.getTotalBalance());
+            assertEquals(stats.getTotalBalance(), stats.getOpeningBalance() + stats.getNetInflows());
+
+            connection.createStatement().executeUpdate("UPDATE ACCOUNT SET BALANCE=BALANCE+5 WHERE ID='" + account.getId() + "'");
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (monitored.getInvariantStats().getDrifts().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            List<InvariantDriftDto> drifts = monitored.getInvariantStats().getDrifts();
+            assertEquals(1, drifts.size());
+            assertEquals(-5, drifts.get(0).getBalanceDelta());
+            assertEquals(0, drifts.get(0).getAccountsDelta());
+
+            connection.createStatement().executeUpdate("UPDATE ACCOUNT SET BALANCE=BALANCE-5 WHERE ID='" + account.getId() + "'");
+            while (!monitored.getInvariantStats().getDrifts().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(monitored.getInvariantStats().getDrifts().isEmpty());
+        }
     }
 
-    @Test(expected = MoneyOperationException.class)
-    public void transfer_fails_when_trying_transfer_negative_value() throws SQLException {
-        BankAccount sourceAccount = service.create("shokoladova", 10000);
-        BankAccount destinationAccount = service.create("marmeladova", 10000);
+    @Test
+    public void transfer_scheduler_catches_up_missed_runs_once_and_runs_due_schedules_unless_cancelled() throws Exception {
+        String url = "jdbc:h2:mem:scheduled-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        try (BankAccountServiceImpl scheduling = new BankAccountServiceImpl(
+                pool(ConnectionPoolConfig.builder().url(url).build()), new StripedLockTable(16),
+                BankAccountServiceConfig.builder().build())) {
+            BankAccount source = scheduling.create("shokoladova", 1000);
+            BankAccount destination = scheduling.create("marmeladova", 0);
+            long now = System.currentTimeMillis();
+            long day = TimeUnit.DAYS.toMillis(1);
+            // left behind by a process that stopped three and a half days ago
+            ScheduledTransfer missed = ScheduledTransfer.builder()
+                    .id(UUID.randomUUID())
+                    .sourceId(source.getId())
+                    .destinationId(destination.getId())
+                    .amount(10)
+                    .period("P1D")
+                    .firstRunAt(now - day * 7 / 2)
+                    .nextRunAt(now - day * 7 / 2)
+                    .status(ScheduledTransferStatus.ACTIVE)
+                    .build();
+            scheduling.inJdbcTransaction(connection -> {
+                ScheduledTransferRepository.insert(connection, missed);
+                return null;
+            });
+
+            try (TransferScheduler scheduler = new TransferScheduler(scheduling,
+                    ScheduledTransferConfig.builder().tickMillis(10).build())) {
+                ScheduledTransfer once = scheduler.create(scheduledTransfer(source, destination, 100, now + 200));
+                ScheduledTransfer overdrawn = scheduler.create(scheduledTransfer(source, destination, 5000, now + 200));
+                ScheduledTransfer cancelled = scheduler.create(scheduledTransfer(source, destination, 1, now + 300));
+                assertEquals(ScheduledTransferStatus.CANCELLED, scheduler.cancel(cancelled.getId()).getStatus());
+
+                long deadline = System.currentTimeMillis() + 10_000;
+                while ((scheduler.get(once.getId()).getStatus() == ScheduledTransferStatus.ACTIVE
+                        || scheduler.get(overdrawn.getId()).getStatus() == ScheduledTransferStatus.ACTIVE
+                        || System.currentTimeMillis() < now + 500) && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
 
-        UUID sourceAccountId = sourceAccount.getId();
-        UUID destinationAccountId = destinationAccount.getId();
-        TransferRequest transferRequest = buildTransferRequest(sourceAccountId, destinationAccountId, -500);
+                ScheduledTransfer caughtUp = scheduler.get(missed.getId());
+                assertEquals(1, caughtUp.getRuns());
+                assertEquals(4, caughtUp.getOccurrence());
+                assertEquals(missed.getFirstRunAt() + 4 * day, caughtUp.getNextRunAt());
+                assertEquals(ScheduledTransferStatus.COMPLETED, scheduler.get(once.getId()).getStatus());
+                ScheduledTransfer failed = scheduler.get(overdrawn.getId());
+                assertEquals(ScheduledTransferStatus.FAILED, failed.getStatus());
+                assertEquals("Could not transfer cause insufficient money", failed.getLastError());
+                assertEquals(0, scheduler.get(cancelled.getId()).getRuns());
+                assertEquals(890L, scheduling.get(source.getId()).getBalance());
+                assertEquals(110L, scheduling.get(destination.getId()).getBalance());
+            }
+        }
+    }
 
-        service.transfer(transferRequest);
+    private static ScheduledTransferRequest scheduledTransfer(BankAccount source, BankAccount destination, long amount, long runAt) {
+        return ScheduledTransferRequest.builder()
+                .sourceId(source.getId())
+                .destinationId(destination.getId())
+                .amount(amount)
+                .runAt(runAt)
+                .build();
     }
 
     @Test
-    public void concurrent_withdraw_and_deposit_successfully_applies_correctly() throws Exception {
-        ExecutorService executorService = Executors.newFixedThreadPool(20);
-        BankAccount account = service.create("shokoladova", 10000);
-        CompletableFuture[] futures = new CompletableFuture[20];
-        for (int i = 0; i < 10; i++) {
-            futures[i] = CompletableFuture.supplyAsync(() -> {
-                try {
-                    return service.withdraw(account.getId(), 1000);
-                } catch (SQLException e) {
-                    return false;
-                }
-            }, executorService);
-            futures[futures.length - i - 1] = CompletableFuture.supplyAsync(() -> {
-                try {
-                    return service.deposit(account.getId(), 500);
-                } catch (SQLException e) {
-                    return false;
-                }
-            }, executorService);
+    public void persistence_restores_balances_from_snapshot_and_log_after_restart() throws Exception {
+        BankAccountServiceConfig config = BankAccountServiceConfig.builder()
+                .persistenceEnabled(true)
+                .persistenceDir(temporaryFolder.getRoot().getPath())
+                .build();
+        BankAccount account;
+        BankAccount other;
+        BankAccount late;
+        try (BankAccountServiceImpl persistentService = persistentService(config)) {
+            account = persistentService.create("shokoladova", 10000);
+            other = persistentService.create("marmeladova", 5000);
+            persistentService.deposit(account.getId(), 500);
+            persistentService.snapshot();
+            persistentService.withdraw(account.getId(), 200);
+            persistentService.transfer(buildTransferRequest(account.getId(), other.getId(), 300));
+            persistentService.transferBatch(Arrays.asList(buildTransferRequest(other.getId(), account.getId(), 1000)));
+            late = persistentService.create("pastilova", 700);
         }
-        CompletableFuture<Void> all = CompletableFuture.allOf(futures);
-        all.get();
 
-        BankAccount accountFromDb = accountDao.queryForId(account.getId());
-        assertEquals(new Integer(5000), accountFromDb.getBalance());
+        try (BankAccountServiceImpl restartedService = persistentService(config)) {
+            assertEquals(11000L, restartedService.get(account.getId()).getBalance());
+            assertEquals(4300L, restartedService.get(other.getId()).getBalance());
+            assertEquals(700L, restartedService.get(late.getId()).getBalance());
+            assertEquals("pastilova", restartedService.get(late.getId()).getCardholderName());
+            List<JournalEntry> history = new ArrayList<>();
+            restartedService.history(account.getId(), 0, 100).forEach(history::add);
+            List<LedgerRecordType> types = new ArrayList<>();
+            history.forEach(entry -> types.add(entry.getType()));
+            assertEquals(Arrays.asList(LedgerRecordType.CREATE, LedgerRecordType.DEPOSIT, LedgerRecordType.WITHDRAW,
+                    LedgerRecordType.TRANSFER_OUT, LedgerRecordType.TRANSFER_IN), types);
+            assertEquals(11000L, history.get(history.size() - 1).getBalanceAfter());
+            assertTrue(history.get(0).getCreatedAt() > 0);
+        }
     }
 
     @Test
-    public void concurrent_bidirectional_transfer_is_ok() throws Exception {
-        ExecutorService executorService = Executors.newFixedThreadPool(20);
-        BankAccount sourceAccount = service.create("shokoladova", 10000);
-        BankAccount destinationAccount = service.create("marmeladova", 10000);
-        UUID sourceAccountId = sourceAccount.getId();
-        UUID destinationAccountId = destinationAccount.getId();
-        TransferRequest transferRequest = buildTransferRequest(sourceAccountId, destinationAccountId, 500);
-        TransferRequest inversedTransferRequest = buildTransferRequest(destinationAccountId, sourceAccountId, 1000);
+    public void optimistic_and_locking_writers_share_a_saturated_pool_without_waiting_for_each_other() throws Exception {
+        BankAccountServiceConfig config = BankAccountServiceConfig.builder()
+                .lockingMode(LockingMode.OPTIMISTIC)
+                .optimisticMaxAttempts(100_000)
+                .optimisticBackoffMicros(10)
+                .build();
+        ConnectionPool pool = pool(ConnectionPoolConfig.builder()
+                .url("jdbc:h2:mem:saturated-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1")
+                .maxConnections(2)
+                .acquireTimeoutMillis(2000)
+                .build());
+        ExecutorService executorService = Executors.newFixedThreadPool(16);
+        try (BankAccountServiceImpl mixedService = new BankAccountServiceImpl(pool, new StripedLockTable(16), config)) {
+            UUID accountId = mixedService.create("shokoladova", 0).getId();
+            UUID remoteId = UUID.randomUUID();
+            List<Future<?>> writers = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                boolean locking = i % 2 == 0;
+                writers.add(executorService.submit(() -> {
+                    for (int j = 0; j < 25; j++) {
+                        if (locking) {
+                            // credits from another node always take the stripe first
+                            mixedService.transferIn(UUID.randomUUID(), remoteId, accountId, 1);
+                        } else {
+                            mixedService.deposit(accountId, 1);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+
+            assertEquals(0, pool.getStats().getTimeouts());
+            assertEquals(16 * 25L, mixedService.get(accountId).getBalance());
+        } finally {
+            executorService.shutdown();
+        }
+    }
 
-        CompletableFuture[] futures = new CompletableFuture[20];
-        for (int i = 0; i < 10; i++) {
-            futures[i] = CompletableFuture.supplyAsync(() -> {
-                try {
-                    return service.transfer(transferRequest);
-                } catch (SQLException e) {
-                    return false;
-                }
-            }, executorService);
-            futures[futures.length - i - 1] = CompletableFuture.supplyAsync(() -> {
+    @Test
+    public void optimistic_mode_restores_the_committed_balance_after_conflicts_and_restart() throws Exception {
+        BankAccountServiceConfig config = BankAccountServiceConfig.builder()
+                .lockingMode(LockingMode.OPTIMISTIC)
+                .optimisticMaxAttempts(1)
+                .persistenceEnabled(true)
+                .persistenceDir(temporaryFolder.getRoot().getPath())
+                .build();
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        UUID accountId;
+        long balance;
+        try (BankAccountServiceImpl persistentService = persistentService(config)) {
+            accountId = persistentService.create("shokoladova", 0).getId();
+            List<Future<?>> deposits = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                deposits.add(executorService.submit(() -> persistentService.deposit(accountId, 1)));
+            }
+            int conflicts = 0;
+            for (Future<?> deposit : deposits) {
                 try {
-                    return service.transfer(inversedTransferRequest);
-                } catch (SQLException e) {
-                    return false;
+                    deposit.get();
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof ConcurrentUpdateException);
+                    conflicts++;
                 }
-            }, executorService);
+            }
+            balance = persistentService.get(accountId).getBalance();
+            assertEquals(200L - conflicts, balance);
+        } finally {
+            executorService.shutdown();
         }
-        CompletableFuture.allOf(futures).get();
 
-        BankAccount sourceAccountFromDb = accountDao.queryForId(sourceAccountId);
-        BankAccount destinationAccountFromDb = accountDao.queryForId(destinationAccountId);
-        assertEquals(new Integer(15000), sourceAccountFromDb.getBalance());
-        assertEquals(new Integer(5000), destinationAccountFromDb.getBalance());
+        try (BankAccountServiceImpl restartedService = persistentService(config)) {
+            assertEquals(balance, restartedService.get(accountId).getBalance());
+        }
     }
 
-    private TransferRequest buildTransferRequest(UUID sourceAccountId, UUID destinationAccountId, Integer amount) {
-        return TransferRequest.builder()
-                .sourceId(sourceAccountId)
-                .destinationId(destinationAccountId)
-                .amount(amount)
-                .build();
+    private BankAccountServiceImpl persistentService(BankAccountServiceConfig config) throws SQLException {
+        return new BankAccountServiceImpl(pool(ConnectionPoolConfig.builder()
+                .url("jdbc:h2:mem:persistence-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1")
+                .build()), new StripedLockTable(16), config);
+    }
+
+    private ConnectionPool pool(ConnectionPoolConfig config) throws SQLException {
+        ConnectionPool pool = new ConnectionPool(config);
+        pools.add(pool);
+        return pool;
     }
 }
\ No newline at end of file
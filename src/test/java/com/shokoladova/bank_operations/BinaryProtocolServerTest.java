@@ -0,0 +1,82 @@
+package com.shokoladova.bank_operations;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class BinaryProtocolServerTest {
+
+    private ConnectionPool connectionPool;
+    private BankAccountServiceImpl service;
+    private BinaryProtocolServer server;
+    private BinaryProtocolClient client;
+
+    @Before
+    public void start() throws Exception {
+        connectionPool = new ConnectionPool(ConnectionPoolConfig.builder()
+                .url("jdbc:h2:mem:binary-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1")
+                .build());
+        service = new BankAccountServiceImpl(connectionPool, new StripedLockTable(64), BankAccountServiceConfig.builder().build());
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new BinaryProtocolServer(service, BinaryProtocolConfig.builder().port(port).build());
+        server.start();
+        client = new BinaryProtocolClient("localhost", port);
+    }
+
+    @After
+    public void stop() throws Exception {
+        client.close();
+        server.close();
+        service.close();
+        connectionPool.closeQuietly();
+    }
+
+    @Test
+    public void pipelined_requests_are_answered_in_order() throws Exception {
+        UUID source = client.create("source", 100).getId();
+        UUID destination = client.create("destination", 0).getId();
+
+        List<BinaryRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            requests.add(BinaryRequest.builder().opcode(BinaryProtocol.TRANSFER)
+                    .accountId(source).destinationId(destination).amount(1).build());
+            requests.add(BinaryRequest.builder().opcode(BinaryProtocol.GET).accountId(destination).build());
+        }
+        List<BinaryResponse> responses = client.pipeline(requests);
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals(BinaryProtocol.OK, responses.get(2 * i).getStatus());
+            assertEquals(i + 1, responses.get(2 * i + 1).getBalance());
+        }
+        assertEquals(50, client.get(source).getBalance());
+    }
+
+    @Test
+    public void failures_are_answered_with_the_http_status_of_the_error() throws Exception {
+        UUID id = client.create("holder", 10).getId();
+
+        List<BinaryResponse> responses = client.pipeline(List.of(
+                BinaryRequest.builder().opcode(BinaryProtocol.WITHDRAW).accountId(id).amount(20).build(),
+                BinaryRequest.builder().opcode(BinaryProtocol.GET).accountId(UUID.randomUUID()).build(),
+                BinaryRequest.builder().opcode(BinaryProtocol.DEPOSIT).accountId(id).amount(5).build()));
+
+        assertEquals(422, responses.get(0).getStatus());
+        assertEquals(404, responses.get(1).getStatus());
+        assertEquals(15, responses.get(2).getBalance());
+    }
+
+    @Test(expected = MoneyOperationException.class)
+    public void client_throws_the_exception_of_the_server() throws Exception {
+        client.withdraw(client.create("holder", 10).getId(), 20);
+    }
+}
@@ -0,0 +1,225 @@
+package com.shokoladova.bank_operations;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class ClusterTest {
+
+    private static final int NODES = 2;
+    private static final String SECRET = "cluster-test-secret";
+
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final List<String> urls = new ArrayList<>();
+    private final List<Node> nodes = new ArrayList<>();
+
+    @Before
+    public void startNodes() throws Exception {
+        List<Integer> ports = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                ports.add(socket.getLocalPort());
+            }
+            urls.add("http://localhost:" + ports.get(i));
+        }
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(new Node(ClusterConfig.builder().nodes(urls).nodeId(i).secret(SECRET).build(), ports.get(i)));
+        }
+    }
+
+    @After
+    public void stopNodes() throws Exception {
+        for (Node node : nodes) {
+            node.close();
+        }
+    }
+
+    @Test
+    public void operations_on_an_account_are_forwarded_to_its_owner() throws Exception {
+        String id = create(1, 100);
+
+        assertEquals(100L, balance(0, id));
+        assertEquals("OK", call(0, "POST", "/account/deposit?id=" + id + "&amount=50", null).get("status"));
+        assertEquals(150L, balance(1, id));
+    }
+
+    @Test
+    public void forwarded_header_from_a_client_does_not_turn_routing_off() throws Exception {
+        String id = create(1, 100);
+
+        HttpRequest deposit = HttpRequest.newBuilder(URI.create(urls.get(0) + "/account/deposit?id=" + id + "&amount=50"))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .header(ClusterClient.FORWARDED_HEADER, "0")
+                .build();
+        Map<?, ?> result = Json.MAPPER.readValue(http.send(deposit, HttpResponse.BodyHandlers.ofString()).body(), Map.class);
+
+        assertEquals("OK", result.get("status"));
+        assertEquals(150L, balance(1, id));
+    }
+
+    @Test
+    public void transfer_between_nodes_debits_the_source_and_credits_the_destination() throws Exception {
+        String source = create(0, 100);
+        String destination = create(1, 0);
+
+        Map<String, Object> result = call(1, "POST", "/account/transfer",
+                "{\"sourceId\":\"" + source + "\",\"destinationId\":\"" + destination + "\",\"amount\":30}");
+
+        assertEquals("OK", result.get("status"));
+        assertEquals(70L, balance(0, source));
+        assertEquals(30L, balance(0, destination));
+    }
+
+    @Test
+    public void transfer_to_a_missing_account_on_another_node_leaves_the_source_unchanged() throws Exception {
+        String source = create(0, 100);
+        String missing = nodes.get(1).partitioner.newLocalId().toString();
+
+        Map<String, Object> result = call(0, "POST", "/account/transfer",
+                "{\"sourceId\":\"" + source + "\",\"destinationId\":\"" + missing + "\",\"amount\":30}");
+
+        assertEquals("NE_OK", result.get("status"));
+        assertEquals("ACCOUNT_NOT_FOUND", ((Map<?, ?>) result.get("error")).get("code"));
+        assertEquals(100L, balance(0, source));
+    }
+
+    @Test
+    public void transfer_batch_with_sources_on_both_nodes_answers_in_batch_order() throws Exception {
+        String first = create(0, 100);
+        String second = create(1, 100);
+
+        Map<String, Object> result = call(0, "POST", "/account/transfer/batch",
+                "{\"sourceId\":\"" + second + "\",\"destinationId\":\"" + first + "\",\"amount\":500}\n" +
+                "{\"sourceId\":\"" + first + "\",\"destinationId\":\"" + second + "\",\"amount\":40}\n");
+
+        List<?> legs = (List<?>) result.get("result");
+        assertEquals("NE_OK", ((Map<?, ?>) legs.get(0)).get("status"));
+        assertEquals("OK", ((Map<?, ?>) legs.get(1)).get("status"));
+        assertEquals(60L, balance(1, first));
+        assertEquals(140L, balance(0, second));
+    }
+
+    @Test
+    public void internal_credits_are_only_taken_from_peers_for_accounts_they_own() throws Exception {
+        String destination = create(1, 0);
+        String credit = "{\"sourceId\":\"%s\",\"destinationId\":\"" + destination + "\",\"amount\":30,\"requestId\":\"%s\"}";
+        String remoteSource = nodes.get(0).partitioner.newLocalId().toString();
+        String localSource = nodes.get(1).partitioner.newLocalId().toString();
+
+        HttpResponse<String> anonymous = send(1, "/internal/transfer/in", String.format(credit, remoteSource, UUID.randomUUID()), null);
+        HttpResponse<String> wrongSecret = send(1, "/internal/transfer/in", String.format(credit, remoteSource, UUID.randomUUID()), "guess");
+        HttpResponse<String> ownSource = send(1, "/internal/transfer/in", String.format(credit, localSource, UUID.randomUUID()), SECRET);
+
+        assertEquals(403, anonymous.statusCode());
+        assertEquals(403, wrongSecret.statusCode());
+        assertEquals(400, ownSource.statusCode());
+        assertEquals(0L, balance(1, destination));
+        assertEquals(200, send(1, "/internal/transfer/in", String.format(credit, remoteSource, UUID.randomUUID()), SECRET).statusCode());
+        assertEquals(30L, balance(1, destination));
+    }
+
+    @Test
+    public void a_single_node_has_no_internal_routes() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        ConnectionPool connectionPool = new ConnectionPool(ConnectionPoolConfig.builder()
+                .url("jdbc:h2:mem:single-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1")
+                .build());
+        StripedLockTable lockTable = new StripedLockTable(16);
+        BankAccountServiceImpl service = new BankAccountServiceImpl(connectionPool, lockTable, BankAccountServiceConfig.builder().build());
+        SparkServer server = new SparkServer(new BankAccountFacadeImpl(service), new StatsFacadeImpl(connectionPool, lockTable, service),
+                ServerConfig.builder().port(port).build());
+        server.start();
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/internal/transfer/in"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{}"))
+                    .build();
+            assertEquals(404, http.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+        } finally {
+            server.stop();
+            service.close();
+            connectionPool.closeQuietly();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void inbox_must_outlive_the_outbox_retry_horizon() {
+        new PartitionedBankAccountService(null, null, null, ClusterConfig.builder()
+                .outboxRetryHorizonMillis(60_000)
+                .inboxRetentionMillis(60_000)
+                .build());
+    }
+
+    private HttpResponse<String> send(int node, String path, String body, String secret) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(urls.get(node) + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body));
+        if (secret != null) {
+            request.header(ClusterClient.SECRET_HEADER, secret);
+        }
+        return http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String create(int node, long balance) throws Exception {
+        Map<String, Object> result = call(node, "POST", "/account?cardholderName=test&balance=" + balance, null);
+        return (String) ((Map<?, ?>) result.get("result")).get("id");
+    }
+
+    private long balance(int node, String id) throws Exception {
+        Map<String, Object> result = call(node, "GET", "/account?id=" + id, null);
+        return ((Number) ((Map<?, ?>) result.get("result")).get("balance")).longValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> call(int node, String method, String path, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(urls.get(node) + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return Json.MAPPER.readValue(http.send(request, HttpResponse.BodyHandlers.ofString()).body(), Map.class);
+    }
+
+    private static class Node implements AutoCloseable {
+
+        private final ConnectionPool connectionPool;
+        private final AccountPartitioner partitioner;
+        private final PartitionedBankAccountService service;
+        private final SparkServer server;
+
+        Node(ClusterConfig config, int port) throws Exception {
+            connectionPool = new ConnectionPool(ConnectionPoolConfig.builder()
+                    .url("jdbc:h2:mem:node-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1")
+                    .build());
+            StripedLockTable lockTable = new StripedLockTable(64);
+            partitioner = new AccountPartitioner(config.getNodes().size(), config.getNodeId());
+            ClusterClient client = new ClusterClient(config);
+            BankAccountServiceImpl jdbcService = new BankAccountServiceImpl(connectionPool, lockTable,
+                    BankAccountServiceConfig.builder().build(), partitioner::newLocalId);
+            service = new PartitionedBankAccountService(jdbcService, partitioner, client, config);
+            BankAccountFacade facade = new RoutingBankAccountFacade(new BankAccountFacadeImpl(service), partitioner, client);
+            server = new SparkServer(facade, new StatsFacadeImpl(connectionPool, lockTable, jdbcService),
+                    ServerConfig.builder().port(port).internalRoutes(true).build());
+            server.start();
+        }
+
+        @Override
+        public void close() throws IOException, InterruptedException {
+            server.stop();
+            service.close();
+            connectionPool.closeQuietly();
+        }
+    }
+}
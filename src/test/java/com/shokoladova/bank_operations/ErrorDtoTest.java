@@ -0,0 +1,52 @@
+package com.shokoladova.bank_operations;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+
+public class ErrorDtoTest {
+
+    @Test
+    public void exceptions_map_to_their_error_codes() {
+        assertEquals(ErrorCode.ACCOUNT_NOT_FOUND, ErrorCode.of(new BankAccountNotFountException("missing")));
+        assertEquals(ErrorCode.MONEY_OPERATION_REJECTED, ErrorCode.of(new MoneyOperationException("rejected")));
+        assertEquals(ErrorCode.CONFLICT, ErrorCode.of(new ConcurrentUpdateException("conflict")));
+        assertEquals(ErrorCode.TOO_MANY_REQUESTS, ErrorCode.of(new AdmissionRejectedException("busy")));
+        assertEquals(ErrorCode.BAD_REQUEST, ErrorCode.of(new IllegalArgumentException("bad")));
+        assertEquals(ErrorCode.BAD_REQUEST, ErrorCode.of(new JsonParseException(null, "bad json")));
+        assertEquals(ErrorCode.NOT_SUPPORTED, ErrorCode.of(new UnsupportedOperationException("no")));
+        assertEquals(ErrorCode.INTERNAL_ERROR, ErrorCode.of(new RejectedExecutionException("full")));
+    }
+
+    @Test
+    public void error_codes_carry_their_http_status() {
+        assertEquals(400, ErrorCode.BAD_REQUEST.httpStatus());
+        assertEquals(404, ErrorCode.ACCOUNT_NOT_FOUND.httpStatus());
+        assertEquals(422, ErrorCode.MONEY_OPERATION_REJECTED.httpStatus());
+        assertEquals(429, ErrorCode.TOO_MANY_REQUESTS.httpStatus());
+        assertEquals(500, ErrorCode.INTERNAL_ERROR.httpStatus());
+    }
+
+    @Test
+    public void the_cause_wrapped_by_a_transaction_decides_the_code_and_message() {
+        SQLException wrapped = new SQLException("Transaction failed", new SQLException("Callable threw",
+                new MoneyOperationException("Could not withdraw cause insufficient money")));
+
+        ErrorDto error = ErrorDto.of(wrapped);
+
+        assertEquals(ErrorCode.MONEY_OPERATION_REJECTED, error.getCode());
+        assertEquals("Could not withdraw cause insufficient money", error.getMessage());
+    }
+
+    @Test
+    public void an_sql_exception_without_a_cause_is_an_internal_error() {
+        ErrorDto error = ErrorDto.of(new SQLException("Connection refused"));
+
+        assertEquals(ErrorCode.INTERNAL_ERROR, error.getCode());
+        assertEquals("Connection refused", error.getMessage());
+    }
+}
@@ -0,0 +1,46 @@
+package com.shokoladova.bank_operations;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class HistogramTest {
+
+    @Test
+    public void percentiles_follow_the_last_minute_while_count_and_sum_stay_cumulative() {
+        AtomicLong now = new AtomicLong();
+        Histogram histogram = new Histogram(now::get);
+        for (int i = 0; i < 1000; i++) {
+            histogram.record(1000);
+        }
+        assertEquals(1000, histogram.getCount());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        for (int i = 0; i < 10; i++) {
+            histogram.record(5);
+        }
+        assertEquals(1000, histogram.getValueAtPercentile(50));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(40));
+        assertEquals(5, histogram.getValueAtPercentile(50));
+        assertEquals(5, histogram.getValueAtPercentile(99.9));
+        assertEquals(1010, histogram.getCount());
+        assertEquals(1000 * 1000 + 10 * 5, histogram.getSum());
+    }
+
+    @Test
+    public void a_reused_slice_starts_empty() {
+        AtomicLong now = new AtomicLong(-TimeUnit.SECONDS.toNanos(5));
+        Histogram histogram = new Histogram(now::get);
+        histogram.record(1000);
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        histogram.record(3);
+
+        assertEquals(3, histogram.getValueAtPercentile(100));
+        assertEquals(0, new Histogram(now::get).getValueAtPercentile(50));
+    }
+}
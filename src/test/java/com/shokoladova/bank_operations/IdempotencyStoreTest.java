@@ -0,0 +1,162 @@
+package com.shokoladova.bank_operations;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.shokoladova.bank_operations.OperationStatus.NE_OK;
+import static com.shokoladova.bank_operations.OperationStatus.OK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IdempotencyStoreTest {
+
+    private final AtomicInteger executions = new AtomicInteger();
+
+    @Test
+    public void completed_key_is_replayed_without_running_the_operation_again() {
+        IdempotencyStore store = store(100, 60_000);
+
+        BankOperationResultDto first = store.execute("transfer:1", "100", succeeding());
+        BankOperationResultDto retried = store.execute("transfer:1", "100", succeeding());
+
+        assertSame(first, retried);
+        assertEquals(1, executions.get());
+        store.execute("transfer:2", "100", succeeding());
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    public void rejected_operation_is_replayed_too() {
+        IdempotencyStore store = store(100, 60_000);
+
+        BankOperationResultDto first = store.execute("transfer:1", "100", failing(new MoneyOperationException("Insufficient money")));
+        BankOperationResultDto retried = store.execute("transfer:1", "100", succeeding());
+
+        assertSame(first, retried);
+        assertEquals(ErrorCode.MONEY_OPERATION_REJECTED, retried.getError().getCode());
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void concurrent_retry_waits_for_the_first_attempt() throws Exception {
+        IdempotencyStore store = store(100, 60_000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<BankOperationResultDto> first = CompletableFuture.supplyAsync(() -> store.execute("transfer:1", "100", () -> {
+            started.countDown();
+            await(release);
+            return succeeding().get();
+        }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<BankOperationResultDto> retried = CompletableFuture.supplyAsync(() -> store.execute("transfer:1", "100", succeeding()));
+        Thread.sleep(100);
+        assertFalse(retried.isDone());
+        release.countDown();
+
+        assertSame(first.get(10, TimeUnit.SECONDS), retried.get(10, TimeUnit.SECONDS));
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void retryable_failures_and_exceptions_are_forgotten() {
+        IdempotencyStore store = store(100, 60_000);
+
+        BankOperationResultDto conflict = store.execute("transfer:1", "100", failing(new ConcurrentUpdateException("Account was changed")));
+        assertEquals(ErrorCode.CONFLICT, conflict.getError().getCode());
+        try {
+            store.execute("transfer:1", "100", () -> {
+                executions.incrementAndGet();
+                throw new IllegalStateException("Connection lost");
+            });
+            fail();
+        } catch (IllegalStateException expected) {
+            // the operation's exception reaches the caller
+        }
+        assertEquals(0, store.size());
+
+        assertEquals(OK, store.execute("transfer:1", "100", succeeding()).getStatus());
+        assertEquals(3, executions.get());
+        store.execute("transfer:1", "100", succeeding());
+        assertEquals(3, executions.get());
+    }
+
+    @Test
+    public void expired_key_runs_the_operation_again() throws Exception {
+        IdempotencyStore store = store(100, 50);
+
+        BankOperationResultDto first = store.execute("transfer:1", "100", succeeding());
+        Thread.sleep(100);
+        BankOperationResultDto retried = store.execute("transfer:1", "100", succeeding());
+
+        assertNotSame(first, retried);
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    public void full_store_evicts_the_oldest_keys_first() {
+        IdempotencyStore store = store(3, 60_000);
+        for (int i = 0; i < 5; i++) {
+            store.execute("transfer:" + i, "100", succeeding());
+        }
+
+        assertEquals(3, store.size());
+        store.execute("transfer:4", "100", succeeding());
+        assertEquals(5, executions.get());
+        store.execute("transfer:0", "100", succeeding());
+        assertEquals(6, executions.get());
+    }
+
+    @Test
+    public void key_reused_for_a_different_request_is_rejected_without_running_it() {
+        IdempotencyStore store = store(100, 60_000);
+
+        BankOperationResultDto first = store.execute("withdraw:1", "account-1:100", succeeding());
+        BankOperationResultDto reused = store.execute("withdraw:1", "account-2:100", succeeding());
+        BankOperationResultDto otherAmount = store.execute("withdraw:1", "account-1:500", succeeding());
+
+        assertEquals(NE_OK, reused.getStatus());
+        assertEquals(ErrorCode.BAD_REQUEST, reused.getError().getCode());
+        assertEquals(ErrorCode.BAD_REQUEST, otherAmount.getError().getCode());
+        assertEquals(1, executions.get());
+        assertSame(first, store.execute("withdraw:1", "account-1:100", succeeding()));
+    }
+
+    private static IdempotencyStore store(int maxEntries, long ttlMillis) {
+        return new IdempotencyStore(IdempotencyConfig.builder().maxEntries(maxEntries).ttlMillis(ttlMillis).build());
+    }
+
+    private Supplier<BankOperationResultDto> succeeding() {
+        return () -> BankOperationResultDto.builder()
+                .status(OK)
+                .result(executions.incrementAndGet())
+                .build();
+    }
+
+    private Supplier<BankOperationResultDto> failing(Exception e) {
+        return () -> {
+            executions.incrementAndGet();
+            return BankOperationResultDto.builder()
+                    .status(NE_OK)
+                    .error(ErrorDto.of(e))
+                    .build();
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
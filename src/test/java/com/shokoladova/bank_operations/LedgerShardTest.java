@@ -0,0 +1,85 @@
+package com.shokoladova.bank_operations;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LedgerShardTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void batch_whose_flush_fails_is_undone_in_memory_and_in_the_journal() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("shard-0.journal");
+        LedgerShard shard = new LedgerShard(0, path, LedgerConfig.builder().fsync(false).build());
+        shard.recover(record -> { });
+        shard.start();
+        UUID kept = UUID.randomUUID();
+        UUID created = UUID.randomUUID();
+        AtomicBoolean failFlush = new AtomicBoolean();
+        try {
+            shard.submit(s -> s.create(kept, "shokoladova", 1000)).get();
+            shard.submit(s -> {
+                try {
+                    s.journal.close();
+                    s.journal = failingJournal(path, failFlush);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return null;
+            }).get();
+
+            failFlush.set(true);
+            try {
+                shard.submit(s -> {
+                    s.apply(LedgerRecordType.WITHDRAW, s.require(kept), -300, null, null);
+                    return s.create(created, "marmeladova", 500);
+                }).get();
+                fail();
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof UncheckedIOException);
+            }
+
+            assertEquals(1000L, shard.find(kept).getBalance());
+            assertNull(shard.find(created));
+            assertEquals(1005L, shard.submit(s -> s.apply(LedgerRecordType.DEPOSIT, s.require(kept), 5, null, null)).get().getBalance());
+        } finally {
+            shard.close();
+        }
+
+        List<LedgerRecord> journaled = new ArrayList<>();
+        LedgerJournal.replay(path, journaled::add);
+        assertEquals(2, journaled.size());
+        assertEquals(LedgerRecordType.DEPOSIT, journaled.get(1).getType());
+        assertEquals(1005L, journaled.get(1).getBalanceAfter());
+    }
+
+    // writes the batch out, then fails the way a full disk fails the sync
+    private static LedgerJournal failingJournal(Path path, AtomicBoolean failFlush) throws IOException {
+        return new LedgerJournal(path, false) {
+            @Override
+            void flush() {
+                if (failFlush.getAndSet(false)) {
+                    writeBuffer();
+                    throw new UncheckedIOException(new IOException("No space left on device"));
+                }
+                super.flush();
+            }
+        };
+    }
+}
@@ -0,0 +1,114 @@
+package com.shokoladova.bank_operations;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ShardedLedgerServiceTest extends BankAccountServiceTest<ShardedLedgerService> {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Override
+    protected ShardedLedgerService newService() {
+        return new ShardedLedgerService(config());
+    }
+
+    @Override
+    protected BankAccount stored(UUID id) throws SQLException {
+        return service.get(id);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        service.close();
+    }
+
+    @Test
+    public void balances_survive_restart_from_journal() throws Exception {
+        BankAccount sourceAccount = service.create("shokoladova", 10000);
+        BankAccount destinationAccount = service.create("marmeladova", 10000);
+        service.withdraw(sourceAccount.getId(), 1000);
+        service.transfer(buildTransferRequest(sourceAccount.getId(), destinationAccount.getId(), 4000));
+        service.close();
+
+        service = new ShardedLedgerService(config());
+
+        assertEquals(5000L, service.get(sourceAccount.getId()).getBalance());
+        assertEquals(14000L, service.get(destinationAccount.getId()).getBalance());
+        assertEquals("marmeladova", service.get(destinationAccount.getId()).getCardholderName());
+    }
+
+    @Test
+    public void credit_that_would_overflow_is_rejected_before_anything_is_debited() throws Exception {
+        BankAccount rich = service.create("shokoladova", Long.MAX_VALUE - 10);
+        List<BankAccount> sources = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            sources.add(service.create("marmeladova", 100));
+        }
+
+        assertOverflowRejected(() -> service.deposit(rich.getId(), 20));
+        // with eight sources over four shards, both same-shard and cross-shard transfers are covered
+        for (BankAccount source : sources) {
+            assertOverflowRejected(() -> service.transfer(buildTransferRequest(source.getId(), rich.getId(), 20)));
+            assertEquals(100L, service.get(source.getId()).getBalance());
+        }
+        assertEquals(Long.MAX_VALUE - 10, service.get(rich.getId()).getBalance());
+    }
+
+    // rejections on a shard's writer thread surface wrapped in an SQLException, checks before it unwrapped
+    private static void assertOverflowRejected(Callable<?> operation) {
+        try {
+            operation.call();
+            fail();
+        } catch (Exception e) {
+            Throwable cause = ErrorCode.rootOf(e);
+            assertEquals(MoneyOperationException.class, cause.getClass());
+            assertEquals("Could not credit the account cause its balance would overflow", cause.getMessage());
+        }
+    }
+
+    @Test
+    public void recovery_refunds_a_journaled_debit_whose_credit_can_not_be_applied() throws Exception {
+        BankAccount source = service.create("shokoladova", 10000);
+        service.close();
+        UUID missing = UUID.randomUUID();
+        int shard = Math.floorMod(source.getId().hashCode(), 4);
+        try (LedgerJournal journal = new LedgerJournal(folder.getRoot().toPath().resolve("shard-" + shard + "-of-4.journal"), false)) {
+            journal.append(LedgerRecord.builder()
+                    .type(LedgerRecordType.TRANSFER_OUT)
+                    .accountId(source.getId())
+                    .amount(3000)
+                    .balanceAfter(7000)
+                    .counterpartyId(missing)
+                    .transferId(UUID.randomUUID())
+                    .build());
+            journal.flush();
+        }
+
+        service = new ShardedLedgerService(config());
+        assertEquals(10000L, service.get(source.getId()).getBalance());
+        service.close();
+
+        service = new ShardedLedgerService(config());
+        assertEquals(10000L, service.get(source.getId()).getBalance());
+    }
+
+    private LedgerConfig config() {
+        return LedgerConfig.builder()
+                .shards(4)
+                .journalDir(folder.getRoot().getAbsolutePath())
+                .fsync(false)
+                .build();
+    }
+}
\ No newline at end of file
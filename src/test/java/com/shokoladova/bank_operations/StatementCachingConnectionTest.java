@@ -0,0 +1,76 @@
+package com.shokoladova.bank_operations;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StatementCachingConnectionTest {
+
+    private StatementCachingConnection connection;
+
+    @Before
+    public void open() throws Exception {
+        connection = new StatementCachingConnection(DriverManager.getConnection(
+                "jdbc:h2:mem:statements-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1"));
+        connection.getInternalConnection().createStatement().execute("CREATE TABLE T (ID UUID PRIMARY KEY)");
+    }
+
+    @After
+    public void close() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    public void in_lists_are_padded_to_a_power_of_two_and_share_a_statement() throws Exception {
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(UUID.randomUUID());
+            PreparedStatement insert = connection.prepare("INSERT INTO T (ID) VALUES (?)");
+            insert.setObject(1, ids.get(i));
+            insert.executeUpdate();
+        }
+
+        PreparedStatement five = connection.prepareIn("SELECT ID FROM T WHERE ID IN (", ids, ")");
+        assertEquals(8, five.getParameterMetaData().getParameterCount());
+        List<UUID> found = new ArrayList<>();
+        try (ResultSet resultSet = five.executeQuery()) {
+            while (resultSet.next()) {
+                found.add(resultSet.getObject(1, UUID.class));
+            }
+        }
+        assertEquals(5, found.size());
+        assertTrue(found.containsAll(ids));
+        assertSame(five, connection.prepareIn("SELECT ID FROM T WHERE ID IN (", Arrays.asList(ids.get(0), ids.get(1),
+                ids.get(2), ids.get(3), ids.get(4), ids.get(0), ids.get(1), ids.get(2)), ")"));
+        assertEquals(4, connection.prepareIn("SELECT ID FROM T WHERE ID IN (", ids.subList(0, 3), ")")
+                .getParameterMetaData().getParameterCount());
+        assertEquals(1, connection.prepareIn("SELECT ID FROM T WHERE ID IN (", ids.subList(0, 1), ")")
+                .getParameterMetaData().getParameterCount());
+    }
+
+    @Test
+    public void least_recently_used_statement_is_closed_to_make_room() throws Exception {
+        PreparedStatement first = connection.prepare("SELECT 0");
+        PreparedStatement second = connection.prepare("SELECT 1");
+        for (int i = 2; i <= StatementCachingConnection.MAX_STATEMENTS; i++) {
+            connection.prepare("SELECT " + i);
+            assertSame(first, connection.prepare("SELECT 0"));
+        }
+
+        assertTrue(second.isClosed());
+        assertFalse(first.isClosed());
+    }
+}
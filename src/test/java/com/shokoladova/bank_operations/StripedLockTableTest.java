@@ -0,0 +1,107 @@
+package com.shokoladova.bank_operations;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class StripedLockTableTest {
+
+    private final StripedLockTable lockTable = new StripedLockTable(4);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void two_accounts_on_the_same_stripe_take_it_once_and_release_it_on_close() throws Exception {
+        UUID first = UUID.randomUUID();
+        UUID second = sameStripeAs(first);
+
+        Future<?> waiter;
+        try (StripedLockTable.Held held = lockTable.lock(first, second)) {
+            assertEquals(1, lockTable.getStats().getAcquisitions());
+            waiter = executor.submit(() -> lockTable.lock(second).close());
+            assertStillWaiting(waiter);
+        }
+
+        waiter.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void pairs_locked_in_opposite_orders_do_not_deadlock() throws Exception {
+        UUID first = UUID.randomUUID();
+        UUID second = otherStripeThan(first);
+        CountDownLatch start = new CountDownLatch(1);
+
+        Future<?> forward = executor.submit(() -> lockRepeatedly(start, first, second));
+        Future<?> backward = executor.submit(() -> lockRepeatedly(start, second, first));
+        start.countDown();
+
+        forward.get(30, TimeUnit.SECONDS);
+        backward.get(30, TimeUnit.SECONDS);
+        assertEquals(2 * 2 * 10_000, lockTable.getStats().getAcquisitions());
+    }
+
+    @Test
+    public void a_set_of_accounts_takes_each_stripe_once() throws Exception {
+        UUID first = UUID.randomUUID();
+        UUID sameStripe = sameStripeAs(first);
+        UUID otherStripe = otherStripeThan(first);
+
+        Future<?> sameStripeWaiter;
+        Future<?> otherStripeWaiter;
+        try (StripedLockTable.Held held = lockTable.lock(Arrays.asList(otherStripe, first, sameStripe))) {
+            assertEquals(2, lockTable.getStats().getAcquisitions());
+            sameStripeWaiter = executor.submit(() -> lockTable.lock(sameStripe).close());
+            otherStripeWaiter = executor.submit(() -> lockTable.lock(otherStripe).close());
+            assertStillWaiting(sameStripeWaiter);
+            assertStillWaiting(otherStripeWaiter);
+        }
+
+        sameStripeWaiter.get(5, TimeUnit.SECONDS);
+        otherStripeWaiter.get(5, TimeUnit.SECONDS);
+    }
+
+    private Void lockRepeatedly(CountDownLatch start, UUID first, UUID second) throws InterruptedException {
+        start.await();
+        for (int i = 0; i < 10_000; i++) {
+            try (StripedLockTable.Held held = lockTable.lock(first, second)) {
+                Thread.onSpinWait();
+            }
+        }
+        return null;
+    }
+
+    private static void assertStillWaiting(Future<?> waiter) throws InterruptedException {
+        Thread.sleep(100);
+        assertFalse(waiter.isDone());
+    }
+
+    private UUID sameStripeAs(UUID id) {
+        UUID other;
+        do {
+            other = UUID.randomUUID();
+        } while (lockTable.stripeOf(other) != lockTable.stripeOf(id));
+        return other;
+    }
+
+    private UUID otherStripeThan(UUID id) {
+        UUID other;
+        do {
+            other = UUID.randomUUID();
+        } while (lockTable.stripeOf(other) == lockTable.stripeOf(id));
+        return other;
+    }
+}
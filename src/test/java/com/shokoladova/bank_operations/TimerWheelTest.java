@@ -0,0 +1,47 @@
+package com.shokoladova.bank_operations;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+    @Test
+    public void items_expire_in_the_tick_of_their_deadline_across_all_levels() {
+        long start = 1_000_000;
+        TimerWheel<Long> wheel = new TimerWheel<>(10, 2, 3, start);
+        Random random = new Random(42);
+        List<Long> deadlines = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            long deadline = start + random.nextInt(10 * 64 * 3);
+            deadlines.add(deadline);
+            wheel.schedule(deadline, deadline);
+        }
+        // past the span of the wheel, and already due
+        deadlines.addAll(Arrays.asList(start + 10 * 64 * 5 + 7, start - 50));
+        wheel.schedule(start + 10 * 64 * 5 + 7, start + 10 * 64 * 5 + 7);
+        wheel.schedule(start - 50, start - 50);
+        assertEquals(502, wheel.size());
+
+        List<Long> expired = new ArrayList<>();
+        for (long now = start; now <= start + 10 * 64 * 6; now += 3) {
+            long currentNow = now;
+            wheel.advance(now, deadline -> {
+                assertTrue(deadline / 10 <= currentNow / 10);
+                assertTrue(deadline <= start || deadline / 10 > (currentNow - 3) / 10);
+                expired.add(deadline);
+            });
+        }
+
+        assertEquals(0, wheel.size());
+        expired.sort(null);
+        deadlines.sort(null);
+        assertEquals(deadlines, expired);
+    }
+}
@@ -0,0 +1,89 @@
+package com.shokoladova.bank_operations;
+
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.shokoladova.bank_operations.OperationStatus.OK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VirtualThreadPoolTest {
+
+    @Test
+    public void tasks_run_on_virtual_threads_up_to_the_limit() throws Exception {
+        VirtualThreadPool pool = new VirtualThreadPool(2);
+        CountDownLatch running = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean virtual = new AtomicBoolean(true);
+        for (int i = 0; i < 2; i++) {
+            pool.execute(() -> {
+                virtual.compareAndSet(true, Thread.currentThread().isVirtual());
+                running.countDown();
+                await(release);
+            });
+        }
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        assertEquals(2, pool.getThreads());
+        assertTrue(pool.isLowOnThreads());
+        try {
+            pool.execute(() -> { });
+            fail();
+        } catch (RejectedExecutionException expected) {
+            // both permits are taken
+        }
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (pool.getThreads() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getThreads());
+        assertTrue(virtual.get());
+    }
+
+    @Test
+    public void server_with_virtual_threads_handles_requests_on_them() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        AtomicBoolean virtual = new AtomicBoolean();
+        BankAccountFacade facade = (BankAccountFacade) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{BankAccountFacade.class}, (proxy, method, args) -> {
+                    virtual.set(Thread.currentThread().isVirtual());
+                    return BankOperationResultDto.builder().status(OK).build();
+                });
+        SparkServer server = new SparkServer(facade, new StatsFacadeImpl(null, null, null),
+                ServerConfig.builder().port(port).virtualThreads(true).maxVirtualThreads(4).build());
+        server.start();
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/account?id=" + UUID.randomUUID()))
+                    .GET()
+                    .build();
+            assertEquals(200, HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+            assertTrue(virtual.get());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
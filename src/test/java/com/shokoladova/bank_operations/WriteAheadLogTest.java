@@ -0,0 +1,64 @@
+package com.shokoladova.bank_operations;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class WriteAheadLogTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void appends_from_virtual_threads_are_durable_and_replayed_in_order_per_writer() throws Exception {
+        Path dir = temporaryFolder.getRoot().toPath();
+        int writers = 200;
+        int recordsPerWriter = 20;
+        List<UUID> accounts = new ArrayList<>();
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 0, true);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> appended = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                UUID account = UUID.randomUUID();
+                accounts.add(account);
+                appended.add(executor.submit(() -> {
+                    for (int balance = 1; balance <= recordsPerWriter; balance++) {
+                        wal.awaitDurable(wal.append(Collections.singletonList(LedgerRecord.builder()
+                                .type(LedgerRecordType.DEPOSIT)
+                                .accountId(account)
+                                .amount(1)
+                                .balanceAfter(balance)
+                                .build())));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : appended) {
+                future.get();
+            }
+        }
+
+        Map<UUID, Long> balances = new HashMap<>();
+        long replayed = LedgerJournal.replay(WriteAheadLog.segmentPath(dir, 0), record -> {
+            assertEquals(balances.getOrDefault(record.getAccountId(), 0L) + 1, record.getBalanceAfter());
+            balances.put(record.getAccountId(), record.getBalanceAfter());
+        });
+        assertEquals(writers * recordsPerWriter, replayed);
+        for (UUID account : accounts) {
+            assertEquals(Long.valueOf(recordsPerWriter), balances.get(account));
+        }
+    }
+}